@@ -0,0 +1,156 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.maxmind.db.NoCache;
+
+import io.gromit.geolite2.cache.GuavaCache;
+import io.gromit.geolite2.cache.LocationCache;
+import io.gromit.geolite2.fixtures.Fixtures;
+import io.gromit.geolite2.utils.IpAddresses;
+
+/**
+ * Benchmarks for both {@link GeoLocation} location lookups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeoLocationBenchmark {
+
+	/** The Constant SAMPLES, must be a power of two. */
+	static final int SAMPLES = 4096;
+
+	/** The cache used by the database reader. */
+	@Param({ "none", "guava" })
+	public String cache;
+
+	/** The location cache in front of the ip lookups. */
+	@Param({ "none", "network" })
+	public String locationCache;
+
+	/** The geo location. */
+	private GeoLocation geoLocation;
+
+	/** The ips. */
+	private String[] ips;
+
+	/** The ips as ints. */
+	private int[] ipv4s;
+
+	/** The coordinates. */
+	private double[] coordinates;
+
+	/**
+	 * Per thread position over the samples.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		/** The index. */
+		private int index;
+
+		/**
+		 * Next.
+		 *
+		 * @return the int
+		 */
+		int next() {
+			return index = (index + 1) & (SAMPLES - 1);
+		}
+	}
+
+	/**
+	 * Setup.
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		Fixtures fixtures = Fixtures.get();
+		geoLocation = new GeoLocation()
+				.cache("guava".equals(cache) ? new GuavaCache() : NoCache.getInstance())
+				.databaseUrl(fixtures.databaseUrl())
+				.md5ChecksumUrl(fixtures.md5ChecksumUrl())
+				.citiesUrl(fixtures.citiesUrl())
+				.countriesUrl(fixtures.countriesUrl())
+				.subdivisionOneUrl(fixtures.subdivisionOneUrl())
+				.subdivisionTwoUrl(fixtures.subdivisionTwoUrl())
+				.timeZonesUrl(fixtures.timeZonesUrl())
+				.locationCache("network".equals(locationCache) ? new LocationCache() : null);
+		geoLocation.readDatabase();
+		ips = fixtures.ips(SAMPLES);
+		ipv4s = new int[SAMPLES];
+		byte[] address = new byte[16];
+		for (int i = 0; i < SAMPLES; i++) {
+			IpAddresses.parse(ips[i], address);
+			ipv4s[i] = ((address[0] & 0xFF) << 24) | ((address[1] & 0xFF) << 16) | ((address[2] & 0xFF) << 8)
+					| (address[3] & 0xFF);
+		}
+		coordinates = fixtures.coordinates(SAMPLES);
+	}
+
+	/**
+	 * Location by ip.
+	 *
+	 * @param cursor the cursor
+	 * @return the map
+	 */
+	@Benchmark
+	public Map<String, Object> locationByIp(Cursor cursor) {
+		return geoLocation.location(ips[cursor.next()]);
+	}
+
+	/**
+	 * Location by ipv4 int, no parsing.
+	 *
+	 * @param cursor the cursor
+	 * @return the geo location result
+	 */
+	@Benchmark
+	public GeoLocationResult findByIpv4(Cursor cursor) {
+		return geoLocation.find(ipv4s[cursor.next()]);
+	}
+
+	/**
+	 * Location by latitude and longitude.
+	 *
+	 * @param cursor the cursor
+	 * @return the map
+	 */
+	@Benchmark
+	public Map<String, Object> locationByLatLong(Cursor cursor) {
+		int index = cursor.next();
+		return geoLocation.location(coordinates[index * 2], coordinates[index * 2 + 1]);
+	}
+
+}
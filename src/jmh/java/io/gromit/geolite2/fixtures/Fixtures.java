@@ -0,0 +1,459 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2.fixtures;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * Synthetic, deterministic datasets written to a local directory so the
+ * benchmarks never depend on the remote urls.
+ */
+public class Fixtures {
+
+	/** The Constant UTF8. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The Constant SEED. */
+	private static final long SEED = 20160301l;
+
+	/** The Constant COUNTRIES. */
+	public static final int COUNTRIES = 64;
+
+	/** The Constant CITIES. */
+	public static final int CITIES = 50000;
+
+	/** The Constant SUBDIVISIONS_ONE. */
+	public static final int SUBDIVISIONS_ONE = 20;
+
+	/** The Constant SUBDIVISIONS_TWO. */
+	public static final int SUBDIVISIONS_TWO = 10;
+
+	/** The Constant NETWORKS, number of /24 blocks inside 10.0.0.0/8. */
+	public static final int NETWORKS = 8192;
+
+	/** The Constant CONTINENTS. */
+	private static final String[] CONTINENTS = { "AF", "AS", "EU", "NA", "OC", "SA", "AN" };
+
+	/** The Constant TIME_ZONES. */
+	public static final String[] TIME_ZONES = { "America/Sao_Paulo", "America/Argentina/Buenos_Aires",
+			"Europe/London", "Europe/Madrid", "America/New_York", "Asia/Tokyo", "Australia/Sydney", "Africa/Cairo" };
+
+	/** The shared instance. */
+	private static Fixtures instance;
+
+	/** The directory. */
+	private final File directory;
+
+	/** The city ids. */
+	private final int[] cityIds = new int[CITIES];
+
+	/** The city country indexes. */
+	private final int[] cityCountryIndexes = new int[CITIES];
+
+	/** The city sub one indexes. */
+	private final int[] cityOneIndexes = new int[CITIES];
+
+	/** The city country codes. */
+	private final String[] cityCountries = new String[CITIES];
+
+	/** The city sub one codes. */
+	private final String[] cityOnes = new String[CITIES];
+
+	/** The city sub two codes. */
+	private final String[] cityTwos = new String[CITIES];
+
+	/**
+	 * Gets the fixtures, writing them on first use.
+	 *
+	 * @return the fixtures
+	 */
+	public static synchronized Fixtures get() {
+		if (instance == null) {
+			try {
+				instance = new Fixtures(Files.createTempDirectory("geolite2-fixtures").toFile());
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Instantiates new fixtures.
+	 *
+	 * @param directory the directory
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private Fixtures(File directory) throws IOException {
+		this.directory = directory;
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				FileUtils.deleteQuietly(Fixtures.this.directory);
+			}
+		});
+		writeCountries();
+		writeSubdivisions();
+		writeCities();
+		writeTimeZones();
+		writeDatabase();
+	}
+
+	/**
+	 * Country iso code for an index.
+	 *
+	 * @param index the index
+	 * @return the iso code
+	 */
+	public static String countryIso(int index) {
+		return "" + (char) ('A' + index / 26) + (char) ('A' + index % 26);
+	}
+
+	/**
+	 * Url of a fixture file.
+	 *
+	 * @param name the name
+	 * @return the url
+	 */
+	public String url(String name) {
+		try {
+			return new File(directory, name).toURI().toURL().toString();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Cities url.
+	 *
+	 * @return the string
+	 */
+	public String citiesUrl() {
+		return url("cities.zip");
+	}
+
+	/**
+	 * Countries url.
+	 *
+	 * @return the string
+	 */
+	public String countriesUrl() {
+		return url("countries.zip");
+	}
+
+	/**
+	 * Subdivision one url.
+	 *
+	 * @return the string
+	 */
+	public String subdivisionOneUrl() {
+		return url("subdivisions1.zip");
+	}
+
+	/**
+	 * Subdivision two url.
+	 *
+	 * @return the string
+	 */
+	public String subdivisionTwoUrl() {
+		return url("subdivisions2.zip");
+	}
+
+	/**
+	 * Time zones url.
+	 *
+	 * @return the string
+	 */
+	public String timeZonesUrl() {
+		return url("timezonedb.csv.zip");
+	}
+
+	/**
+	 * Database url.
+	 *
+	 * @return the string
+	 */
+	public String databaseUrl() {
+		return url("GeoLite2-City.mmdb.gz");
+	}
+
+	/**
+	 * Md5 checksum url.
+	 *
+	 * @return the string
+	 */
+	public String md5ChecksumUrl() {
+		return url("GeoLite2-City.md5");
+	}
+
+	/**
+	 * Random addresses inside the fixture networks.
+	 *
+	 * @param count the count
+	 * @return the ips
+	 */
+	public String[] ips(int count) {
+		Random random = new Random(SEED + 1);
+		String[] ips = new String[count];
+		for (int i = 0; i < count; i++) {
+			int network = random.nextInt(NETWORKS);
+			ips[i] = "10." + (network >>> 8) + "." + (network & 0xFF) + "." + (1 + random.nextInt(254));
+		}
+		return ips;
+	}
+
+	/**
+	 * Random coordinates, latitude at even and longitude at odd positions.
+	 *
+	 * @param count the count
+	 * @return the coordinates
+	 */
+	public double[] coordinates(int count) {
+		Random random = new Random(SEED + 2);
+		double[] coordinates = new double[count * 2];
+		for (int i = 0; i < count; i++) {
+			coordinates[i * 2] = random.nextDouble() * 170d - 85d;
+			coordinates[i * 2 + 1] = random.nextDouble() * 360d - 180d;
+		}
+		return coordinates;
+	}
+
+	/**
+	 * Subdivision keys of existing cities, as country, one and two.
+	 *
+	 * @param count the count
+	 * @return the keys
+	 */
+	public String[][] subdivisionKeys(int count) {
+		Random random = new Random(SEED + 3);
+		String[][] keys = new String[count][];
+		for (int i = 0; i < count; i++) {
+			int city = random.nextInt(CITIES);
+			keys[i] = new String[] { cityCountries[city], cityOnes[city], cityTwos[city] };
+		}
+		return keys;
+	}
+
+	/**
+	 * Writes the countries.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writeCountries() throws IOException {
+		StringBuilder lines = new StringBuilder();
+		for (int i = 0; i < COUNTRIES; i++) {
+			String iso = countryIso(i);
+			lines.append(iso).append('\t').append(iso).append('X').append('\t').append("Country ").append(iso)
+					.append('\t').append("Capital ").append(iso).append('\t').append(CONTINENTS[i % CONTINENTS.length])
+					.append('\t').append(iso).append('D').append('\t').append("Dollar ").append(iso).append('\t')
+					.append(i + 1).append('\t').append("en-").append(iso).append(",es").append('\t')
+					.append(countryGeonameId(i)).append('\n');
+		}
+		zip("countries.zip", "countries.txt", lines.toString());
+	}
+
+	/**
+	 * Writes both subdivision levels.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writeSubdivisions() throws IOException {
+		StringBuilder one = new StringBuilder();
+		StringBuilder two = new StringBuilder();
+		int geonameId = 3000000;
+		for (int c = 0; c < COUNTRIES; c++) {
+			String iso = countryIso(c);
+			for (int s = 0; s < SUBDIVISIONS_ONE; s++) {
+				String oneCode = String.format("%02d", s);
+				one.append(iso).append('.').append(oneCode).append('\t').append("Region ").append(iso).append(oneCode)
+						.append('\t').append(geonameId++).append('\n');
+				for (int t = 0; t < SUBDIVISIONS_TWO; t++) {
+					String twoCode = String.format("%03d", t);
+					two.append(iso).append('.').append(oneCode).append('.').append(twoCode).append('\t')
+							.append("District ").append(iso).append(oneCode).append(twoCode).append('\t')
+							.append(geonameId++).append('\n');
+				}
+			}
+		}
+		zip("subdivisions1.zip", "subdivisions1.txt", one.toString());
+		zip("subdivisions2.zip", "subdivisions2.txt", two.toString());
+	}
+
+	/**
+	 * Writes the cities.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writeCities() throws IOException {
+		Random random = new Random(SEED);
+		StringBuilder lines = new StringBuilder();
+		for (int i = 0; i < CITIES; i++) {
+			cityIds[i] = 5000000 + i;
+			cityCountryIndexes[i] = random.nextInt(COUNTRIES);
+			cityOneIndexes[i] = random.nextInt(SUBDIVISIONS_ONE);
+			cityCountries[i] = countryIso(cityCountryIndexes[i]);
+			cityOnes[i] = String.format("%02d", cityOneIndexes[i]);
+			cityTwos[i] = String.format("%03d", random.nextInt(SUBDIVISIONS_TWO));
+			double latitude = random.nextDouble() * 170d - 85d;
+			double longitude = random.nextDouble() * 360d - 180d;
+			lines.append(cityIds[i]).append('\t').append("City ").append(i).append('\t')
+					.append(String.format(Locale.ROOT, "%.4f", latitude)).append('\t').append(String.format(Locale.ROOT, "%.4f", longitude))
+					.append('\t').append(cityCountries[i]).append('\t').append(cityOnes[i]).append('\t')
+					.append(cityTwos[i]).append('\t').append(TIME_ZONES[random.nextInt(TIME_ZONES.length)])
+					.append('\n');
+		}
+		zip("cities.zip", "cities.txt", lines.toString());
+	}
+
+	/**
+	 * Writes the timezonedb zip with a yearly dst transition for every zone.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writeTimeZones() throws IOException {
+		StringBuilder zones = new StringBuilder("zone_id,country_code,zone_name\n");
+		StringBuilder offsets = new StringBuilder("zone_id,abbreviation,time_start,gmt_offset,dst\n");
+		long year = 365l * 24l * 60l * 60l;
+		for (int z = 0; z < TIME_ZONES.length; z++) {
+			int id = z + 1;
+			zones.append(id).append(",\"").append(countryIso(z)).append("\",\"").append(TIME_ZONES[z]).append("\"\n");
+			int standard = (z - 4) * 3600;
+			for (int y = 0; y < 200; y++) {
+				long start = y * year - 50 * year;
+				offsets.append(id).append(",\"STD\",").append(start).append(',').append(standard).append(",0\n");
+				offsets.append(id).append(",\"DST\",").append(start + year / 2).append(',').append(standard + 3600)
+						.append(",1\n");
+			}
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(bytes, UTF8)) {
+			zip.putNextEntry(new ZipEntry("timezone.csv"));
+			zip.write(offsets.toString().getBytes(UTF8));
+			zip.closeEntry();
+			zip.putNextEntry(new ZipEntry("zone.csv"));
+			zip.write(zones.toString().getBytes(UTF8));
+			zip.closeEntry();
+		}
+		FileUtils.writeByteArrayToFile(new File(directory, "timezonedb.csv.zip"), bytes.toByteArray());
+	}
+
+	/**
+	 * Writes a GeoLite2 City like database covering /24 blocks inside
+	 * 10.0.0.0/8, every fourth record without city so the nearest city
+	 * fallback is exercised too.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writeDatabase() throws IOException {
+		Random random = new Random(SEED + 4);
+		MmdbWriter writer = new MmdbWriter("GeoLite2-City");
+		for (int n = 0; n < NETWORKS; n++) {
+			int city = random.nextInt(CITIES);
+			int country = cityCountryIndexes[city];
+			String continent = CONTINENTS[country % CONTINENTS.length];
+			Map<String, Object> record = new LinkedHashMap<>();
+			if (n % 4 != 0) {
+				record.put("city", geo(cityIds[city], null, null, "City " + city));
+			}
+			record.put("continent", geo(6255146 + (country % CONTINENTS.length), "code", continent, continent));
+			record.put("country", geo(countryGeonameId(country), "iso_code", cityCountries[city],
+					"Country " + cityCountries[city]));
+			Map<String, Object> location = new LinkedHashMap<>();
+			location.put("latitude", random.nextDouble() * 170d - 85d);
+			location.put("longitude", random.nextDouble() * 360d - 180d);
+			location.put("time_zone", TIME_ZONES[n % TIME_ZONES.length]);
+			record.put("location", location);
+			List<Object> subdivisions = new ArrayList<>();
+			int subdivision = 3000000 + (country * SUBDIVISIONS_ONE + cityOneIndexes[city]) * (SUBDIVISIONS_TWO + 1);
+			subdivisions.add(geo(subdivision, "iso_code", cityOnes[city], "Region " + cityCountries[city] + cityOnes[city]));
+			record.put("subdivisions", subdivisions);
+			writer.insert((10 << 24) | (n << 8), 24, writer.add(record));
+		}
+		ByteArrayOutputStream database = new ByteArrayOutputStream();
+		writer.write(database);
+		try (OutputStream out = new GZIPOutputStream(new FileOutputStream(new File(directory, "GeoLite2-City.mmdb.gz")))) {
+			database.writeTo(out);
+		}
+		FileUtils.writeStringToFile(new File(directory, "GeoLite2-City.md5"),
+				Hashing.md5().hashBytes(database.toByteArray()).toString(), UTF8);
+	}
+
+	/**
+	 * Country geoname id.
+	 *
+	 * @param index the index
+	 * @return the int
+	 */
+	private static int countryGeonameId(int index) {
+		return 1000000 + index;
+	}
+
+	/**
+	 * Geo record with optional code and english name.
+	 *
+	 * @param geonameId the geoname id
+	 * @param codeKey the code key
+	 * @param code the code
+	 * @param name the name
+	 * @return the map
+	 */
+	private static Map<String, Object> geo(int geonameId, String codeKey, String code, String name) {
+		Map<String, Object> geo = new LinkedHashMap<>();
+		geo.put("geoname_id", geonameId);
+		if (codeKey != null) {
+			geo.put(codeKey, code);
+		}
+		geo.put("names", Collections.singletonMap("en", name));
+		return geo;
+	}
+
+	/**
+	 * Writes a single entry zip.
+	 *
+	 * @param name the name
+	 * @param entry the entry
+	 * @param content the content
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void zip(String name, String entry, String content) throws IOException {
+		try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(new File(directory, name)), UTF8)) {
+			zip.putNextEntry(new ZipEntry(entry));
+			zip.write(content.getBytes(UTF8));
+			zip.closeEntry();
+		}
+	}
+
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2.fixtures;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal writer for IPv4 MaxMind DB files, only what the benchmark
+ * fixtures need: 24 bit records, no pointers in the data section.
+ */
+public class MmdbWriter {
+
+	/** The Constant UTF8. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The Constant METADATA_MARKER. */
+	private static final byte[] METADATA_MARKER = new byte[] { (byte) 0xAB, (byte) 0xCD, (byte) 0xEF, 'M', 'a', 'x',
+			'M', 'i', 'n', 'd', '.', 'c', 'o', 'm' };
+
+	/** The Constant EMPTY. */
+	private static final long EMPTY = -1;
+
+	/** The data section. */
+	private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+	/** The search tree nodes, negative values below -1 are data offsets. */
+	private final List<long[]> nodes = new ArrayList<>();
+
+	/** The database type. */
+	private final String databaseType;
+
+	/**
+	 * Instantiates a new mmdb writer.
+	 *
+	 * @param databaseType the database type
+	 */
+	public MmdbWriter(String databaseType) {
+		this.databaseType = databaseType;
+		this.nodes.add(new long[] { EMPTY, EMPTY });
+	}
+
+	/**
+	 * Adds a record to the data section.
+	 *
+	 * @param record the record
+	 * @return the data offset
+	 */
+	public int add(Map<String, Object> record) {
+		int offset = data.size();
+		encode(data, record);
+		return offset;
+	}
+
+	/**
+	 * Inserts a network pointing to a previously added record.
+	 *
+	 * @param address the ipv4 address as int
+	 * @param prefix the prefix length
+	 * @param dataOffset the data offset
+	 */
+	public void insert(int address, int prefix, int dataOffset) {
+		int node = 0;
+		for (int depth = 0; depth < prefix; depth++) {
+			int bit = (address >>> (31 - depth)) & 1;
+			long[] current = nodes.get(node);
+			if (depth == prefix - 1) {
+				current[bit] = -2l - dataOffset;
+			} else if (current[bit] >= 0) {
+				node = (int) current[bit];
+			} else {
+				current[bit] = nodes.size();
+				node = nodes.size();
+				nodes.add(new long[] { EMPTY, EMPTY });
+			}
+		}
+	}
+
+	/**
+	 * Writes the database.
+	 *
+	 * @param out the out
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void write(OutputStream out) throws IOException {
+		long nodeCount = nodes.size();
+		for (long[] node : nodes) {
+			for (long record : node) {
+				long value = record == EMPTY ? nodeCount : record >= 0 ? record : nodeCount + 16 + (-2l - record);
+				out.write((int) (value >>> 16) & 0xFF);
+				out.write((int) (value >>> 8) & 0xFF);
+				out.write((int) value & 0xFF);
+			}
+		}
+		out.write(new byte[16]);
+		data.writeTo(out);
+		out.write(METADATA_MARKER);
+		Map<String, Object> metadata = new LinkedHashMap<>();
+		metadata.put("binary_format_major_version", 2);
+		metadata.put("binary_format_minor_version", 0);
+		metadata.put("build_epoch", BigInteger.valueOf(System.currentTimeMillis() / 1000));
+		metadata.put("database_type", databaseType);
+		metadata.put("description", Collections.singletonMap("en", "geolite2 benchmark fixture"));
+		metadata.put("ip_version", 4);
+		metadata.put("languages", Collections.singletonList("en"));
+		metadata.put("node_count", nodeCount);
+		metadata.put("record_size", 24);
+		ByteArrayOutputStream metadataBytes = new ByteArrayOutputStream();
+		encode(metadataBytes, metadata);
+		metadataBytes.writeTo(out);
+	}
+
+	/**
+	 * Encodes a value using the MaxMind DB data section format.
+	 *
+	 * @param out the out
+	 * @param value the value
+	 */
+	@SuppressWarnings("unchecked")
+	private static void encode(ByteArrayOutputStream out, Object value) {
+		if (value instanceof String) {
+			byte[] bytes = ((String) value).getBytes(UTF8);
+			control(out, 2, bytes.length);
+			out.write(bytes, 0, bytes.length);
+		} else if (value instanceof Double) {
+			control(out, 3, 8);
+			unsigned(out, Double.doubleToLongBits((Double) value), 8);
+		} else if (value instanceof Integer) {
+			long number = ((Integer) value).longValue();
+			int size = size(number);
+			control(out, 6, size);
+			unsigned(out, number, size);
+		} else if (value instanceof Long) {
+			long number = (Long) value;
+			int size = size(number);
+			control(out, 6, size);
+			unsigned(out, number, size);
+		} else if (value instanceof BigInteger) {
+			long number = ((BigInteger) value).longValue();
+			int size = size(number);
+			control(out, 9, size);
+			unsigned(out, number, size);
+		} else if (value instanceof Boolean) {
+			control(out, 14, ((Boolean) value) ? 1 : 0);
+		} else if (value instanceof Map) {
+			Map<String, Object> map = (Map<String, Object>) value;
+			control(out, 7, map.size());
+			for (Map.Entry<String, Object> entry : map.entrySet()) {
+				encode(out, entry.getKey());
+				encode(out, entry.getValue());
+			}
+		} else if (value instanceof List) {
+			List<Object> list = (List<Object>) value;
+			control(out, 11, list.size());
+			for (Object item : list) {
+				encode(out, item);
+			}
+		} else {
+			throw new IllegalArgumentException("unsupported type " + value);
+		}
+	}
+
+	/**
+	 * Writes the control byte, the extended type and the size.
+	 *
+	 * @param out the out
+	 * @param type the type
+	 * @param size the size
+	 */
+	private static void control(ByteArrayOutputStream out, int type, int size) {
+		int first = type <= 7 ? type << 5 : 0;
+		byte[] extra;
+		if (size < 29) {
+			first |= size;
+			extra = new byte[0];
+		} else if (size < 285) {
+			first |= 29;
+			extra = new byte[] { (byte) (size - 29) };
+		} else if (size < 65821) {
+			first |= 30;
+			extra = new byte[] { (byte) ((size - 285) >>> 8), (byte) (size - 285) };
+		} else {
+			first |= 31;
+			extra = new byte[] { (byte) ((size - 65821) >>> 16), (byte) ((size - 65821) >>> 8), (byte) (size - 65821) };
+		}
+		out.write(first);
+		if (type > 7) {
+			out.write(type - 7);
+		}
+		out.write(extra, 0, extra.length);
+	}
+
+	/**
+	 * Minimum number of bytes needed to store an unsigned value.
+	 *
+	 * @param value the value
+	 * @return the size
+	 */
+	private static int size(long value) {
+		int size = 0;
+		while (size < 8 && (value >>> (size * 8)) != 0) {
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * Writes an unsigned big endian value.
+	 *
+	 * @param out the out
+	 * @param value the value
+	 * @param size the size
+	 */
+	private static void unsigned(ByteArrayOutputStream out, long value, int size) {
+		for (int i = size - 1; i >= 0; i--) {
+			out.write((int) (value >>> (i * 8)) & 0xFF);
+		}
+	}
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2.geonames;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.gromit.geolite2.fixtures.Fixtures;
+import io.gromit.geolite2.model.City;
+
+/**
+ * Benchmarks for the {@link CityFinder} lookups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CityFinderBenchmark {
+
+	/** The Constant SAMPLES, must be a power of two. */
+	static final int SAMPLES = 4096;
+
+	/** The spatial index. */
+	@Param({ "RTREE", "KD_TREE" })
+	public CityFinder.SpatialIndex spatialIndex;
+
+	/** The city finder. */
+	private CityFinder cityFinder;
+
+	/** The coordinates. */
+	private double[] coordinates;
+
+	/**
+	 * Per thread position over the samples.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		/** The index. */
+		private int index;
+
+		/**
+		 * Next.
+		 *
+		 * @return the int
+		 */
+		int next() {
+			return index = (index + 1) & (SAMPLES - 1);
+		}
+	}
+
+	/**
+	 * Setup.
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		Fixtures fixtures = Fixtures.get();
+		cityFinder = new CityFinder().spatialIndex(spatialIndex).citiesUrl(fixtures.citiesUrl()).readCities();
+		coordinates = fixtures.coordinates(SAMPLES);
+	}
+
+	/**
+	 * Nearest city.
+	 *
+	 * @param cursor the cursor
+	 * @return the city
+	 */
+	@Benchmark
+	public City findNearest(Cursor cursor) {
+		int index = cursor.next();
+		return cityFinder.find(coordinates[index * 2 + 1], coordinates[index * 2]);
+	}
+
+	/**
+	 * Ten nearest cities within 500 km.
+	 *
+	 * @param cursor the cursor
+	 * @return the cities
+	 */
+	@Benchmark
+	public List<City> findTenNearest(Cursor cursor) {
+		int index = cursor.next();
+		return cityFinder.findNearest(coordinates[index * 2], coordinates[index * 2 + 1], 10, 500);
+	}
+
+	/**
+	 * Cities within 100 km.
+	 *
+	 * @param cursor the cursor
+	 * @return the cities
+	 */
+	@Benchmark
+	public List<City> findWithin(Cursor cursor) {
+		int index = cursor.next();
+		return cityFinder.findWithin(coordinates[index * 2], coordinates[index * 2 + 1], 100);
+	}
+
+	/**
+	 * City by geoname id.
+	 *
+	 * @param cursor the cursor
+	 * @return the city
+	 */
+	@Benchmark
+	public City findByGeonameId(Cursor cursor) {
+		return cityFinder.find(5000000 + cursor.next() * (Fixtures.CITIES / SAMPLES));
+	}
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2.geonames;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.gromit.geolite2.fixtures.Fixtures;
+import io.gromit.geolite2.model.TimeZone;
+
+/**
+ * Benchmarks for the {@link TimeZoneFinder} lookups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeZoneFinderBenchmark {
+
+	/** The time zone finder. */
+	private TimeZoneFinder timeZoneFinder;
+
+	/**
+	 * Per thread position over the zones.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		/** The index. */
+		private int index;
+
+		/**
+		 * Next.
+		 *
+		 * @return the int
+		 */
+		int next() {
+			return index = (index + 1) % Fixtures.TIME_ZONES.length;
+		}
+	}
+
+	/**
+	 * Setup.
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		timeZoneFinder = new TimeZoneFinder().timeZonesUrl(Fixtures.get().timeZonesUrl()).readTimeZones();
+	}
+
+	/**
+	 * Find by name.
+	 *
+	 * @param cursor the cursor
+	 * @return the time zone
+	 */
+	@Benchmark
+	public TimeZone find(Cursor cursor) {
+		return timeZoneFinder.find(Fixtures.TIME_ZONES[cursor.next()]);
+	}
+
+}
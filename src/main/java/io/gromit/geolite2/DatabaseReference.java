@@ -0,0 +1,192 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.maxmind.geoip2.DatabaseReader;
+
+/**
+ * The Class DatabaseReference.
+ *
+ * A database reader shared by every generation built on it. Once a newer
+ * one is published it is retired, and it is closed, its file deleted, as
+ * soon as the last lookup or pin using it is released. Lookups count
+ * themselves in one of several slots picked by thread, each on a cache line
+ * of its own, so concurrent lookups rarely write the same memory. A lookup
+ * acquires and releases the same slot, so no slot is ever below zero and a
+ * retired reader is only closed once every slot and the pins are at zero.
+ */
+final class DatabaseReference {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(DatabaseReference.class);
+
+	/** The longs between two slots, so they never share a cache line. */
+	private static final int STRIDE = 16;
+
+	/** The slots, a power of two with at least two for every processor. */
+	private static final int SLOTS = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1);
+
+	/** The reader, null until a database is read. */
+	private final DatabaseReader reader;
+
+	/** The file, null when the database is on the heap. */
+	private final File file;
+
+	/** The lookups in progress by slot. */
+	private final AtomicLongArray lookups = new AtomicLongArray(SLOTS * STRIDE);
+
+	/** The explicit pins. */
+	private final AtomicInteger pins = new AtomicInteger();
+
+	/** Whether a newer reader was published. */
+	private volatile boolean retired;
+
+	/** Whether the reader was closed. */
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	/**
+	 * Instantiates a new database reference.
+	 *
+	 * @param reader the reader, may be null
+	 * @param file the file, may be null
+	 */
+	DatabaseReference(DatabaseReader reader, File file) {
+		this.reader = reader;
+		this.file = file;
+	}
+
+	/**
+	 * Gets the reader.
+	 *
+	 * @return the reader
+	 */
+	DatabaseReader getReader() {
+		return reader;
+	}
+
+	/**
+	 * Gets the file.
+	 *
+	 * @return the file
+	 */
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * Acquires the reader for a lookup on the current thread.
+	 *
+	 * @return the slot to release, -1 when it is retired
+	 */
+	int acquire() {
+		int slot = (int) (Thread.currentThread().getId() * 0x9E3779B97F4A7C15L >>> 40) & (SLOTS - 1);
+		slot *= STRIDE;
+		lookups.incrementAndGet(slot);
+		if (retired) {
+			release(slot);
+			return -1;
+		}
+		return slot;
+	}
+
+	/**
+	 * Releases the reader after a lookup.
+	 *
+	 * @param slot the slot it was acquired on
+	 */
+	void release(int slot) {
+		if (lookups.decrementAndGet(slot) == 0 && retired) {
+			reclaim();
+		}
+	}
+
+	/**
+	 * Pins the reader, from any thread and for as long as needed.
+	 *
+	 * @return true, if pinned, false when it is retired
+	 */
+	boolean pin() {
+		pins.incrementAndGet();
+		if (retired) {
+			unpin();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Releases a pin.
+	 */
+	void unpin() {
+		if (pins.decrementAndGet() == 0 && retired) {
+			reclaim();
+		}
+	}
+
+	/**
+	 * Retires the reader, it is closed once nothing uses it.
+	 */
+	void retire() {
+		retired = true;
+		reclaim();
+	}
+
+	/**
+	 * Checks if the reader was closed.
+	 *
+	 * @return true, if closed
+	 */
+	boolean isClosed() {
+		return closed.get();
+	}
+
+	/**
+	 * Closes the reader and deletes its file when nothing uses it, only once.
+	 */
+	private void reclaim() {
+		if (pins.get() != 0) {
+			return;
+		}
+		for (int slot = 0; slot < SLOTS * STRIDE; slot += STRIDE) {
+			if (lookups.get(slot) != 0) {
+				return;
+			}
+		}
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		if (reader != null) {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				logger.warn("error closing reader: {}", e.getMessage());
+			}
+		}
+		if (file != null && file.exists() && !file.delete()) {
+			logger.warn("could not delete {}", file);
+		}
+	}
+
+}
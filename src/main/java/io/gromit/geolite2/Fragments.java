@@ -0,0 +1,275 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.gromit.geolite2.geonames.ContinentFinder;
+import io.gromit.geolite2.geonames.CountryFinder.Countries;
+import io.gromit.geolite2.model.Continent;
+import io.gromit.geolite2.model.Country;
+import io.gromit.geolite2.model.Subdivision;
+import io.gromit.geolite2.model.TimeZone;
+
+/**
+ * The Class Fragments.
+ *
+ * The parts of {@link GeoLocationResult#toMap()} that only change when a
+ * dataset reloads, rendered once per generation as unmodifiable maps and
+ * lists shared by every lookup. A fragment is only used for the very objects
+ * it was rendered from, anything built from a database response is still
+ * rendered per lookup.
+ */
+final class Fragments {
+
+	/** The countries, by identity. */
+	private final Map<Country, Map<String, Object>> countries = new IdentityHashMap<>();
+
+	/** The continents of ip lookups, by identity. */
+	private final Map<Continent, Map<String, Object>> ipContinents = new IdentityHashMap<>();
+
+	/** The continents of latitude and longitude lookups, by identity. */
+	private final Map<Continent, Map<String, Object>> continents = new IdentityHashMap<>();
+
+	/** The subdivision names of the level one subdivisions, by identity. */
+	private final Map<Subdivision, List<String>> ones = new IdentityHashMap<>();
+
+	/** The subdivision names of the level two subdivisions, by identity. */
+	private final Map<Subdivision, SubdivisionNames> twos = new IdentityHashMap<>();
+
+	/** The time zones of the current periods, by name. */
+	private final ConcurrentHashMap<String, TimeZoneMap> timeZones = new ConcurrentHashMap<>();
+
+	/**
+	 * Instantiates new fragments.
+	 *
+	 * @param links the links of the cities
+	 * @param countries the countries
+	 * @param continentFinder the continent finder
+	 */
+	Fragments(Generation.Links[] links, Countries countries, ContinentFinder continentFinder) {
+		for (Country country : countries.all()) {
+			this.countries.put(country, Collections.unmodifiableMap(countryMap(country, true)));
+		}
+		for (Continent continent : continentFinder.all()) {
+			ipContinents.put(continent, Collections.unmodifiableMap(continentMap(continent, true)));
+			continents.put(continent, Collections.unmodifiableMap(continentMap(continent, false)));
+		}
+		for (Generation.Links link : links) {
+			Subdivision one = link.getSubdivisionOne();
+			Subdivision two = link.getSubdivisionTwo();
+			if (two != null) {
+				if (!twos.containsKey(two)) {
+					twos.put(two, new SubdivisionNames(one, Collections.unmodifiableList(subdivisionList(one, two))));
+				}
+			} else if (one != null && !ones.containsKey(one)) {
+				ones.put(one, Collections.unmodifiableList(subdivisionList(one, null)));
+			}
+		}
+	}
+
+	/**
+	 * Time zone.
+	 *
+	 * @param timeZone the time zone
+	 * @return the time zone map
+	 */
+	Map<String, Object> timeZone(TimeZone timeZone) {
+		TimeZoneMap timeZoneMap = timeZones.get(timeZone.getName());
+		if (timeZoneMap == null || timeZoneMap.timeZone != timeZone) {
+			timeZoneMap = new TimeZoneMap(timeZone, Collections.unmodifiableMap(timeZoneMap(timeZone)));
+			timeZones.put(timeZone.getName(), timeZoneMap);
+		}
+		return timeZoneMap.map;
+	}
+
+	/**
+	 * Subdivisions.
+	 *
+	 * @param one the subdivision one
+	 * @param two the subdivision two
+	 * @return the subdivision names, two first, null when there is none
+	 */
+	List<String> subdivisions(Subdivision one, Subdivision two) {
+		if (two != null) {
+			SubdivisionNames names = twos.get(two);
+			if (names != null && names.one == one) {
+				return names.names;
+			}
+		} else if (one != null) {
+			List<String> names = ones.get(one);
+			if (names != null) {
+				return names;
+			}
+		} else {
+			return null;
+		}
+		return subdivisionList(one, two);
+	}
+
+	/**
+	 * Country.
+	 *
+	 * @param country the country
+	 * @param countryFound the country was found on geonames
+	 * @return the country map
+	 */
+	Map<String, Object> country(Country country, boolean countryFound) {
+		Map<String, Object> countryMap = countryFound ? countries.get(country) : null;
+		return countryMap != null ? countryMap : countryMap(country, countryFound);
+	}
+
+	/**
+	 * Continent.
+	 *
+	 * @param continent the continent
+	 * @param ip the lookup is by ip
+	 * @return the continent map
+	 */
+	Map<String, Object> continent(Continent continent, boolean ip) {
+		Map<String, Object> continentMap = (ip ? ipContinents : continents).get(continent);
+		return continentMap != null ? continentMap : continentMap(continent, ip);
+	}
+
+	/**
+	 * Renders a time zone.
+	 *
+	 * @param timeZone the time zone
+	 * @return the map
+	 */
+	static Map<String, Object> timeZoneMap(TimeZone timeZone) {
+		HashMap<String, Object> timeZoneMap = new HashMap<>();
+		timeZoneMap.put("name", timeZone.getName());
+		timeZoneMap.put("dtsOffset", timeZone.getDtsOffset());
+		timeZoneMap.put("utcOffset", timeZone.getUtcOffset());
+		timeZoneMap.put("currentOffset", timeZone.getCurrentOffset());
+		timeZoneMap.put("changedAt", timeZone.getChangedAt());
+		return timeZoneMap;
+	}
+
+	/**
+	 * Renders the subdivision names, two first.
+	 *
+	 * @param one the subdivision one
+	 * @param two the subdivision two
+	 * @return the list, null when there is none
+	 */
+	static List<String> subdivisionList(Subdivision one, Subdivision two) {
+		if (one == null && two == null) {
+			return null;
+		}
+		List<String> subdivisions = new ArrayList<>();
+		if (two != null) {
+			subdivisions.add(two.getName());
+		}
+		if (one != null) {
+			subdivisions.add(one.getName());
+		}
+		return subdivisions;
+	}
+
+	/**
+	 * Renders a country.
+	 *
+	 * @param country the country
+	 * @param countryFound the country was found on geonames
+	 * @return the map
+	 */
+	static Map<String, Object> countryMap(Country country, boolean countryFound) {
+		Map<String, Object> countryMap = new LinkedHashMap<>();
+		if (countryFound) {
+			countryMap.put("capital", country.getCapital());
+			countryMap.put("currencyCode", country.getCurrencyCode());
+			countryMap.put("currencyName", country.getCurrencyName());
+			countryMap.put("language", country.getLanguage());
+			countryMap.put("name", country.getName());
+			countryMap.put("phone", country.getPhone());
+			countryMap.put("iso", country.getIso());
+		} else {
+			countryMap.put("name", country.getName());
+			countryMap.put("iso", country.getIso());
+		}
+		return countryMap;
+	}
+
+	/**
+	 * Renders a continent, ip lookups keep the insertion order.
+	 *
+	 * @param continent the continent
+	 * @param ip the lookup is by ip
+	 * @return the map
+	 */
+	static Map<String, Object> continentMap(Continent continent, boolean ip) {
+		Map<String, Object> continentMap = ip ? new LinkedHashMap<String, Object>() : new HashMap<String, Object>();
+		continentMap.put("iso", continent.getIso());
+		continentMap.put("name", continent.getName());
+		return continentMap;
+	}
+
+	/**
+	 * The rendered time zone of a period.
+	 */
+	private static final class TimeZoneMap {
+
+		/** The time zone it was rendered from. */
+		private final TimeZone timeZone;
+
+		/** The map. */
+		private final Map<String, Object> map;
+
+		/**
+		 * Instantiates a new time zone map.
+		 *
+		 * @param timeZone the time zone
+		 * @param map the map
+		 */
+		TimeZoneMap(TimeZone timeZone, Map<String, Object> map) {
+			this.timeZone = timeZone;
+			this.map = map;
+		}
+	}
+
+	/**
+	 * The rendered names of a level two subdivision and its level one.
+	 */
+	private static final class SubdivisionNames {
+
+		/** The subdivision one they were rendered with. */
+		private final Subdivision one;
+
+		/** The names. */
+		private final List<String> names;
+
+		/**
+		 * Instantiates new subdivision names.
+		 *
+		 * @param one the subdivision one
+		 * @param names the names
+		 */
+		SubdivisionNames(Subdivision one, List<String> names) {
+			this.one = one;
+			this.names = names;
+		}
+	}
+
+}
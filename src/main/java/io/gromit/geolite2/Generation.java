@@ -0,0 +1,314 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2;
+
+import com.maxmind.geoip2.DatabaseReader;
+
+import io.gromit.geolite2.geonames.CityFinder.Cities;
+import io.gromit.geolite2.geonames.ContinentFinder;
+import io.gromit.geolite2.geonames.CountryFinder.Countries;
+import io.gromit.geolite2.geonames.SubdivisionFinder.Subdivisions;
+import io.gromit.geolite2.geonames.TimeZoneFinder.TimeZones;
+import io.gromit.geolite2.geonames.TimeZoneFinder.Zone;
+import io.gromit.geolite2.model.City;
+import io.gromit.geolite2.model.Continent;
+import io.gromit.geolite2.model.Country;
+import io.gromit.geolite2.model.Subdivision;
+import io.gromit.geolite2.model.TimeZone;
+
+/**
+ * The Class Generation.
+ *
+ * The database reader and every dataset loaded by a {@link GeoLocation},
+ * never modified once built. A lookup reads the current generation once and
+ * uses it to the end, so it never mixes data of two reloads, and a reload
+ * replaces it as a whole. Its database reader is closed as soon as a newer
+ * one is published and the last lookup or pin on it is released.
+ */
+public final class Generation {
+
+	/** The database, its reader is null until a database is read. */
+	private final DatabaseReference database;
+
+	/** The checksum of the database. */
+	private final String checksum;
+
+	/** The cities. */
+	private final Cities cities;
+
+	/** The countries. */
+	private final Countries countries;
+
+	/** The subdivisions. */
+	private final Subdivisions subdivisions;
+
+	/** The time zones. */
+	private final TimeZones timeZones;
+
+	/** The links of every city, by row, shared by the cities with the same codes. */
+	private final Links[] links;
+
+	/** The fragments of the location maps. */
+	private final Fragments fragments;
+
+	/**
+	 * Instantiates a new generation.
+	 *
+	 * @param database the database
+	 * @param checksum the checksum
+	 * @param cities the cities
+	 * @param countries the countries
+	 * @param subdivisions the subdivisions
+	 * @param timeZones the time zones
+	 * @param links the links of the cities, as built by {@link #link}
+	 * @param fragments the fragments of the location maps
+	 */
+	Generation(DatabaseReference database, String checksum, Cities cities, Countries countries,
+			Subdivisions subdivisions, TimeZones timeZones, Links[] links,
+			Fragments fragments) {
+		this.database = database;
+		this.checksum = checksum;
+		this.cities = cities;
+		this.countries = countries;
+		this.subdivisions = subdivisions;
+		this.timeZones = timeZones;
+		this.links = links;
+		this.fragments = fragments;
+	}
+
+	/**
+	 * Joins every city with its country, subdivisions, time zone and
+	 * continent, once per load instead of once per lookup. The links are
+	 * resolved once for all the cities sharing the same codes.
+	 *
+	 * @param cities the cities
+	 * @param countries the countries
+	 * @param subdivisions the subdivisions
+	 * @param timeZones the time zones
+	 * @param continentFinder the continent finder
+	 * @return the links of every city
+	 */
+	static Links[] link(Cities cities, Countries countries, Subdivisions subdivisions, TimeZones timeZones,
+			ContinentFinder continentFinder) {
+		int[] groups = new int[cities.rows()];
+		int[] firsts = cities.group(groups);
+		Links[] shared = new Links[firsts.length];
+		for (int group = 0; group < shared.length; group++) {
+			City city = cities.city(firsts[group]);
+			Country country = countries.find(city.getCountryIsoCode());
+			shared[group] = new Links(country,
+					subdivisions.find(city.getCountryIsoCode(), city.getSubdivisionOne()),
+					subdivisions.find(city.getCountryIsoCode(), city.getSubdivisionOne(), city.getSubdivisionTwo()),
+					timeZones.zone(city.getTimeZone()),
+					country == null ? null : continentFinder.find(country.getContinent()));
+		}
+		Links[] links = new Links[groups.length];
+		for (int row = 0; row < links.length; row++) {
+			links[row] = shared[groups[row]];
+		}
+		return links;
+	}
+
+	/**
+	 * Gets the database reader.
+	 *
+	 * @return the database reader
+	 */
+	public DatabaseReader getDatabaseReader() {
+		return database.getReader();
+	}
+
+	/**
+	 * Gets the database.
+	 *
+	 * @return the database
+	 */
+	DatabaseReference getDatabase() {
+		return database;
+	}
+
+	/**
+	 * Releases a pin taken by {@link GeoLocation#pin()}, once for every pin.
+	 * The database reader of a replaced generation is closed when its last
+	 * pin is released.
+	 */
+	public void release() {
+		database.unpin();
+	}
+
+	/**
+	 * Gets the checksum.
+	 *
+	 * @return the checksum
+	 */
+	public String getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * Gets the cities.
+	 *
+	 * @return the cities
+	 */
+	public Cities getCities() {
+		return cities;
+	}
+
+	/**
+	 * Gets the countries.
+	 *
+	 * @return the countries
+	 */
+	public Countries getCountries() {
+		return countries;
+	}
+
+	/**
+	 * Gets the subdivisions.
+	 *
+	 * @return the subdivisions
+	 */
+	public Subdivisions getSubdivisions() {
+		return subdivisions;
+	}
+
+	/**
+	 * Gets the time zones.
+	 *
+	 * @return the time zones
+	 */
+	public TimeZones getTimeZones() {
+		return timeZones;
+	}
+
+	/**
+	 * Gets the links of every city.
+	 *
+	 * @return the links
+	 */
+	Links[] getLinks() {
+		return links;
+	}
+
+	/**
+	 * Gets the fragments of the location maps.
+	 *
+	 * @return the fragments
+	 */
+	Fragments getFragments() {
+		return fragments;
+	}
+
+	/**
+	 * Links of a city of this generation.
+	 *
+	 * @param row the row of the city in the cities of this generation
+	 * @return the links, null when the row is -1
+	 */
+	public Links links(int row) {
+		return row < 0 ? null : links[row];
+	}
+
+	/**
+	 * Time zone of the links of a city, with the offsets of the current
+	 * period.
+	 *
+	 * @param links the links
+	 * @return the time zone, null when the links are null or have none
+	 */
+	public TimeZone timeZone(Links links) {
+		return links == null ? null : timeZones.find(links.zone);
+	}
+
+	/**
+	 * Links of a city.
+	 *
+	 * Everything a city refers to by code, resolved when the generation is
+	 * built so a lookup only follows references. Cities with the same codes
+	 * share their links.
+	 */
+	public static final class Links {
+
+		/** The country. */
+		private final Country country;
+
+		/** The subdivision one. */
+		private final Subdivision subdivisionOne;
+
+		/** The subdivision two. */
+		private final Subdivision subdivisionTwo;
+
+		/** The zone. */
+		private final Zone zone;
+
+		/** The continent. */
+		private final Continent continent;
+
+		/**
+		 * Instantiates new links.
+		 *
+		 * @param country the country
+		 * @param subdivisionOne the subdivision one
+		 * @param subdivisionTwo the subdivision two
+		 * @param zone the zone
+		 * @param continent the continent
+		 */
+		Links(Country country, Subdivision subdivisionOne, Subdivision subdivisionTwo, Zone zone, Continent continent) {
+			this.country = country;
+			this.subdivisionOne = subdivisionOne;
+			this.subdivisionTwo = subdivisionTwo;
+			this.zone = zone;
+			this.continent = continent;
+		}
+
+		/**
+		 * Gets the country.
+		 *
+		 * @return the country
+		 */
+		public Country getCountry() {
+			return country;
+		}
+
+		/**
+		 * Gets the subdivision one.
+		 *
+		 * @return the subdivision one
+		 */
+		public Subdivision getSubdivisionOne() {
+			return subdivisionOne;
+		}
+
+		/**
+		 * Gets the subdivision two.
+		 *
+		 * @return the subdivision two
+		 */
+		public Subdivision getSubdivisionTwo() {
+			return subdivisionTwo;
+		}
+
+		/**
+		 * Gets the continent.
+		 *
+		 * @return the continent
+		 */
+		public Continent getContinent() {
+			return continent;
+		}
+	}
+
+}
@@ -15,21 +15,29 @@
  */
 package io.gromit.geolite2;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.io.IOUtils;
@@ -37,12 +45,19 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
 import com.maxmind.db.NoCache;
 import com.maxmind.db.NodeCache;
 import com.maxmind.db.Reader.FileMode;
 import com.maxmind.geoip2.DatabaseReader;
 import com.maxmind.geoip2.model.CityResponse;
 
+import io.gromit.geolite2.cache.GuavaCache;
+import io.gromit.geolite2.cache.LocationCache;
 import io.gromit.geolite2.geonames.CityFinder;
 import io.gromit.geolite2.geonames.ContinentFinder;
 import io.gromit.geolite2.geonames.CountryFinder;
@@ -53,6 +68,9 @@ import io.gromit.geolite2.model.Continent;
 import io.gromit.geolite2.model.Country;
 import io.gromit.geolite2.model.Subdivision;
 import io.gromit.geolite2.model.TimeZone;
+import io.gromit.geolite2.utils.ConditionalGet;
+import io.gromit.geolite2.utils.IpAddresses;
+import io.gromit.geolite2.utils.SnapshotStore;
 
 /**
  * The Class ScheduledDatabaseReader.
@@ -62,17 +80,20 @@ public class GeoLocation {
 	/** The logger. */
 	private static Logger logger = LoggerFactory.getLogger(GeoLocation.class);
 
+	/** The json factory of the location writers, the streams of the callers are never closed. */
+	private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
 	/** The Constant GEOLITE_FAIL_SAFE_URL. */
 	public static final String GEOLITE_FAIL_SAFE_URL = "io.gromit.geolite2.fail.safe.url";
 	
-	/** The scheduled executor service. */
-	private ScheduledExecutorService scheduledExecutorService;
+	/** The refresh scheduler. */
+	private RefreshScheduler refreshScheduler = new RefreshScheduler();
 
-	/** The reader. */
-	private DatabaseReader databaseReader;
+	/** Whether it was stopped, its database is closed then and it never starts again. */
+	private volatile boolean stopped;
 
-	/** The local m d5 checksum. */
-	private String localMD5Checksum;
+	/** The generation every lookup reads, replaced as a whole on every load. */
+	private volatile Generation generation;
 
 	/** The md5 checksum url. */
 	private String md5ChecksumUrl = "http://geolite.maxmind.com/download/geoip/database/GeoLite2-City.md5";
@@ -101,10 +122,68 @@ public class GeoLocation {
 	/** The loader listener. */
 	private LoaderListener loaderListener = LoaderListener.DEFAULT;
 
+	/** The last reload event of every dataset, to tell refreshes that failed. */
+	private final Map<ReloadEvent.Dataset, ReloadEvent> lastReloads = new ConcurrentHashMap<>();
+
+	/** The listener of every load, keeping the last events and forwarding them to the loader listener. */
+	private final LoaderListener reloadListener = new LoaderListener() {
+		@Override
+		public void success(String url) {
+			loaderListener.success(url);
+		}
+		@Override
+		public void failure(String url, Exception e) {
+			loaderListener.failure(url, e);
+		}
+		@Override
+		public void reload(ReloadEvent event) {
+			lastReloads.put(event.getDataset(), event);
+			loaderListener.reload(event);
+		}
+	};
+	
+	/** The location cache, disabled by default. */
+	private LocationCache locationCache;
+
+	/** The lookup metrics, switched off by default. */
+	private LookupMetrics lookupMetrics = LookupMetrics.NONE;
+	
+	/** The warm up ips. */
+	private List<String> warmUpIps = Collections.emptyList();
+
+	/** The database directory, when set the database is memory mapped from there instead of read on the heap. */
+	private File databaseDirectory;
+
+	/** The snapshot store, null when downloads are not kept locally. */
+	private SnapshotStore snapshotStore;
+
+	/** The conditional get of the database urls read. */
+	private final ConditionalGet conditionalGet = new ConditionalGet();
+
+	/** The executor the datasets are loaded on concurrently. */
+	private Executor reloadExecutor = ForkJoinPool.commonPool();
+
+	/** The per thread buffer the ip literals are parsed into. */
+	private final ThreadLocal<byte[]> addressBuffer = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[16];
+		}
+	};
+
 	/**
 	 * Instantiates a new scheduled database reader.
 	 */
 	public GeoLocation() {
+		cityFinder.loaderListener(reloadListener);
+		countryFinder.loaderListener(reloadListener);
+		subdivisionFinder.loaderListener(reloadListener);
+		timeZoneFinder.loaderListener(reloadListener);
+		Generation.Links[] links = Generation.link(cityFinder.cities(), countryFinder.countries(),
+				subdivisionFinder.subdivisions(), timeZoneFinder.timeZones(), continentFinder);
+		this.generation = new Generation(new DatabaseReference(null, null), null, cityFinder.cities(), countryFinder.countries(),
+				subdivisionFinder.subdivisions(), timeZoneFinder.timeZones(), links,
+				new Fragments(links, countryFinder.countries(), continentFinder));
 	}
 
 	/**
@@ -118,6 +197,28 @@ public class GeoLocation {
 		return this;
 	}
 	
+	/**
+	 * Spatial index of the cities used by the latitude and longitude lookups.
+	 *
+	 * @param spatialIndex the spatial index
+	 * @return the geo location
+	 */
+	public GeoLocation citySpatialIndex(CityFinder.SpatialIndex spatialIndex){
+		this.cityFinder.spatialIndex(spatialIndex);
+		return this;
+	}
+	
+	/**
+	 * Pack city names, keeps them as utf-8 bytes decoded on every access.
+	 *
+	 * @param packNames the pack names
+	 * @return the geo location
+	 */
+	public GeoLocation packCityNames(boolean packNames){
+		this.cityFinder.packNames(packNames);
+		return this;
+	}
+
 	/**
 	 * Countries url.
 	 *
@@ -198,6 +299,54 @@ public class GeoLocation {
 		return this;
 	}
 	
+	/**
+	 * Location cache, enriched results by network for {@link #location(String)}.
+	 *
+	 * @param locationCache the location cache
+	 * @return the geo location
+	 */
+	public GeoLocation locationCache(LocationCache locationCache) {
+		this.locationCache = locationCache;
+		return this;
+	}
+
+	/**
+	 * Lookup metrics, the latency of every stage of a lookup and how its city
+	 * was found. Null or {@link LookupMetrics#NONE} switch them off.
+	 *
+	 * @param lookupMetrics the lookup metrics
+	 * @return the geo location
+	 */
+	public GeoLocation lookupMetrics(LookupMetrics lookupMetrics) {
+		this.lookupMetrics = lookupMetrics == null ? LookupMetrics.NONE : lookupMetrics;
+		return this;
+	}
+
+	/**
+	 * Database directory, the downloaded database is decompressed there and
+	 * memory mapped, keeping it off the heap. Files of replaced databases are
+	 * deleted once their reader is closed.
+	 *
+	 * @param databaseDirectory the database directory
+	 * @return the geo location
+	 */
+	public GeoLocation databaseDirectory(File databaseDirectory) {
+		this.databaseDirectory = databaseDirectory;
+		return this;
+	}
+	
+	/**
+	 * Warm up ips, looked up on every new database before it replaces the
+	 * current one so the cache starts with their nodes.
+	 *
+	 * @param warmUpIps the warm up ips
+	 * @return the geo location
+	 */
+	public GeoLocation warmUpIps(List<String> warmUpIps) {
+		this.warmUpIps = warmUpIps;
+		return this;
+	}
+	
 	/**
 	 * Loader listener.
 	 *
@@ -206,86 +355,413 @@ public class GeoLocation {
 	 */
 	public GeoLocation loaderListener(LoaderListener loaderListener){
 		this.loaderListener = loaderListener;
-		this.cityFinder.loaderListener(loaderListener);
-		this.countryFinder.loaderListener(loaderListener);
-		this.subdivisionFinder.loaderListener(loaderListener);
-		this.timeZoneFinder.loaderListener(loaderListener);
+		return this;
+	}
+	
+	/**
+	 * Snapshot store, every download is kept there so {@link #start()} can
+	 * load the last versions straight away and check the remote urls in the
+	 * background.
+	 *
+	 * @param snapshotStore the snapshot store
+	 * @return the geo location
+	 */
+	public GeoLocation snapshotStore(SnapshotStore snapshotStore){
+		this.snapshotStore = snapshotStore;
+		this.cityFinder.snapshotStore(snapshotStore);
+		this.countryFinder.snapshotStore(snapshotStore);
+		this.subdivisionFinder.snapshotStore(snapshotStore);
+		this.timeZoneFinder.snapshotStore(snapshotStore);
+		return this;
+	}
+
+	/**
+	 * Reload executor, the database and every dataset are downloaded and
+	 * parsed on it concurrently, then published together.
+	 *
+	 * @param reloadExecutor the reload executor
+	 * @return the geo location
+	 */
+	public GeoLocation reloadExecutor(Executor reloadExecutor){
+		this.reloadExecutor = reloadExecutor;
+		return this;
+	}
+
+	/**
+	 * Clock of the current time zone offsets, a fixed clock resolves them
+	 * as they were at that instant.
+	 *
+	 * @param clock the clock
+	 * @return the geo location
+	 */
+	public GeoLocation clock(Clock clock){
+		this.timeZoneFinder.clock(clock);
+		publish(null, null, null, null, timeZoneFinder.timeZones());
 		return this;
 	}
 
+	/**
+	 * Location.
+	 *
+	 * @param latitude the latitude
+	 * @param longitude the longitude
+	 * @return the map
+	 */
 	public Map<String, Object> location(Double latitude, Double longitude){
+		return find(value(latitude), value(longitude)).toMap();
+	}
+	
+	/**
+	 * Location.
+	 *
+	 * @param ip the ip
+	 * @return the map
+	 */
+	public Map<String, Object> location(String ip){
+		GeoLocationResult result = find(ip);
+		return result == null ? null : result.toMap();
+	}
+
+	/**
+	 * Writes the location of an ip as json, the same document the location
+	 * map is serialized to, without building any map.
+	 *
+	 * @param ip the ip
+	 * @param generator the generator
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void writeLocation(String ip, JsonGenerator generator) throws IOException{
+		GeoLocationResult result = find(ip);
+		if(result == null){
+			generator.writeNull();
+		}else{
+			result.writeTo(generator);
+		}
+	}
+
+	/**
+	 * Writes the location of an ip as utf-8 json, the stream is flushed but
+	 * not closed.
+	 *
+	 * @param ip the ip
+	 * @param outputStream the output stream
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void writeLocation(String ip, OutputStream outputStream) throws IOException{
+		JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream, JsonEncoding.UTF8);
+		try{
+			writeLocation(ip, generator);
+		}finally{
+			generator.close();
+		}
+	}
+
+	/**
+	 * Writes the location of an ip as utf-8 json at the position of the
+	 * buffer.
+	 *
+	 * @param ip the ip
+	 * @param buffer the buffer
+	 * @return the number of bytes written
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws java.nio.BufferOverflowException when the document does not fit in the buffer
+	 */
+	public int writeLocation(String ip, final ByteBuffer buffer) throws IOException{
+		int position = buffer.position();
+		writeLocation(ip, new OutputStream() {
+			@Override
+			public void write(int b) {
+				buffer.put((byte) b);
+			}
+			
+			@Override
+			public void write(byte[] b, int off, int len) {
+				buffer.put(b, off, len);
+			}
+		});
+		return buffer.position() - position;
+	}
+	
+	/**
+	 * Finds the closest city to the coordinates and its details.
+	 *
+	 * @param latitude the latitude
+	 * @param longitude the longitude
+	 * @return the geo location result
+	 */
+	public GeoLocationResult find(double latitude, double longitude){
+		return find(this.generation, latitude, longitude);
+	}
+	
+	/**
+	 * Finds the closest city to the coordinates on a generation.
+	 *
+	 * @param generation the generation, usually pinned by {@link #pin()}
+	 * @param latitude the latitude
+	 * @param longitude the longitude
+	 * @return the geo location result
+	 */
+	public GeoLocationResult find(Generation generation, double latitude, double longitude){
 		City city = null;
 		Country country = null;
 		Continent continent = null;
 		Subdivision one = null;
 		Subdivision two = null;
-		Map<String, Object> data = new LinkedHashMap<>();
-		data.put("latitude", latitude);
-		data.put("longitude", longitude);
-		city = this.cityFinder.find(longitude, latitude);
-		if(city!=null){
-			data.put("cityName", city.getName());
-			TimeZone timeZone = timeZoneFinder.find(city.getTimeZone());
-			if(timeZone!=null){
-				HashMap<String, Object> timeZoneMap = new HashMap<>();
-				timeZoneMap.put("name", timeZone.getName());
-				timeZoneMap.put("dtsOffset", timeZone.getDtsOffset());
-				timeZoneMap.put("utcOffset", timeZone.getUtcOffset());
-				timeZoneMap.put("currentOffset", timeZone.getCurrentOffset());
-				timeZoneMap.put("changedAt", timeZone.getChangedAt());
-				data.put("timeZone", timeZoneMap);
-			}
-			one = subdivisionFinder.find(city.getCountryIsoCode(), city.getSubdivisionOne());
-			two = subdivisionFinder.find(city.getCountryIsoCode(), city.getSubdivisionOne(), city.getSubdivisionTwo());
-			country=countryFinder.find(city.getCountryIsoCode());
-			List<String> subdivisions = new ArrayList<>();
-			if(two!=null){
-				subdivisions.add(two.getName());
-			}
-			if(one!=null){
-				subdivisions.add(one.getName());
-			}
-			if(subdivisions!=null && subdivisions.size()>0){
-				data.put("subdivisions", subdivisions);
-			}
-			Map<String, Object> countryMap = new LinkedHashMap<>();
-			if(country!=null){
-				countryMap.put("capital", country.getCapital());
-				countryMap.put("currencyCode", country.getCurrencyCode());
-				countryMap.put("currencyName", country.getCurrencyName());
-				countryMap.put("language", country.getLanguage());
-				countryMap.put("name", country.getName());
-				countryMap.put("phone", country.getPhone());
-				countryMap.put("iso", country.getIso());
-				data.put("country", countryMap);
-				continent = continentFinder.find(country.getContinent());
-				if(continent!=null){
-					HashMap<String, Object> continentMap = new HashMap<>();
-					continentMap.put("iso", continent.getIso());
-					continentMap.put("name", continent.getName());
-					data.put("continent", continentMap);
-				}
+		TimeZone timeZone = null;
+		LookupMetrics metrics = this.lookupMetrics;
+		boolean timed = metrics != LookupMetrics.NONE;
+		long start = timed ? System.nanoTime() : 0;
+		long time = start;
+		int row = -1;
+		if(!Double.isNaN(latitude) && !Double.isNaN(longitude)){
+			row = generation.getCities().nearestRow(longitude, latitude);
+			if(timed){
+				time = lap(metrics, LookupMetrics.Stage.CITY_NEAREST, time);
 			}
 		}
-		return data;
+		if(row>=0){
+			city = generation.getCities().city(row);
+			Generation.Links links = generation.links(row);
+			one = links.getSubdivisionOne();
+			two = links.getSubdivisionTwo();
+			country = links.getCountry();
+			continent = links.getContinent();
+			if(timed){
+				time = lap(metrics, LookupMetrics.Stage.JOINS, time);
+			}
+			timeZone = generation.timeZone(links);
+			if(timed){
+				lap(metrics, LookupMetrics.Stage.TIME_ZONE, time);
+			}
+		}
+		if(timed){
+			metrics.outcome(row>=0 ? LookupMetrics.Outcome.CITY_NEAREST : LookupMetrics.Outcome.CITY_MISS);
+			lap(metrics, LookupMetrics.Stage.LOOKUP, start);
+		}
+		return new GeoLocationResult(null, latitude, longitude, city == null ? null : city.getName(), city, timeZone,
+				one, two, country, true, continent, generation.getFragments());
 	}
 	
+	/**
+	 * Location of an ipv4 address.
+	 *
+	 * @param ipv4 the ipv4 address as a big endian int
+	 * @return the map
+	 */
+	public Map<String, Object> location(int ipv4){
+		GeoLocationResult result = find(ipv4);
+		return result == null ? null : result.toMap();
+	}
+
+	/**
+	 * Location of an ipv6 address.
+	 *
+	 * @param hi the high 64 bits
+	 * @param lo the low 64 bits
+	 * @return the map
+	 */
+	public Map<String, Object> location(long hi, long lo){
+		GeoLocationResult result = find(hi, lo);
+		return result == null ? null : result.toMap();
+	}
+
+	/**
+	 * Location of an address held in a buffer.
+	 *
+	 * @param address the buffer
+	 * @param offset the offset of the address
+	 * @param length 4 for ipv4, 16 for ipv6
+	 * @return the map
+	 */
+	public Map<String, Object> location(byte[] address, int offset, int length){
+		GeoLocationResult result = find(address, offset, length);
+		return result == null ? null : result.toMap();
+	}
+
+	/**
+	 * Finds the ip on the database and its details, only ip literals are
+	 * accepted, host names are never resolved.
+	 *
+	 * @param ip the ip
+	 * @return the geo location result
+	 */
+	public GeoLocationResult find(String ip){
+		byte[] buffer = addressBuffer.get();
+		int length = IpAddresses.parse(ip, buffer);
+		if(length<0){
+			throw new IllegalArgumentException(ip+" is not valid");
+		}
+		return find(ip, buffer, 0, length);
+	}
+
+	/**
+	 * Finds the ip on a generation pinned by {@link #pin()}, so a batch of
+	 * lookups sees the same data even when a reload happens meanwhile. The
+	 * location cache is not used.
+	 *
+	 * @param pinned the pinned generation
+	 * @param ip the ip
+	 * @return the geo location result
+	 */
+	public GeoLocationResult find(Generation pinned, String ip){
+		byte[] buffer = addressBuffer.get();
+		int length = IpAddresses.parse(ip, buffer);
+		if(length<0){
+			throw new IllegalArgumentException(ip+" is not valid");
+		}
+		int offset = 0;
+		if(length==16 && IpAddresses.isIpv4Mapped(buffer, 0)){
+			offset=12;
+			length=4;
+		}
+		return find(ip, inetAddress(ip, buffer, offset, length), pinned);
+	}
+
+	/**
+	 * Pins the current generation, its database reader is not closed until
+	 * {@link Generation#release()} is called, even if a reload replaces it.
+	 *
+	 * @return the pinned generation
+	 * @throws IllegalStateException when the geo location was stopped
+	 */
+	public Generation pin() throws IllegalStateException{
+		Generation generation = this.generation;
+		while(!generation.getDatabase().pin()){
+			generation = next(generation);
+		}
+		return generation;
+	}
+
+	/**
+	 * Finds an ipv4 address on the database and its details.
+	 *
+	 * @param ipv4 the ipv4 address as a big endian int
+	 * @return the geo location result
+	 */
+	public GeoLocationResult find(int ipv4){
+		byte[] buffer = addressBuffer.get();
+		return find(null, buffer, 0, IpAddresses.write(ipv4, buffer));
+	}
+
+	/**
+	 * Finds an ipv6 address on the database and its details.
+	 *
+	 * @param hi the high 64 bits
+	 * @param lo the low 64 bits
+	 * @return the geo location result
+	 */
+	public GeoLocationResult find(long hi, long lo){
+		byte[] buffer = addressBuffer.get();
+		return find(null, buffer, 0, IpAddresses.write(hi, lo, buffer));
+	}
+
+	/**
+	 * Finds an address held in a buffer on the database and its details.
+	 *
+	 * @param address the buffer
+	 * @param offset the offset of the address
+	 * @param length 4 for ipv4, 16 for ipv6
+	 * @return the geo location result
+	 */
+	public GeoLocationResult find(byte[] address, int offset, int length){
+		if(length!=4 && length!=16){
+			throw new IllegalArgumentException("invalid address length "+length);
+		}
+		return find(null, address, offset, length);
+	}
+
+	/**
+	 * Find.
+	 *
+	 * @param ip the ip, formatted from the address when null
+	 * @param address the buffer
+	 * @param offset the offset
+	 * @param length the length
+	 * @return the geo location result
+	 */
+	private GeoLocationResult find(String ip, byte[] address, int offset, int length){
+		if(length==16 && IpAddresses.isIpv4Mapped(address, offset)){
+			offset+=12;
+			length=4;
+		}
+		if(ip==null){
+			ip = IpAddresses.format(address, offset, length);
+		}
+		LocationCache locationCache = this.locationCache;
+		GeoLocationResult cached = locationCache==null ? null : locationCache.get(address, offset, length);
+		if(cached!=null){
+			return cached.withIp(ip);
+		}
+		long cacheGeneration = locationCache==null ? 0 : locationCache.generation();
+		InetAddress inetAddress = inetAddress(ip, address, offset, length);
+		Generation generation = this.generation;
+		int slot;
+		while((slot = generation.getDatabase().acquire())<0){
+			generation = next(generation);
+		}
+		GeoLocationResult result;
+		try{
+			result = find(ip, inetAddress, generation);
+		}finally{
+			generation.getDatabase().release(slot);
+		}
+		if(locationCache!=null && result!=null){
+			locationCache.put(address, offset, length, cacheGeneration, result);
+		}
+		return result;
+	}
 	
 	/**
-	 * Location.
+	 * Generation published after a retired one.
+	 *
+	 * @param retired the retired generation
+	 * @return the current generation
+	 * @throws IllegalStateException when the retired one is still current, as the geo location was stopped
+	 */
+	private Generation next(Generation retired) throws IllegalStateException{
+		Generation generation = this.generation;
+		if(generation==retired){
+			throw new IllegalStateException("the database is closed");
+		}
+		return generation;
+	}
+	
+	/**
+	 * Inet address.
 	 *
 	 * @param ip the ip
-	 * @return the map
+	 * @param address the buffer
+	 * @param offset the offset
+	 * @param length the length
+	 * @return the inet address
 	 */
-	public Map<String, Object> location(String ip){
-		CityResponse cityResponse;
+	private static InetAddress inetAddress(String ip, byte[] address, int offset, int length){
 		try {
-			cityResponse = this.databaseReader.city(InetAddress.getByName(ip));
+			return InetAddress.getByAddress(Arrays.copyOfRange(address, offset, offset+length));
 		} catch (UnknownHostException e) {
 			throw new IllegalArgumentException(ip+" is not valid",e);
+		}
+	}
+	
+	/**
+	 * Find.
+	 *
+	 * @param ip the ip
+	 * @param address the address
+	 * @param generation the generation used for the whole lookup
+	 * @return the geo location result
+	 */
+	private GeoLocationResult find(String ip, InetAddress address, Generation generation){
+		LookupMetrics metrics = this.lookupMetrics;
+		boolean timed = metrics != LookupMetrics.NONE;
+		long start = timed ? System.nanoTime() : 0;
+		CityResponse cityResponse;
+		try {
+			cityResponse = generation.getDatabaseReader().city(address);
 		} catch (Exception e) {
 			throw new RuntimeException(e.getMessage(),e);
 		}
+		long time = timed ? lap(metrics, LookupMetrics.Stage.DATABASE, start) : 0;
 		if(cityResponse==null){
 			return null;
 		}
@@ -294,29 +770,45 @@ public class GeoLocation {
 		Continent continent = null;
 		Subdivision one = null;
 		Subdivision two = null;
-		Map<String, Object> data = new LinkedHashMap<>();
-		data.put("ip", ip);
+		TimeZone timeZone = null;
+		String cityName = null;
+		double latitude = Double.NaN;
+		double longitude = Double.NaN;
 		if(cityResponse.getLocation()!=null){
-			data.put("latitude",cityResponse.getLocation().getLatitude());
-			data.put("longitude",cityResponse.getLocation().getLongitude());
+			latitude = value(cityResponse.getLocation().getLatitude());
+			longitude = value(cityResponse.getLocation().getLongitude());
 		}
+		int row = -1;
 		if(cityResponse.getCity()!=null){
-			data.put("cityName", cityResponse.getCity().getName());
-			city = this.cityFinder.find(cityResponse.getCity().getGeoNameId());
+			cityName = cityResponse.getCity().getName();
+			row = generation.getCities().row(cityResponse.getCity().getGeoNameId());
+			if(timed){
+				time = lap(metrics, LookupMetrics.Stage.CITY_BY_ID, time);
+			}
 		}
-		if(city==null && cityResponse.getLocation()!=null){
-			city = this.cityFinder.find(cityResponse.getLocation().getLongitude(), cityResponse.getLocation().getLatitude());
+		boolean byId = row>=0;
+		if(row<0 && cityResponse.getLocation()!=null){
+			row = generation.getCities().nearestRow(cityResponse.getLocation().getLongitude(), cityResponse.getLocation().getLatitude());
+			if(timed){
+				time = lap(metrics, LookupMetrics.Stage.CITY_NEAREST, time);
+			}
 		}
+		city = generation.getCities().city(row);
 		//if city does not match country, remove it
 		if(city!=null && cityResponse.getCountry()!=null 
 				&& !cityResponse.getCountry().getIsoCode().equals(city.getCountryIsoCode())){
 			city=null;
 		}
+		if(timed){
+			metrics.outcome(city!=null ? (byId ? LookupMetrics.Outcome.CITY_BY_ID : LookupMetrics.Outcome.CITY_NEAREST)
+					: row>=0 ? LookupMetrics.Outcome.COUNTRY_MISMATCH : LookupMetrics.Outcome.CITY_MISS);
+		}
 		if(cityResponse.getCountry()!=null){
-			country=countryFinder.find(cityResponse.getCountry().getGeoNameId());
+			country=generation.getCountries().find(cityResponse.getCountry().getGeoNameId());
 		}
-		if(country==null && city!=null){
-			country=countryFinder.find(city.getCountryIsoCode());
+		Generation.Links links = city==null ? null : generation.links(row);
+		if(country==null && links!=null){
+			country=links.getCountry();
 		}
 		if(continent==null && cityResponse.getContinent()!=null){
 			continent=continentFinder.find(cityResponse.getContinent().getCode());
@@ -325,105 +817,112 @@ public class GeoLocation {
 			continent=continentFinder.find(country.getContinent());
 		}
 		if(city!=null){
-			data.put("cityName", city.getName());
-			TimeZone timeZone = timeZoneFinder.find(city.getTimeZone());
-			if(timeZone!=null){
-				HashMap<String, Object> timeZoneMap = new HashMap<>();
-				timeZoneMap.put("name", timeZone.getName());
-				timeZoneMap.put("dtsOffset", timeZone.getDtsOffset());
-				timeZoneMap.put("utcOffset", timeZone.getUtcOffset());
-				timeZoneMap.put("currentOffset", timeZone.getCurrentOffset());
-				timeZoneMap.put("changedAt", timeZone.getChangedAt());
-				data.put("timeZone", timeZoneMap);
-			}
-			one = subdivisionFinder.find(city.getCountryIsoCode(), city.getSubdivisionOne());
-			two = subdivisionFinder.find(city.getCountryIsoCode(), city.getSubdivisionOne(), city.getSubdivisionTwo());
+			cityName = city.getName();
+			one = links.getSubdivisionOne();
+			two = links.getSubdivisionTwo();
 		}else if(cityResponse.getSubdivisions()!=null 
 				&& cityResponse.getSubdivisions().size()>0){
-			one=subdivisionFinder.find(cityResponse.getSubdivisions().get(0).getGeoNameId());
+			one=generation.getSubdivisions().find(cityResponse.getSubdivisions().get(0).getGeoNameId());
 			if(cityResponse.getSubdivisions().size()>1){
-				two=subdivisionFinder.find(cityResponse.getSubdivisions().get(1).getGeoNameId());
+				two=generation.getSubdivisions().find(cityResponse.getSubdivisions().get(1).getGeoNameId());
 			}
 		}
-		List<String> subdivisions = new ArrayList<>();
-		if(two!=null){
-			subdivisions.add(two.getName());
+		boolean countryFound = country!=null;
+		if(country==null && cityResponse.getCountry()!=null){
+			country = new Country();
+			country.setGeonameId(cityResponse.getCountry().getGeoNameId());
+			country.setName(cityResponse.getCountry().getName());
+			country.setIso(cityResponse.getCountry().getIsoCode());
 		}
-		if(one!=null){
-			subdivisions.add(one.getName());
-		}
-		if(subdivisions!=null && subdivisions.size()>0){
-			data.put("subdivisions", subdivisions);
-		}
-		Map<String, Object> countryMap = new LinkedHashMap<>();
-		if(country!=null){
-			countryMap.put("capital", country.getCapital());
-			countryMap.put("currencyCode", country.getCurrencyCode());
-			countryMap.put("currencyName", country.getCurrencyName());
-			countryMap.put("language", country.getLanguage());
-			countryMap.put("name", country.getName());
-			countryMap.put("phone", country.getPhone());
-			countryMap.put("iso", country.getIso());
-		}else if(cityResponse.getCountry()!=null){
-			countryMap.put("name", cityResponse.getCountry().getName());
-			countryMap.put("iso", cityResponse.getCountry().getIsoCode());
+		if(continent==null && cityResponse.getContinent()!=null){
+			continent = new Continent(cityResponse.getContinent().getGeoNameId(), 
+					cityResponse.getContinent().getCode(), cityResponse.getContinent().getName());
 		}
-		if(countryMap.size()>0){
-			data.put("country", countryMap);
+		if(timed){
+			time = lap(metrics, LookupMetrics.Stage.JOINS, time);
 		}
-		Map<String, Object> continentMap = new LinkedHashMap<>();
-		if(continent!=null){
-			continentMap.put("iso", continent.getIso());
-			continentMap.put("name", continent.getName());
-		}else if(cityResponse.getContinent()!=null){
-			continentMap.put("iso", cityResponse.getContinent().getCode());
-			continentMap.put("name", cityResponse.getContinent().getName());
+		if(city!=null){
+			timeZone = generation.timeZone(links);
+			if(timed){
+				lap(metrics, LookupMetrics.Stage.TIME_ZONE, time);
+			}
 		}
-		if(continentMap.size()>0){
-			data.put("continent",continentMap);
+		if(timed){
+			lap(metrics, LookupMetrics.Stage.LOOKUP, start);
 		}
-		return data;
+		return new GeoLocationResult(ip, latitude, longitude, cityName, city, timeZone, one, two, country, countryFound,
+				continent, generation.getFragments());
 	}
 	
 	/**
-	 * Start.
+	 * Value.
+	 *
+	 * @param value the value
+	 * @return the double or NaN when null
+	 */
+	private static double value(Double value){
+		return value == null ? Double.NaN : value;
+	}
+	
+	/**
+	 * Records the latency of a stage.
+	 *
+	 * @param metrics the metrics
+	 * @param stage the stage
+	 * @param start the nano time the stage started at
+	 * @return the nano time it ended at
+	 */
+	private static long lap(LookupMetrics metrics, LookupMetrics.Stage stage, long start){
+		long end = System.nanoTime();
+		metrics.latency(stage, end - start);
+		return end;
+	}
+	
+	/**
+	 * Refresh scheduler, used from {@link #start()} on.
+	 *
+	 * @param refreshScheduler the refresh scheduler
+	 * @return the geo location
+	 */
+	public GeoLocation refreshScheduler(RefreshScheduler refreshScheduler){
+		this.refreshScheduler = refreshScheduler;
+		return this;
+	}
+	
+	/**
+	 * Start, reads everything and then refreshes every dataset with the
+	 * refresh scheduler. After reading snapshots the first refreshes are
+	 * spread over the first minute, instead of waiting a whole interval.
 	 *
 	 * @return the scheduled database reader
-	 * @throws IllegalStateException the illegal state exception
+	 * @throws IllegalStateException if it is already started or it was stopped
 	 */
 	public GeoLocation start() throws IllegalStateException{
-		if (scheduledExecutorService != null) {
+		if (refreshScheduler.isStarted()) {
 			throw new IllegalStateException("it is already started");
 		}
-		readDatabase();
-		scheduledExecutorService = Executors.newScheduledThreadPool(1);
-		scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
-			@Override
-			public void run() {
-				readDatabase();
-			}
-		}, 1, 1, TimeUnit.DAYS);
+		if (stopped) {
+			throw new IllegalStateException("it was stopped, its database is closed");
+		}
+		boolean fromSnapshots = readSnapshots();
+		if(!fromSnapshots){
+			readDatabase();
+		}
+		refreshScheduler.start(this, fromSnapshots);
 		return this;
 	}
 
 	/**
-	 * Stop.
+	 * Stop, closes the database once the lookups in flight are done. It can
+	 * not be started again, lookups fail from then on.
 	 *
 	 * @return the scheduled database reader
 	 * @throws IllegalStateException the illegal state exception
 	 */
 	public GeoLocation stop() throws IllegalStateException{
-		if (scheduledExecutorService == null) {
-			throw new IllegalStateException("it was never started");
-		}
-		scheduledExecutorService.shutdown();
-		try {
-			if (databaseReader != null) {
-				this.databaseReader.close();
-			}
-		} catch (IOException e) {
-			logger.warn("error closing reader: {}", e.getMessage());
-		}
+		refreshScheduler.stop();
+		stopped = true;
+		generation.getDatabase().retire();
 		return this;
 	}
 
@@ -449,45 +948,491 @@ public class GeoLocation {
 	 * @param databaseLocationUrl the database location url
 	 */
 	private void readDatabase(String databaseLocationUrl){
-		String onlineMD5Checksum = null;
-		logger.info("CHEKING geolocation database at url {}", databaseLocationUrl);
+		CompletableFuture<Database> database = loadDatabase(databaseLocationUrl, true);
+		CompletableFuture<CityFinder.Cities> cities = supply(new Supplier<CityFinder.Cities>() {
+			@Override
+			public CityFinder.Cities get() {
+				return cityFinder.loadCities();
+			}
+		});
+		CompletableFuture<CountryFinder.Countries> countries = supply(new Supplier<CountryFinder.Countries>() {
+			@Override
+			public CountryFinder.Countries get() {
+				return countryFinder.loadCountries();
+			}
+		});
+		CompletableFuture<Map<String, Subdivision>> levelOne = supply(new Supplier<Map<String, Subdivision>>() {
+			@Override
+			public Map<String, Subdivision> get() {
+				return subdivisionFinder.loadLevelOne();
+			}
+		});
+		CompletableFuture<Map<String, Subdivision>> levelTwo = supply(new Supplier<Map<String, Subdivision>>() {
+			@Override
+			public Map<String, Subdivision> get() {
+				return subdivisionFinder.loadLevelTwo();
+			}
+		});
+		CompletableFuture<TimeZoneFinder.TimeZones> timeZones = supply(new Supplier<TimeZoneFinder.TimeZones>() {
+			@Override
+			public TimeZoneFinder.TimeZones get() {
+				return timeZoneFinder.loadTimeZones();
+			}
+		});
+		Database loadedDatabase = join(database, databaseLocationUrl);
+		CityFinder.Cities loadedCities = join(cities, "cities");
+		CountryFinder.Countries loadedCountries = join(countries, "countries");
+		Map<String, Subdivision> loadedLevelOne = join(levelOne, "subdivisions level 1");
+		Map<String, Subdivision> loadedLevelTwo = join(levelTwo, "subdivisions level 2");
+		TimeZoneFinder.TimeZones loadedTimeZones = join(timeZones, "time zones");
+		synchronized(this){
+			SubdivisionFinder.Subdivisions loadedSubdivisions = loadedLevelOne==null && loadedLevelTwo==null ? null
+					: subdivisionFinder.subdivisions(loadedLevelOne, loadedLevelTwo);
+			publish(loadedDatabase, changed(loadedCities, cityFinder.cities()), changed(loadedCountries, countryFinder.countries()),
+					loadedSubdivisions, changed(loadedTimeZones, timeZoneFinder.timeZones()));
+		}
+		if(loadedDatabase!=null){
+			logger.info("UPDATED local database with online database");
+		}
+	}
+	
+	/**
+	 * Refreshes the database or a dataset now, publishing it only when it
+	 * changed. Used by the refresh scheduler, it can also be called at any
+	 * time.
+	 *
+	 * @param dataset the dataset
+	 * @return false when it could not be read
+	 */
+	public boolean refresh(ReloadEvent.Dataset dataset){
+		lastReloads.remove(dataset);
+		switch(dataset){
+		case DATABASE:
+			refreshDatabase();
+			break;
+		case CITIES:
+			CityFinder.Cities cities = cityFinder.loadCities();
+			if(cities!=cityFinder.cities()){
+				publish(null, cities, null, null, null);
+			}
+			break;
+		case COUNTRIES:
+			CountryFinder.Countries countries = countryFinder.loadCountries();
+			if(countries!=countryFinder.countries()){
+				publish(null, null, countries, null, null);
+			}
+			break;
+		case SUBDIVISIONS_LEVEL_ONE:
+			Map<String, Subdivision> levelOne = subdivisionFinder.loadLevelOne();
+			if(levelOne!=null){
+				synchronized(this){
+					publish(null, null, null, subdivisionFinder.subdivisions(levelOne, null), null);
+				}
+			}
+			break;
+		case SUBDIVISIONS_LEVEL_TWO:
+			Map<String, Subdivision> levelTwo = subdivisionFinder.loadLevelTwo();
+			if(levelTwo!=null){
+				synchronized(this){
+					publish(null, null, null, subdivisionFinder.subdivisions(null, levelTwo), null);
+				}
+			}
+			break;
+		case TIME_ZONES:
+			TimeZoneFinder.TimeZones timeZones = timeZoneFinder.loadTimeZones();
+			if(timeZones!=timeZoneFinder.timeZones()){
+				publish(null, null, null, null, timeZones);
+			}
+			break;
+		}
+		ReloadEvent event = lastReloads.get(dataset);
+		return event==null || event.getFailure()==null;
+	}
+	
+	/**
+	 * Refreshes the database alone, when it changed.
+	 */
+	private void refreshDatabase(){
+		Database database;
+		try{
+			database = openDatabase(databaseUrl, true);
+		}catch(IOException e){
+			logger.error("could not read {}: {}", databaseUrl, e.getMessage());
+			return;
+		}
+		if(database!=null){
+			publish(database, null, null, null, null);
+		}
+	}
+	
+	/**
+	 * Reads the online checksum of the database.
+	 *
+	 * @return the checksum or null when it could not be read
+	 */
+	private String onlineChecksum(){
 		try{
-			onlineMD5Checksum = IOUtils.toString(new URL(md5ChecksumUrl).openStream()).trim();
+			return IOUtils.toString(new URL(md5ChecksumUrl).openStream()).trim();
 		}catch(Exception e){
-			logger.error("could not read MD5 online: {}",e.getMessage());
+			logger.warn("could not read MD5 online: {}",e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Starts loading the database on the reload executor.
+	 *
+	 * @param databaseLocationUrl the database location url
+	 * @param remote whether the online checksum may be checked first
+	 * @return the future database, null when it did not change
+	 */
+	private CompletableFuture<Database> loadDatabase(final String databaseLocationUrl, final boolean remote){
+		return supply(new Supplier<Database>() {
+			@Override
+			public Database get() {
+				try{
+					return openDatabase(databaseLocationUrl, remote);
+				}catch(IOException e){
+					throw new UncheckedIOException(e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * A loaded dataset, when it is not the current one.
+	 *
+	 * @param <T> the generic type
+	 * @param loaded the loaded dataset, may be null
+	 * @param current the current dataset
+	 * @return the loaded dataset or null when it did not change
+	 */
+	private static <T> T changed(T loaded, T current){
+		return loaded==current ? null : loaded;
+	}
+	
+	/**
+	 * Runs the supplier on the reload executor.
+	 *
+	 * @param <T> the generic type
+	 * @param supplier the supplier
+	 * @return the future
+	 */
+	private <T> CompletableFuture<T> supply(Supplier<T> supplier){
+		return CompletableFuture.supplyAsync(supplier, reloadExecutor);
+	}
+	
+	/**
+	 * Waits for a load, a failed one is logged and the current data kept.
+	 *
+	 * @param <T> the generic type
+	 * @param future the future
+	 * @param name the name of what is loaded
+	 * @return the loaded value or null when it failed
+	 */
+	private static <T> T join(CompletableFuture<T> future, String name){
+		try{
+			return future.join();
+		}catch(CompletionException e){
+			Throwable cause = e.getCause()==null ? e : e.getCause();
+			logger.error("could not read {}: {}", name, cause.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Opens the database when it changed, it is not used until published.
+	 * While the url gives no validators for a conditional request the online
+	 * checksum is checked first, otherwise a not modified response is enough.
+	 * The md5 of the database is computed while it is decompressed, so a
+	 * download equal to the current database is discarded.
+	 *
+	 * @param databaseLocationUrl the database location url
+	 * @param remote whether the online checksum may be checked first
+	 * @return the database or null when it did not change
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private Database openDatabase(String databaseLocationUrl, boolean remote) throws IOException{
+		ReloadEvent.Recorder event = ReloadEvent.record(ReloadEvent.Dataset.DATABASE, databaseLocationUrl);
+		HashingInputStream inputStream = null;
+		File temp = null;
+		try{
+			logger.info("CHEKING geolocation database at url {}", databaseLocationUrl);
+			String current = generation.getChecksum();
+			if(remote && current!=null && StringUtils.isNotBlank(md5ChecksumUrl) && !conditionalGet.isValidated(databaseLocationUrl)
+					&& current.equals(onlineChecksum())){
+				logger.info("local and online database are the same");
+				event.skipped();
+				return null;
+			}
+			ConditionalGet.Response response = conditionalGet.open(databaseLocationUrl, snapshotStore);
+			if(response==null){
+				logger.info("online database not modified");
+				event.skipped();
+				return null;
+			}
+			inputStream = new HashingInputStream(Hashing.md5(), new GZIPInputStream(event.download(response.getInputStream())));
+			NodeCache databaseCache = cache;
+			NodeCache readerCache = databaseCache instanceof GuavaCache ? ((GuavaCache) databaseCache).nextGeneration() : databaseCache;
+			DatabaseReader newReader = null;
+			if(databaseDirectory==null){
+				newReader = new DatabaseReader.Builder(inputStream).locales(Collections.singletonList("en")).fileMode(FileMode.MEMORY).withCache(readerCache).build();
+			}else{
+				temp = download(inputStream);
+			}
+			String checksum = inputStream.hash().toString();
+			if(checksum.equals(current)){
+				logger.info("local and online database are the same");
+				event.skipped();
+				response.commit();
+				if(newReader!=null){
+					newReader.close();
+				}
+				return null;
+			}
+			File newFile = null;
+			if(newReader==null){
+				String unique = temp.getName().substring("GeoLite2-City-".length(), temp.getName().length()-".tmp".length());
+				newFile = new File(databaseDirectory, "GeoLite2-City-"+checksum+"-"+unique+".mmdb");
+				Files.move(temp.toPath(), newFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				try{
+					newReader = new DatabaseReader.Builder(newFile).locales(Collections.singletonList("en")).fileMode(FileMode.MEMORY_MAPPED).withCache(readerCache).build();
+				}catch(IOException e){
+					delete(newFile);
+					throw e;
+				}
+			}
+			event.parsed(0);
+			warmUp(newReader);
+			event.indexed();
+			response.commit();
+			return new Database(newReader, newFile, checksum, databaseCache, readerCache);
+		}catch(IOException | RuntimeException e){
+			event.failed(e);
+			throw e;
+		}finally{
+			IOUtils.closeQuietly(inputStream);
+			delete(temp);
+			reloadListener.reload(event.finish());
+		}
+	}
+
+	
+	/**
+	 * Current generation.
+	 *
+	 * @return the generation
+	 */
+	public Generation generation(){
+		return generation;
+	}
+	
+	/**
+	 * Publishes a new generation with the loaded data, keeping the current
+	 * data for everything that was not loaded. Nothing is published when
+	 * nothing was loaded. A replaced database is closed as soon as the last
+	 * lookup or pin on it is released.
+	 *
+	 * @param database the database, may be null
+	 * @param cities the cities, may be null
+	 * @param countries the countries, may be null
+	 * @param subdivisions the subdivisions, may be null
+	 * @param timeZones the time zones, may be null
+	 */
+	private synchronized void publish(Database database, CityFinder.Cities cities, CountryFinder.Countries countries,
+			SubdivisionFinder.Subdivisions subdivisions, TimeZoneFinder.TimeZones timeZones){
+		if(database==null && cities==null && countries==null && subdivisions==null && timeZones==null){
 			return;
 		}
-		if(!onlineMD5Checksum.equals(localMD5Checksum)){
+		Generation current = this.generation;
+		if(cities!=null){
+			cityFinder.publish(cities);
+		}
+		if(countries!=null){
+			countryFinder.publish(countries);
+		}
+		if(subdivisions!=null){
+			subdivisionFinder.publish(subdivisions);
+		}
+		if(timeZones!=null){
+			timeZoneFinder.publish(timeZones);
+		}
+		Generation.Links[] links = current.getLinks();
+		Fragments fragments = current.getFragments();
+		if(cities!=null || countries!=null || subdivisions!=null || timeZones!=null){
+			links = Generation.link(cities==null ? current.getCities() : cities,
+					countries==null ? current.getCountries() : countries,
+					subdivisions==null ? current.getSubdivisions() : subdivisions,
+					timeZones==null ? current.getTimeZones() : timeZones, continentFinder);
+			fragments = new Fragments(links, countries==null ? current.getCountries() : countries, continentFinder);
+		}
+		this.generation = new Generation(
+				database==null ? current.getDatabase() : new DatabaseReference(database.reader, database.file),
+				database==null ? current.getChecksum() : database.checksum,
+				cities==null ? current.getCities() : cities,
+				countries==null ? current.getCountries() : countries,
+				subdivisions==null ? current.getSubdivisions() : subdivisions,
+				timeZones==null ? current.getTimeZones() : timeZones, links, fragments);
+		if(locationCache!=null){
+			locationCache.invalidateAll();
+		}
+		if(database!=null){
+			if(database.cache instanceof GuavaCache){
+				((GuavaCache) database.cache).activate(database.readerCache);
+			}
+			current.getDatabase().retire();
+		}
+	}
+
+	/**
+	 * Reads the latest local snapshots of the database and of every dataset,
+	 * no remote call is made.
+	 *
+	 * @return true, if the database snapshot could be read
+	 */
+	public boolean readSnapshots(){
+		if(snapshotStore==null){
+			return false;
+		}
+		File database = snapshotStore.latest(databaseUrl);
+		if(database==null){
+			return false;
+		}
+		logger.info("READING geolocation database snapshot {}", database);
+		CompletableFuture<Database> loading = loadDatabase(database.toURI().toString(), false);
+		CompletableFuture<Boolean> cities = supply(new Supplier<Boolean>() {
+			@Override
+			public Boolean get() {
+				return cityFinder.readSnapshot();
+			}
+		});
+		CompletableFuture<Boolean> countries = supply(new Supplier<Boolean>() {
+			@Override
+			public Boolean get() {
+				return countryFinder.readSnapshot();
+			}
+		});
+		CompletableFuture<Boolean> subdivisions = supply(new Supplier<Boolean>() {
+			@Override
+			public Boolean get() {
+				return subdivisionFinder.readSnapshot();
+			}
+		});
+		CompletableFuture<Boolean> timeZones = supply(new Supplier<Boolean>() {
+			@Override
+			public Boolean get() {
+				return timeZoneFinder.readSnapshot();
+			}
+		});
+		join(cities, "cities snapshot");
+		join(countries, "countries snapshot");
+		join(subdivisions, "subdivisions snapshot");
+		join(timeZones, "time zones snapshot");
+		Database loaded = join(loading, "database snapshot");
+		if(loaded==null){
+			return false;
+		}
+		publish(loaded, cityFinder.cities(), countryFinder.countries(), subdivisionFinder.subdivisions(), timeZoneFinder.timeZones());
+		return true;
+	}
+
+	/**
+	 * Decompresses the database into a temporary file of the database
+	 * directory, it is only moved to its final name once its checksum is
+	 * known. The final name keeps the unique part of the temporary one, so a
+	 * database read again never replaces the file of a reader still in use.
+	 *
+	 * @param inputStream the decompressed database
+	 * @return the temporary file
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private File download(InputStream inputStream) throws IOException{
+		if(!databaseDirectory.isDirectory() && !databaseDirectory.mkdirs()){
+			throw new IOException("could not create "+databaseDirectory);
+		}
+		File temp = File.createTempFile("GeoLite2-City-", ".tmp", databaseDirectory);
+		try{
+			FileOutputStream outputStream = new FileOutputStream(temp);
+			try{
+				IOUtils.copy(inputStream, outputStream);
+				outputStream.getFD().sync();
+			}finally{
+				IOUtils.closeQuietly(outputStream);
+			}
+		}catch(IOException | RuntimeException e){
+			delete(temp);
+			throw e;
+		}
+		return temp;
+	}
+
+	/**
+	 * Deletes a database file no longer in use.
+	 *
+	 * @param file the file, may be null
+	 */
+	private static void delete(File file){
+		if(file!=null && file.exists() && !file.delete()){
+			logger.warn("could not delete {}",file);
+		}
+	}
+
+	/**
+	 * Warm up.
+	 *
+	 * @param reader the reader
+	 */
+	private void warmUp(DatabaseReader reader){
+		for(String ip : warmUpIps){
 			try{
-				logger.info("UPDATING local database with online database");
-				DatabaseReader newReader = new DatabaseReader.Builder(new GZIPInputStream(new URL(databaseLocationUrl).openStream())).locales(Collections.singletonList("en")).fileMode(FileMode.MEMORY).withCache(cache).build();
-				if(databaseReader!=null){
-					final DatabaseReader readerToClose = databaseReader;
-					new Timer().schedule(new TimerTask() {				
-						@Override
-						public void run() {
-							try {
-								readerToClose.close();
-							} catch (IOException e) {
-								logger.warn("error closing reader: {}",e.getMessage());
-							}
-						}
-					}, 60*1000);
+				byte[] address = new byte[16];
+				int length = IpAddresses.parse(ip, address);
+				if(length<0){
+					throw new IllegalArgumentException(ip+" is not valid");
 				}
-				this.localMD5Checksum=onlineMD5Checksum;
-				this.databaseReader = newReader;
-				logger.info("UPDATED local database with online database");
+				reader.city(InetAddress.getByAddress(Arrays.copyOf(address, length)));
 			}catch(Exception e){
-				logger.error("could not read Database online: {}",e.getMessage());
+				logger.debug("could not warm up {}: {}", ip, e.getMessage());
 			}
-		}else{
-			logger.info("local and online database are the same");
 		}
-		this.cityFinder.readCities();
-		this.countryFinder.readCountries();
-		this.subdivisionFinder.readLevelOne();
-		this.subdivisionFinder.readLevelTwo();
-		this.timeZoneFinder.readTimeZones();
+	}
+
+	/**
+	 * An opened database waiting to be published.
+	 */
+	private static final class Database {
+
+		/** The reader. */
+		private final DatabaseReader reader;
+
+		/** The file, null when the database is on the heap. */
+		private final File file;
+
+		/** The checksum. */
+		private final String checksum;
+
+		/** The node cache configured when it was opened. */
+		private final NodeCache cache;
+
+		/** The node cache of the reader, a generation of the configured one. */
+		private final NodeCache readerCache;
+
+		/**
+		 * Instantiates a new database.
+		 *
+		 * @param reader the reader
+		 * @param file the file
+		 * @param checksum the checksum
+		 * @param cache the node cache configured when it was opened
+		 * @param readerCache the node cache of the reader
+		 */
+		private Database(DatabaseReader reader, File file, String checksum, NodeCache cache, NodeCache readerCache){
+			this.reader = reader;
+			this.file = file;
+			this.checksum = checksum;
+			this.cache = cache;
+			this.readerCache = readerCache;
+		}
 	}
 
 }
@@ -0,0 +1,424 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import io.gromit.geolite2.model.City;
+import io.gromit.geolite2.model.Continent;
+import io.gromit.geolite2.model.Country;
+import io.gromit.geolite2.model.Subdivision;
+import io.gromit.geolite2.model.TimeZone;
+
+/**
+ * The Class GeoLocationResult.
+ *
+ * Immutable result of a {@link GeoLocation} lookup, {@link #toMap()} gives
+ * the same map returned by the location methods.
+ */
+public final class GeoLocationResult {
+
+	/** The time zone fields, in the order of the time zone map. */
+	private static final String[] TIME_ZONE_FIELDS = Fragments.timeZoneMap(new TimeZone(null, null, null)).keySet()
+			.toArray(new String[0]);
+
+	/** The continent fields, in the order of the continent map of latitude and longitude lookups. */
+	private static final String[] CONTINENT_FIELDS = Fragments.continentMap(new Continent(), false).keySet()
+			.toArray(new String[0]);
+
+	/** The ip, null for latitude and longitude lookups. */
+	private final String ip;
+
+	/** The latitude, NaN when unknown. */
+	private final double latitude;
+
+	/** The longitude, NaN when unknown. */
+	private final double longitude;
+
+	/** The city name. */
+	private final String cityName;
+
+	/** The city. */
+	private final City city;
+
+	/** The time zone. */
+	private final TimeZone timeZone;
+
+	/** The subdivision one. */
+	private final Subdivision subdivisionOne;
+
+	/** The subdivision two. */
+	private final Subdivision subdivisionTwo;
+
+	/** The country. */
+	private final Country country;
+
+	/** The country was found on geonames, false when it only has the database name and iso. */
+	private final boolean countryFound;
+
+	/** The continent. */
+	private final Continent continent;
+
+	/** The fragments of the generation it was found on, null to render every part. */
+	private final Fragments fragments;
+
+	/**
+	 * Instantiates a new geo location result.
+	 *
+	 * @param ip the ip
+	 * @param latitude the latitude
+	 * @param longitude the longitude
+	 * @param cityName the city name
+	 * @param city the city
+	 * @param timeZone the time zone
+	 * @param subdivisionOne the subdivision one
+	 * @param subdivisionTwo the subdivision two
+	 * @param country the country
+	 * @param countryFound the country found
+	 * @param continent the continent
+	 */
+	GeoLocationResult(String ip, double latitude, double longitude, String cityName, City city, TimeZone timeZone,
+			Subdivision subdivisionOne, Subdivision subdivisionTwo, Country country, boolean countryFound,
+			Continent continent) {
+		this(ip, latitude, longitude, cityName, city, timeZone, subdivisionOne, subdivisionTwo, country, countryFound,
+				continent, null);
+	}
+
+	/**
+	 * Instantiates a new geo location result.
+	 *
+	 * @param ip the ip
+	 * @param latitude the latitude
+	 * @param longitude the longitude
+	 * @param cityName the city name
+	 * @param city the city
+	 * @param timeZone the time zone
+	 * @param subdivisionOne the subdivision one
+	 * @param subdivisionTwo the subdivision two
+	 * @param country the country
+	 * @param countryFound the country found
+	 * @param continent the continent
+	 * @param fragments the fragments of the generation, may be null
+	 */
+	GeoLocationResult(String ip, double latitude, double longitude, String cityName, City city, TimeZone timeZone,
+			Subdivision subdivisionOne, Subdivision subdivisionTwo, Country country, boolean countryFound,
+			Continent continent, Fragments fragments) {
+		this.ip = ip;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.cityName = cityName;
+		this.city = city;
+		this.timeZone = timeZone;
+		this.subdivisionOne = subdivisionOne;
+		this.subdivisionTwo = subdivisionTwo;
+		this.country = country;
+		this.countryFound = countryFound;
+		this.continent = continent;
+		this.fragments = fragments;
+	}
+
+	/**
+	 * Same result for another ip of the same network.
+	 *
+	 * @param ip the ip
+	 * @return the geo location result
+	 */
+	GeoLocationResult withIp(String ip){
+		return new GeoLocationResult(ip, latitude, longitude, cityName, city, timeZone, subdivisionOne,
+				subdivisionTwo, country, countryFound, continent, fragments);
+	}
+
+	/**
+	 * Gets the ip.
+	 *
+	 * @return the ip
+	 */
+	public String getIp() {
+		return ip;
+	}
+
+	/**
+	 * Checks for location.
+	 *
+	 * @return true, if latitude and longitude are known
+	 */
+	public boolean hasLocation() {
+		return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+	}
+
+	/**
+	 * Gets the latitude.
+	 *
+	 * @return the latitude or NaN
+	 */
+	public double getLatitude() {
+		return latitude;
+	}
+
+	/**
+	 * Gets the longitude.
+	 *
+	 * @return the longitude or NaN
+	 */
+	public double getLongitude() {
+		return longitude;
+	}
+
+	/**
+	 * Gets the city name, from geonames or from the database.
+	 *
+	 * @return the city name
+	 */
+	public String getCityName() {
+		return cityName;
+	}
+
+	/**
+	 * Gets the city.
+	 *
+	 * @return the city
+	 */
+	public City getCity() {
+		return city;
+	}
+
+	/**
+	 * Gets the time zone.
+	 *
+	 * @return the time zone
+	 */
+	public TimeZone getTimeZone() {
+		return timeZone;
+	}
+
+	/**
+	 * Gets the subdivision one.
+	 *
+	 * @return the subdivision one
+	 */
+	public Subdivision getSubdivisionOne() {
+		return subdivisionOne;
+	}
+
+	/**
+	 * Gets the subdivision two.
+	 *
+	 * @return the subdivision two
+	 */
+	public Subdivision getSubdivisionTwo() {
+		return subdivisionTwo;
+	}
+
+	/**
+	 * Gets the country, when not found on geonames only name and iso are set.
+	 *
+	 * @return the country
+	 */
+	public Country getCountry() {
+		return country;
+	}
+
+	/**
+	 * Gets the continent.
+	 *
+	 * @return the continent
+	 */
+	public Continent getContinent() {
+		return continent;
+	}
+
+	/**
+	 * Map with the same layout returned by the location methods. The parts
+	 * that only depend on the loaded datasets are shared and unmodifiable.
+	 *
+	 * @return the map
+	 */
+	public Map<String, Object> toMap(){
+		Map<String, Object> data = new LinkedHashMap<>();
+		if(ip!=null){
+			data.put("ip", ip);
+		}
+		data.put("latitude", Double.isNaN(latitude) ? null : latitude);
+		data.put("longitude", Double.isNaN(longitude) ? null : longitude);
+		if(ip!=null || city!=null){
+			data.put("cityName", cityName);
+		}
+		if(timeZone!=null){
+			data.put("timeZone", fragments==null ? Fragments.timeZoneMap(timeZone) : fragments.timeZone(timeZone));
+		}
+		List<String> subdivisions = fragments==null ? Fragments.subdivisionList(subdivisionOne, subdivisionTwo)
+				: fragments.subdivisions(subdivisionOne, subdivisionTwo);
+		if(subdivisions!=null){
+			data.put("subdivisions", subdivisions);
+		}
+		if(country!=null){
+			data.put("country", fragments==null ? Fragments.countryMap(country, countryFound)
+					: fragments.country(country, countryFound));
+		}
+		if(continent!=null){
+			data.put("continent", fragments==null ? Fragments.continentMap(continent, ip!=null)
+					: fragments.continent(continent, ip!=null));
+		}
+		return data;
+	}
+
+	/**
+	 * Writes the same json document as {@link #toMap()} straight to a
+	 * generator, without building any map.
+	 *
+	 * @param generator the generator
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void writeTo(JsonGenerator generator) throws IOException{
+		generator.writeStartObject();
+		if(ip!=null){
+			generator.writeStringField("ip", ip);
+		}
+		writeNumberField(generator, "latitude", latitude);
+		writeNumberField(generator, "longitude", longitude);
+		if(ip!=null || city!=null){
+			generator.writeStringField("cityName", cityName);
+		}
+		if(timeZone!=null){
+			generator.writeObjectFieldStart("timeZone");
+			for(String field : TIME_ZONE_FIELDS){
+				writeTimeZoneField(generator, field);
+			}
+			generator.writeEndObject();
+		}
+		if(subdivisionOne!=null || subdivisionTwo!=null){
+			generator.writeArrayFieldStart("subdivisions");
+			if(subdivisionTwo!=null){
+				generator.writeString(subdivisionTwo.getName());
+			}
+			if(subdivisionOne!=null){
+				generator.writeString(subdivisionOne.getName());
+			}
+			generator.writeEndArray();
+		}
+		if(country!=null){
+			generator.writeObjectFieldStart("country");
+			if(countryFound){
+				generator.writeStringField("capital", country.getCapital());
+				generator.writeStringField("currencyCode", country.getCurrencyCode());
+				generator.writeStringField("currencyName", country.getCurrencyName());
+				generator.writeStringField("language", country.getLanguage());
+				generator.writeStringField("name", country.getName());
+				generator.writeStringField("phone", country.getPhone());
+				generator.writeStringField("iso", country.getIso());
+			}else{
+				generator.writeStringField("name", country.getName());
+				generator.writeStringField("iso", country.getIso());
+			}
+			generator.writeEndObject();
+		}
+		if(continent!=null){
+			generator.writeObjectFieldStart("continent");
+			if(ip!=null){
+				generator.writeStringField("iso", continent.getIso());
+				generator.writeStringField("name", continent.getName());
+			}else{
+				for(String field : CONTINENT_FIELDS){
+					generator.writeStringField(field, "iso".equals(field) ? continent.getIso() : continent.getName());
+				}
+			}
+			generator.writeEndObject();
+		}
+		generator.writeEndObject();
+	}
+
+	/**
+	 * Writes a time zone field.
+	 *
+	 * @param generator the generator
+	 * @param field the field
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writeTimeZoneField(JsonGenerator generator, String field) throws IOException{
+		switch(field){
+		case "name":
+			generator.writeStringField(field, timeZone.getName());
+			break;
+		case "dtsOffset":
+			writeNumberField(generator, field, timeZone.getDtsOffset());
+			break;
+		case "utcOffset":
+			writeNumberField(generator, field, timeZone.getUtcOffset());
+			break;
+		case "currentOffset":
+			writeNumberField(generator, field, timeZone.getCurrentOffset());
+			break;
+		default:
+			generator.writeFieldName(field);
+			if(timeZone.getChangedAt()==null){
+				generator.writeNull();
+			}else{
+				generator.writeNumber(timeZone.getChangedAt());
+			}
+		}
+	}
+
+	/**
+	 * Writes a number field, null when NaN.
+	 *
+	 * @param generator the generator
+	 * @param field the field
+	 * @param value the value
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void writeNumberField(JsonGenerator generator, String field, double value) throws IOException{
+		if(Double.isNaN(value)){
+			generator.writeNullField(field);
+		}else{
+			generator.writeNumberField(field, value);
+		}
+	}
+
+	/**
+	 * Writes a number field.
+	 *
+	 * @param generator the generator
+	 * @param field the field
+	 * @param value the value, may be null
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void writeNumberField(JsonGenerator generator, String field, Double value) throws IOException{
+		if(value==null){
+			generator.writeNullField(field);
+		}else{
+			generator.writeNumberField(field, value.doubleValue());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+	}
+
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.gromit.geolite2.utils.LatencyHistogram;
+
+/**
+ * The Class HistogramMetrics.
+ *
+ * Lookup metrics kept in memory, a latency histogram by stage and a counter
+ * by outcome, all of them recorded without locks.
+ */
+public class HistogramMetrics implements LookupMetrics {
+
+	/** The histograms by stage ordinal. */
+	private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+
+	/** The counters by outcome ordinal. */
+	private final LongAdder[] outcomes = new LongAdder[Outcome.values().length];
+
+	/**
+	 * Instantiates new histogram metrics.
+	 */
+	public HistogramMetrics() {
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+		for (int i = 0; i < outcomes.length; i++) {
+			outcomes[i] = new LongAdder();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.geolite2.LookupMetrics#latency(io.gromit.geolite2.LookupMetrics.Stage, long)
+	 */
+	@Override
+	public void latency(Stage stage, long nanos) {
+		histograms[stage.ordinal()].record(nanos);
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.geolite2.LookupMetrics#outcome(io.gromit.geolite2.LookupMetrics.Outcome)
+	 */
+	@Override
+	public void outcome(Outcome outcome) {
+		outcomes[outcome.ordinal()].increment();
+	}
+
+	/**
+	 * Histogram of a stage, in nanos.
+	 *
+	 * @param stage the stage
+	 * @return the latency histogram
+	 */
+	public LatencyHistogram histogram(Stage stage) {
+		return histograms[stage.ordinal()];
+	}
+
+	/**
+	 * Count of an outcome.
+	 *
+	 * @param outcome the outcome
+	 * @return the count
+	 */
+	public long count(Outcome outcome) {
+		return outcomes[outcome.ordinal()].sum();
+	}
+
+	/**
+	 * Resets every histogram and counter.
+	 */
+	public void reset() {
+		for (LatencyHistogram histogram : histograms) {
+			histogram.reset();
+		}
+		for (LongAdder counter : outcomes) {
+			counter.reset();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("HistogramMetrics [");
+		for (Stage stage : Stage.values()) {
+			LatencyHistogram histogram = histogram(stage);
+			builder.append(stage).append("={count=").append(histogram.count())
+					.append(", p50=").append(micros(histogram.percentile(50)))
+					.append("us, p99=").append(micros(histogram.percentile(99)))
+					.append("us, max=").append(micros(histogram.percentile(100))).append("us}, ");
+		}
+		for (Outcome outcome : Outcome.values()) {
+			builder.append(outcome).append('=').append(count(outcome)).append(", ");
+		}
+		builder.setLength(builder.length() - 2);
+		return builder.append(']').toString();
+	}
+
+	/**
+	 * Micros.
+	 *
+	 * @param nanos the nanos
+	 * @return the micros
+	 */
+	private static double micros(long nanos) {
+		return Math.round(nanos / (double) TimeUnit.MICROSECONDS.toNanos(1) * 10) / 10d;
+	}
+
+}
@@ -38,4 +38,14 @@ public interface LoaderListener {
 	 */
 	void failure(String url, Exception e);
 	
+	/**
+	 * Reload, the phases of every load of the database or of a dataset,
+	 * whether it succeeded, failed or was skipped. Loads through the fail safe
+	 * urls or from snapshots are sent too.
+	 *
+	 * @param event the event
+	 */
+	default void reload(ReloadEvent event) {
+	}
+	
 }
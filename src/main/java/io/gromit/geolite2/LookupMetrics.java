@@ -0,0 +1,94 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2;
+
+/**
+ * The Interface LookupMetrics.
+ *
+ * Sink of the latency of every stage of a lookup and of how its city was
+ * found. {@link #NONE} switches the instrumentation off entirely, not even
+ * the clock is read.
+ */
+public interface LookupMetrics {
+
+	/**
+	 * The stages of a lookup.
+	 */
+	enum Stage {
+
+		/** The whole lookup, the location cache excluded. */
+		LOOKUP,
+
+		/** The city call on the database reader. */
+		DATABASE,
+
+		/** The city found by its geoname id. */
+		CITY_BY_ID,
+
+		/** The nearest city to the coordinates. */
+		CITY_NEAREST,
+
+		/** The country, continent and subdivision joins. */
+		JOINS,
+
+		/** The time zone of the city. */
+		TIME_ZONE
+	}
+
+	/**
+	 * How the city of a lookup was found.
+	 */
+	enum Outcome {
+
+		/** Found by its geoname id. */
+		CITY_BY_ID,
+
+		/** Found as the nearest city to the coordinates. */
+		CITY_NEAREST,
+
+		/** Found but dropped as it is not in the country of the database. */
+		COUNTRY_MISMATCH,
+
+		/** Not found. */
+		CITY_MISS
+	}
+
+	/** The none, nothing is measured. */
+	LookupMetrics NONE = new LookupMetrics() {
+		@Override
+		public void latency(Stage stage, long nanos) {
+		}
+		@Override
+		public void outcome(Outcome outcome) {
+		}
+	};
+
+	/**
+	 * Latency of a stage.
+	 *
+	 * @param stage the stage
+	 * @param nanos the nanos
+	 */
+	void latency(Stage stage, long nanos);
+
+	/**
+	 * Outcome of a lookup.
+	 *
+	 * @param outcome the outcome
+	 */
+	void outcome(Outcome outcome);
+
+}
@@ -0,0 +1,325 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.gromit.geolite2.ReloadEvent.Dataset;
+
+/**
+ * The Class RefreshScheduler.
+ *
+ * Refreshes the database and every dataset of a {@link GeoLocation} on an
+ * interval of their own, once a day by default. Every delay is moved by a
+ * random jitter, so instances started together do not download at the same
+ * moment, and a failed refresh is retried after an exponential backoff
+ * instead of a whole interval. A refresh only parses and publishes what
+ * changed, and one can also be triggered at any time.
+ */
+public class RefreshScheduler {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(RefreshScheduler.class);
+
+	/** The Constant STARTUP_WINDOW, the first refreshes due now are spread over it, in millis. */
+	private static final long STARTUP_WINDOW = TimeUnit.MINUTES.toMillis(1);
+
+	/** The intervals by dataset, in millis. */
+	private final Map<Dataset, Long> intervals = new EnumMap<>(Dataset.class);
+
+	/** The jitter, a fraction of every delay. */
+	private double jitter = 0.1;
+
+	/** The first backoff, in millis. */
+	private long initialBackoff = TimeUnit.MINUTES.toMillis(1);
+
+	/** The longest backoff, in millis, never longer than the interval. */
+	private long maxBackoff = TimeUnit.HOURS.toMillis(6);
+
+	/** The tasks by dataset, while started. */
+	private final Map<Dataset, Task> tasks = new EnumMap<>(Dataset.class);
+
+	/** The scheduled executor service, null while not started. */
+	private ScheduledExecutorService scheduledExecutorService;
+
+	/** The geo location refreshed. */
+	private GeoLocation geoLocation;
+
+	/**
+	 * Instantiates a new refresh scheduler.
+	 */
+	public RefreshScheduler() {
+		for (Dataset dataset : Dataset.values()) {
+			intervals.put(dataset, TimeUnit.DAYS.toMillis(1));
+		}
+	}
+
+	/**
+	 * Interval of a dataset, taken into account from its next refresh.
+	 *
+	 * @param dataset the dataset
+	 * @param interval the interval
+	 * @param unit the unit
+	 * @return the refresh scheduler
+	 */
+	public synchronized RefreshScheduler interval(Dataset dataset, long interval, TimeUnit unit) {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("invalid interval " + interval);
+		}
+		intervals.put(dataset, unit.toMillis(interval));
+		return this;
+	}
+
+	/**
+	 * Jitter, every delay is moved randomly by up to this fraction of it.
+	 *
+	 * @param jitter the jitter, from 0 to 1
+	 * @return the refresh scheduler
+	 */
+	public synchronized RefreshScheduler jitter(double jitter) {
+		if (jitter < 0 || jitter > 1) {
+			throw new IllegalArgumentException("invalid jitter " + jitter);
+		}
+		this.jitter = jitter;
+		return this;
+	}
+
+	/**
+	 * Backoff after failed refreshes, doubled on every failure in a row.
+	 *
+	 * @param initial the first backoff
+	 * @param max the longest backoff
+	 * @param unit the unit
+	 * @return the refresh scheduler
+	 */
+	public synchronized RefreshScheduler backoff(long initial, long max, TimeUnit unit) {
+		if (initial <= 0 || max < initial) {
+			throw new IllegalArgumentException("invalid backoff " + initial + " to " + max);
+		}
+		this.initialBackoff = unit.toMillis(initial);
+		this.maxBackoff = unit.toMillis(max);
+		return this;
+	}
+
+	/**
+	 * Triggers a refresh of a dataset now, or right after the one running.
+	 *
+	 * @param dataset the dataset
+	 * @throws IllegalStateException when it is not started
+	 */
+	public void trigger(Dataset dataset) throws IllegalStateException {
+		Task task;
+		synchronized (this) {
+			if (scheduledExecutorService == null) {
+				throw new IllegalStateException("it is not started");
+			}
+			task = tasks.get(dataset);
+		}
+		task.trigger();
+	}
+
+	/**
+	 * Checks if it was started.
+	 *
+	 * @return true, if started
+	 */
+	synchronized boolean isStarted() {
+		return scheduledExecutorService != null;
+	}
+
+	/**
+	 * Starts refreshing a geo location.
+	 *
+	 * @param geoLocation the geo location
+	 * @param now whether the first refreshes are due now, they are spread
+	 *            over the first minute
+	 * @throws IllegalStateException when it was already started
+	 */
+	synchronized void start(GeoLocation geoLocation, boolean now) throws IllegalStateException {
+		if (scheduledExecutorService != null) {
+			throw new IllegalStateException("it is already started");
+		}
+		this.geoLocation = geoLocation;
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2);
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		scheduledExecutorService = executor;
+		for (Dataset dataset : Dataset.values()) {
+			Task task = new Task(dataset, executor);
+			tasks.put(dataset, task);
+			task.schedule(now ? startupDelay() : delay(intervals.get(dataset)));
+		}
+	}
+
+	/**
+	 * Stops refreshing, pending refreshes are cancelled and the one in
+	 * progress, if any, is waited for. It can be started again afterwards.
+	 *
+	 * @throws IllegalStateException when it is not started
+	 */
+	void stop() throws IllegalStateException {
+		ScheduledExecutorService executor;
+		synchronized (this) {
+			if (scheduledExecutorService == null) {
+				throw new IllegalStateException("it is not started");
+			}
+			executor = scheduledExecutorService;
+			scheduledExecutorService = null;
+			tasks.clear();
+		}
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				logger.info("waiting for the refresh in progress to stop");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Delay after a refresh.
+	 *
+	 * @param dataset the dataset
+	 * @param failures the failures in a row
+	 * @return the delay in millis
+	 */
+	synchronized long delay(Dataset dataset, int failures) {
+		long interval = intervals.get(dataset);
+		if (failures == 0) {
+			return delay(interval);
+		}
+		long backoff = initialBackoff << Math.min(failures - 1, 30);
+		return delay(Math.min(backoff < 0 ? Long.MAX_VALUE : backoff, Math.min(maxBackoff, interval)));
+	}
+
+	/**
+	 * Delay of a first refresh due now, random within the startup window
+	 * whatever the interval.
+	 *
+	 * @return the delay in millis
+	 */
+	long startupDelay() {
+		return (long) (STARTUP_WINDOW * ThreadLocalRandom.current().nextDouble());
+	}
+
+	/**
+	 * Delay moved by the jitter.
+	 *
+	 * @param delay the delay in millis
+	 * @return the delay in millis
+	 */
+	private long delay(long delay) {
+		return Math.max(0, delay + (long) (delay * jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1)));
+	}
+
+	/**
+	 * The refreshes of a dataset, never two at the same time.
+	 */
+	private final class Task implements Runnable {
+
+		/** The dataset. */
+		private final Dataset dataset;
+
+		/** The executor it runs on. */
+		private final ScheduledExecutorService executor;
+
+		/** The failures in a row. */
+		private int failures;
+
+		/** The next refresh. */
+		private ScheduledFuture<?> next;
+
+		/** Whether it is refreshing. */
+		private boolean running;
+
+		/** Whether it was triggered while refreshing. */
+		private boolean triggered;
+
+		/**
+		 * Instantiates a new task.
+		 *
+		 * @param dataset the dataset
+		 * @param executor the executor it runs on
+		 */
+		private Task(Dataset dataset, ScheduledExecutorService executor) {
+			this.dataset = dataset;
+			this.executor = executor;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			synchronized (this) {
+				running = true;
+			}
+			boolean refreshed;
+			try {
+				refreshed = geoLocation.refresh(dataset);
+			} catch (RuntimeException e) {
+				logger.error("error refreshing " + dataset, e);
+				refreshed = false;
+			}
+			synchronized (this) {
+				running = false;
+				failures = refreshed ? 0 : failures + 1;
+				long delay = triggered ? 0 : delay(dataset, failures);
+				triggered = false;
+				if (!refreshed) {
+					logger.warn("could not refresh {}, {} failures in a row, retrying in {} ms", dataset, failures, delay);
+				}
+				schedule(delay);
+			}
+		}
+
+		/**
+		 * Triggers a refresh now, or once the one already started is done.
+		 */
+		private synchronized void trigger() {
+			if (running || !next.cancel(false)) {
+				triggered = true;
+				return;
+			}
+			schedule(0);
+		}
+
+		/**
+		 * Schedules the next refresh, unless stopped.
+		 *
+		 * @param delay the delay in millis
+		 */
+		private synchronized void schedule(long delay) {
+			try {
+				next = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				logger.debug("{} not refreshed any more", dataset);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,387 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The Class ReloadEvent.
+ *
+ * The phases of one load of the database or of a dataset. Download is the
+ * time spent opening the url and blocked reading it, which with a snapshot
+ * store includes saving it whole, parse is the rest of the time until every
+ * record was read and index the time building the structures searched by
+ * the lookups, warming up the cache for the database. As a download is
+ * parsed while it is read, both phases add up to the time until the last
+ * record. The memory delta is the used heap after the load minus before, it
+ * is only an estimate as it counts garbage and other threads allocations.
+ */
+public class ReloadEvent {
+
+	/**
+	 * The datasets.
+	 */
+	public enum Dataset {
+
+		/** The mmdb database. */
+		DATABASE,
+
+		/** The cities. */
+		CITIES,
+
+		/** The countries. */
+		COUNTRIES,
+
+		/** The subdivisions level one. */
+		SUBDIVISIONS_LEVEL_ONE,
+
+		/** The subdivisions level two. */
+		SUBDIVISIONS_LEVEL_TWO,
+
+		/** The time zones. */
+		TIME_ZONES
+	}
+
+	/** The dataset. */
+	private final Dataset dataset;
+
+	/** The url. */
+	private final String url;
+
+	/** The download nanos. */
+	private final long downloadNanos;
+
+	/** The bytes read from the url. */
+	private final long bytes;
+
+	/** The parse nanos. */
+	private final long parseNanos;
+
+	/** The records. */
+	private final int records;
+
+	/** The index nanos. */
+	private final long indexNanos;
+
+	/** The total nanos. */
+	private final long totalNanos;
+
+	/** The memory delta in bytes. */
+	private final long memoryDelta;
+
+	/** Whether the load was skipped as it was not modified or its checksum, crc or digest did not change. */
+	private final boolean skipped;
+
+	/** The failure, null when it did not fail. */
+	private final Exception failure;
+
+	/**
+	 * Instantiates a new reload event.
+	 *
+	 * @param recorder the recorder
+	 * @param end the nano time it ended at
+	 * @param memoryDelta the memory delta
+	 */
+	private ReloadEvent(Recorder recorder, long end, long memoryDelta) {
+		this.dataset = recorder.dataset;
+		this.url = recorder.url;
+		this.downloadNanos = recorder.downloadNanos;
+		this.bytes = recorder.bytes;
+		this.parseNanos = recorder.parsed == 0 ? 0 : Math.max(0, recorder.parsed - recorder.start - recorder.downloadNanos);
+		this.records = recorder.records;
+		this.indexNanos = recorder.parsed == 0 || recorder.indexed == 0 ? 0 : recorder.indexed - recorder.parsed;
+		this.totalNanos = end - recorder.start;
+		this.memoryDelta = memoryDelta;
+		this.skipped = recorder.skipped;
+		this.failure = recorder.failure;
+	}
+
+	/**
+	 * Starts recording a load.
+	 *
+	 * @param dataset the dataset
+	 * @param url the url
+	 * @return the recorder
+	 */
+	public static Recorder record(Dataset dataset, String url) {
+		return new Recorder(dataset, url);
+	}
+
+	/**
+	 * Gets the dataset.
+	 *
+	 * @return the dataset
+	 */
+	public Dataset getDataset() {
+		return dataset;
+	}
+
+	/**
+	 * Gets the url.
+	 *
+	 * @return the url
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Gets the download nanos.
+	 *
+	 * @return the download nanos
+	 */
+	public long getDownloadNanos() {
+		return downloadNanos;
+	}
+
+	/**
+	 * Gets the bytes read from the url.
+	 *
+	 * @return the bytes
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Gets the parse nanos.
+	 *
+	 * @return the parse nanos
+	 */
+	public long getParseNanos() {
+		return parseNanos;
+	}
+
+	/**
+	 * Gets the records, 0 for the database as its reader does not expose them.
+	 *
+	 * @return the records
+	 */
+	public int getRecords() {
+		return records;
+	}
+
+	/**
+	 * Gets the index nanos.
+	 *
+	 * @return the index nanos
+	 */
+	public long getIndexNanos() {
+		return indexNanos;
+	}
+
+	/**
+	 * Gets the total nanos.
+	 *
+	 * @return the total nanos
+	 */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * Gets the memory delta.
+	 *
+	 * @return the memory delta in bytes
+	 */
+	public long getMemoryDelta() {
+		return memoryDelta;
+	}
+
+	/**
+	 * Checks if the load was skipped as it was not modified or its checksum, crc or digest did not change.
+	 *
+	 * @return true, if skipped
+	 */
+	public boolean isSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * Gets the failure.
+	 *
+	 * @return the failure or null when it did not fail
+	 */
+	public Exception getFailure() {
+		return failure;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ReloadEvent [dataset=" + dataset + ", url=" + url + ", downloadNanos=" + downloadNanos + ", bytes="
+				+ bytes + ", parseNanos=" + parseNanos + ", records=" + records + ", indexNanos=" + indexNanos
+				+ ", totalNanos=" + totalNanos + ", memoryDelta=" + memoryDelta + ", skipped=" + skipped
+				+ ", failure=" + failure + "]";
+	}
+
+	/**
+	 * Records the phases of a load as it goes, by the thread loading it.
+	 */
+	public static final class Recorder {
+
+		/** The dataset. */
+		private final Dataset dataset;
+
+		/** The url. */
+		private final String url;
+
+		/** The nano time it started at. */
+		private final long start = System.nanoTime();
+
+		/** The used memory it started with. */
+		private final long memory = usedMemory();
+
+		/** The download nanos. */
+		private long downloadNanos;
+
+		/** The bytes. */
+		private long bytes;
+
+		/** The nano time the last record was parsed at, 0 until then. */
+		private long parsed;
+
+		/** The records. */
+		private int records;
+
+		/** The nano time the indexes were built at, 0 until then. */
+		private long indexed;
+
+		/** The skipped. */
+		private boolean skipped;
+
+		/** The failure. */
+		private Exception failure;
+
+		/**
+		 * Instantiates a new recorder.
+		 *
+		 * @param dataset the dataset
+		 * @param url the url
+		 */
+		private Recorder(Dataset dataset, String url) {
+			this.dataset = dataset;
+			this.url = url;
+		}
+
+		/**
+		 * Wraps the stream of the url, the time since the recording started
+		 * is download time as opening the url connects to it.
+		 *
+		 * @param inputStream the input stream
+		 * @return the input stream counting bytes and time blocked reading
+		 */
+		public InputStream download(InputStream inputStream) {
+			downloadNanos += System.nanoTime() - start;
+			return new FilterInputStream(inputStream) {
+				@Override
+				public int read() throws IOException {
+					long time = System.nanoTime();
+					int read = super.read();
+					downloadNanos += System.nanoTime() - time;
+					if (read >= 0) {
+						bytes++;
+					}
+					return read;
+				}
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					long time = System.nanoTime();
+					int read = super.read(b, off, len);
+					downloadNanos += System.nanoTime() - time;
+					if (read > 0) {
+						bytes += read;
+					}
+					return read;
+				}
+				@Override
+				public long skip(long n) throws IOException {
+					long skipped = super.skip(n);
+					bytes += skipped;
+					return skipped;
+				}
+			};
+		}
+
+		/**
+		 * Parsed records, called again when a load has several parts.
+		 *
+		 * @param records the records
+		 * @return the recorder
+		 */
+		public Recorder parsed(int records) {
+			this.records += records;
+			this.parsed = System.nanoTime();
+			return this;
+		}
+
+		/**
+		 * Indexed, the structures searched by the lookups are built.
+		 *
+		 * @return the recorder
+		 */
+		public Recorder indexed() {
+			this.indexed = System.nanoTime();
+			return this;
+		}
+
+		/**
+		 * Skipped as the checksum or crc did not change.
+		 *
+		 * @return the recorder
+		 */
+		public Recorder skipped() {
+			this.skipped = true;
+			return this;
+		}
+
+		/**
+		 * Failed.
+		 *
+		 * @param failure the failure
+		 * @return the recorder
+		 */
+		public Recorder failed(Exception failure) {
+			this.failure = failure;
+			return this;
+		}
+
+		/**
+		 * Finishes the recording.
+		 *
+		 * @return the reload event
+		 */
+		public ReloadEvent finish() {
+			return new ReloadEvent(this, System.nanoTime(), usedMemory() - memory);
+		}
+
+		/**
+		 * Used memory.
+		 *
+		 * @return the used heap in bytes
+		 */
+		private static long usedMemory() {
+			Runtime runtime = Runtime.getRuntime();
+			return runtime.totalMemory() - runtime.freeMemory();
+		}
+
+	}
+
+}
@@ -16,28 +16,53 @@
 package io.gromit.geolite2.cache;
 
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
 import com.maxmind.db.NodeCache;
 
 /**
  * The Class GuavaCache.
+ *
+ * Node cache keys are offsets inside the data section of one database, so
+ * every database reader must get its own generation, see
+ * {@link #nextGeneration()}, and no cache is ever shared by two of them. A
+ * new generation only becomes the current one once its database is in use,
+ * see {@link #activate(NodeCache)}. Statistics are accumulated over all the
+ * generations while they were current.
  */
 public class GuavaCache implements NodeCache {
 
     /** The Constant DEFAULT_CAPACITY. */
     private static final int DEFAULT_CAPACITY = 16384;
-    
-    /** The cache. */
-    private final Cache<Integer, JsonNode> cache;
+
+    /** The Constant WEIGHER, approximate retained size of a node in bytes. */
+    private static final Weigher<Integer, JsonNode> WEIGHER = new Weigher<Integer, JsonNode>() {
+        @Override
+        public int weigh(Integer key, JsonNode value) {
+            return (int) Math.min(Integer.MAX_VALUE, 16 + weight(value));
+        }
+    };
+
+    /** The builder of every generation. */
+    private final CacheBuilder<? super Integer, ? super JsonNode> builder;
+
+    /** The current generation. */
+    private volatile Generation current;
+
+    /** The stats of the retired generations. */
+    private volatile CacheStats retired = new CacheStats(0, 0, 0, 0, 0, 0);
 
     /**
      * Instantiates a new guava cache.
      */
     public GuavaCache() {
-    	cache = CacheBuilder.newBuilder().maximumSize(DEFAULT_CAPACITY).build();
+        this(DEFAULT_CAPACITY);
     }
 
     /**
@@ -46,16 +71,42 @@ public class GuavaCache implements NodeCache {
      * @param maximumSize the maximum size
      */
     public GuavaCache(int maximumSize) {
-    	cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+        this(CacheBuilder.newBuilder().maximumSize(maximumSize));
     }
-    
+
     /**
-     * Instantiates a new guava cache.
+     * Instantiates a new guava cache, every generation is built by the
+     * builder, with stats recorded.
      *
-     * @param cache the cache
+     * @param builder the builder
      */
+    public GuavaCache(CacheBuilder<? super Integer, ? super JsonNode> builder){
+        this.builder = builder.recordStats();
+        this.current = new Generation(this, this.builder.<Integer, JsonNode>build());
+    }
+
+    /**
+     * Instantiates a new guava cache, the cache is the generation of the first
+     * database reader only, the next generations hold up to 16384 nodes.
+     *
+     * @param cache the cache of the first generation
+     * @deprecated a cache can not be shared by database readers, use
+     *             {@link #GuavaCache(CacheBuilder)} to configure every generation
+     */
+    @Deprecated
     public GuavaCache(Cache<Integer, JsonNode> cache){
-    	this.cache = cache;
+        this.builder = CacheBuilder.newBuilder().maximumSize(DEFAULT_CAPACITY).recordStats();
+        this.current = new Generation(this, cache);
+    }
+
+    /**
+     * Guava cache bounded by the approximate size in bytes of the cached nodes.
+     *
+     * @param maximumWeight the maximum weight in bytes
+     * @return the guava cache
+     */
+    public static GuavaCache weighted(long maximumWeight){
+        return new GuavaCache(CacheBuilder.newBuilder().maximumWeight(maximumWeight).weigher(WEIGHER));
     }
 
     /* (non-Javadoc)
@@ -63,12 +114,127 @@ public class GuavaCache implements NodeCache {
      */
     @Override
     public JsonNode get(int key, Loader loader) throws IOException {
-        Integer k = key;
-        JsonNode value = cache.getIfPresent(k);
-        if (value == null) {
-            value = loader.load(key);
+        return current.get(key, loader);
+    }
+
+    /**
+     * Builds a new generation for a new database reader, the current one is
+     * kept until it is activated.
+     *
+     * @return the node cache for the new database reader
+     */
+    public NodeCache nextGeneration(){
+        return new Generation(this, builder.<Integer, JsonNode>build());
+    }
+
+    /**
+     * Makes a generation the current one once its database is in use, the
+     * previous one is kept only by the readers already using it and its stats
+     * are added to the retired ones.
+     *
+     * @param generation the generation, built by {@link #nextGeneration()}
+     * @throws IllegalArgumentException when it is not a generation of this cache
+     */
+    public void activate(NodeCache generation) throws IllegalArgumentException {
+        if(!(generation instanceof Generation) || ((Generation) generation).owner!=this){
+            throw new IllegalArgumentException("not a generation of this cache");
+        }
+        synchronized (this) {
+            if(current!=generation){
+                retired = retired.plus(current.cache.stats());
+                current = (Generation) generation;
+            }
+        }
+    }
+
+    /**
+     * Stats, hit, miss and eviction counts of all the generations while they
+     * were current. Once a generation is retired by {@link #activate(NodeCache)}
+     * the lookups still in flight on its database reader are not counted.
+     *
+     * @return the cache stats
+     */
+    public CacheStats stats(){
+        synchronized (this) {
+            return retired.plus(current.cache.stats());
+        }
+    }
+
+    /**
+     * Number of nodes in the current generation.
+     *
+     * @return the long
+     */
+    public long size(){
+        return current.cache.size();
+    }
+
+    /**
+     * Approximate retained size of a node in bytes.
+     *
+     * @param node the node
+     * @return the long
+     */
+    static long weight(JsonNode node){
+        if(node==null){
+            return 0;
+        }
+        long weight = 16;
+        if(node.isTextual()){
+            weight += 40 + 2 * node.textValue().length();
+        }else if(node.isObject()){
+            weight += 48;
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while(fields.hasNext()){
+                Map.Entry<String, JsonNode> field = fields.next();
+                weight += 72 + 2 * field.getKey().length() + weight(field.getValue());
+            }
+        }else if(node.isArray()){
+            weight += 40;
+            for(JsonNode element : node){
+                weight += 8 + weight(element);
+            }
+        }else{
+            weight += 8;
+        }
+        return weight;
+    }
+
+    /**
+     * The node cache of a single database.
+     */
+    private static class Generation implements NodeCache {
+
+        /** The guava cache it belongs to. */
+        private final GuavaCache owner;
+
+        /** The cache. */
+        private final Cache<Integer, JsonNode> cache;
+
+        /**
+         * Instantiates a new generation.
+         *
+         * @param owner the guava cache it belongs to
+         * @param cache the cache
+         */
+        Generation(GuavaCache owner, Cache<Integer, JsonNode> cache){
+            this.owner = owner;
+            this.cache = cache;
+        }
+
+        /* (non-Javadoc)
+         * @see com.maxmind.db.NodeCache#get(int, com.maxmind.db.NodeCache.Loader)
+         */
+        @Override
+        public JsonNode get(int key, Loader loader) throws IOException {
+            Integer k = key;
+            JsonNode value = cache.getIfPresent(k);
+            if (value == null) {
+                value = loader.load(key);
+                cache.put(k, value);
+            }
+            return value;
         }
-        return value;
     }
 
 }
@@ -0,0 +1,371 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import io.gromit.geolite2.GeoLocationResult;
+
+/**
+ * The Class LocationCache.
+ *
+ * Caches enriched locations by network, all the addresses sharing the first
+ * ipv4Prefix (or ipv6Prefix) bits get the same result. A small per thread
+ * table is checked before the shared, bounded cache. The prefixes must not be
+ * shorter than the networks of the database or different locations inside the
+ * same block would be merged. By default every address is its own block
+ * (/32 and /128) so results are exact, coarser blocks such as /24 and /48
+ * trade accuracy for hits and must be asked for explicitly, GeoLite2-City has
+ * many networks longer than /24.
+ */
+public class LocationCache {
+
+	/** The Constant DEFAULT_CAPACITY. */
+	private static final int DEFAULT_CAPACITY = 65536;
+
+	/** The Constant LOCAL_SLOTS, must be a power of two. */
+	private static final int LOCAL_SLOTS = 256;
+
+	/** The ipv4 prefix. */
+	private final int ipv4Prefix;
+
+	/** The ipv6 prefix. */
+	private final int ipv6Prefix;
+
+	/** The shared cache. */
+	private final Cache<Network, Entry> cache;
+
+	/** The generation, increased on every invalidation. */
+	private volatile long generation;
+
+	/** The per thread table. */
+	private final ThreadLocal<Local> local = new ThreadLocal<Local>() {
+		@Override
+		protected Local initialValue() {
+			return new Local();
+		}
+	};
+
+	/**
+	 * Instantiates a new location cache keyed by the whole address, /32 ipv4
+	 * and /128 ipv6, which always returns the location of the same address.
+	 */
+	public LocationCache() {
+		this(DEFAULT_CAPACITY, 32, 128);
+	}
+
+	/**
+	 * Instantiates a new location cache.
+	 *
+	 * @param maximumSize the maximum number of networks in the shared cache
+	 * @param ipv4Prefix the ipv4 prefix length
+	 * @param ipv6Prefix the ipv6 prefix length
+	 */
+	public LocationCache(int maximumSize, int ipv4Prefix, int ipv6Prefix) {
+		if (ipv4Prefix < 0 || ipv4Prefix > 32 || ipv6Prefix < 0 || ipv6Prefix > 128) {
+			throw new IllegalArgumentException("invalid prefix length");
+		}
+		this.ipv4Prefix = ipv4Prefix;
+		this.ipv6Prefix = ipv6Prefix;
+		this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+	}
+
+	/**
+	 * Current generation, to be passed back on {@link #put}.
+	 *
+	 * @return the long
+	 */
+	public long generation() {
+		return generation;
+	}
+
+	/**
+	 * Gets the location of the network of the address.
+	 *
+	 * @param address the address as returned by InetAddress.getAddress()
+	 * @return the location or null
+	 */
+	public GeoLocationResult get(byte[] address) {
+		return get(address, 0, address.length);
+	}
+
+	/**
+	 * Gets the location of the network of the address.
+	 *
+	 * @param address the buffer holding the address
+	 * @param offset the offset of the address
+	 * @param length 4 or 16
+	 * @return the location or null
+	 */
+	public GeoLocationResult get(byte[] address, int offset, int length) {
+		long hi = high(address, offset, length);
+		long lo = low(address, offset, length);
+		int version = length;
+		long current = generation;
+		Local table = local.get();
+		int slot = slot(hi, lo);
+		if (table.generations[slot] == current && table.versions[slot] == version && table.his[slot] == hi
+				&& table.los[slot] == lo) {
+			return table.values[slot];
+		}
+		Entry entry = cache.getIfPresent(new Network(hi, lo, version));
+		if (entry == null || entry.generation != current) {
+			return null;
+		}
+		table.set(slot, hi, lo, version, current, entry.value);
+		return entry.value;
+	}
+
+	/**
+	 * Stores the location of the network of the address, ignored when the
+	 * cache was invalidated after the given generation.
+	 *
+	 * @param address the address
+	 * @param generation the generation read before the lookup
+	 * @param value the value
+	 */
+	public void put(byte[] address, long generation, GeoLocationResult value) {
+		put(address, 0, address.length, generation, value);
+	}
+
+	/**
+	 * Stores the location of the network of the address, ignored when the
+	 * cache was invalidated after the given generation.
+	 *
+	 * @param address the buffer holding the address
+	 * @param offset the offset of the address
+	 * @param length 4 or 16
+	 * @param generation the generation read before the lookup
+	 * @param value the value
+	 */
+	public void put(byte[] address, int offset, int length, long generation, GeoLocationResult value) {
+		if (generation != this.generation) {
+			return;
+		}
+		long hi = high(address, offset, length);
+		long lo = low(address, offset, length);
+		cache.put(new Network(hi, lo, length), new Entry(generation, value));
+		local.get().set(slot(hi, lo), hi, lo, length, generation, value);
+	}
+
+	/**
+	 * Invalidates all the entries, used when any dataset is reloaded.
+	 */
+	public void invalidateAll() {
+		synchronized (this) {
+			generation++;
+		}
+		cache.invalidateAll();
+	}
+
+	/**
+	 * Stats of the shared cache, hits on the per thread tables are not counted.
+	 *
+	 * @return the cache stats
+	 */
+	public CacheStats stats() {
+		return cache.stats();
+	}
+
+	/**
+	 * High 64 bits of the masked network, the whole ipv4 network for ipv4.
+	 *
+	 * @param address the address
+	 * @param offset the offset
+	 * @param length the length
+	 * @return the long
+	 */
+	private long high(byte[] address, int offset, int length) {
+		if (length == 4) {
+			return mask(bits(address, offset, 4), 32, ipv4Prefix);
+		}
+		return mask(bits(address, offset, 8), 64, ipv6Prefix);
+	}
+
+	/**
+	 * Low 64 bits of the masked network, always 0 for ipv4.
+	 *
+	 * @param address the address
+	 * @param offset the offset
+	 * @param length the length
+	 * @return the long
+	 */
+	private long low(byte[] address, int offset, int length) {
+		if (length == 4) {
+			return 0;
+		}
+		return mask(bits(address, offset + 8, 8), 64, ipv6Prefix - 64);
+	}
+
+	/**
+	 * Big endian bits of part of the address.
+	 *
+	 * @param address the address
+	 * @param offset the offset
+	 * @param length the length
+	 * @return the long
+	 */
+	private static long bits(byte[] address, int offset, int length) {
+		long bits = 0;
+		for (int i = offset; i < offset + length; i++) {
+			bits = (bits << 8) | (address[i] & 0xFF);
+		}
+		return bits;
+	}
+
+	/**
+	 * Keeps the first prefix bits of a value of the given width.
+	 *
+	 * @param bits the bits
+	 * @param width the width
+	 * @param prefix the prefix
+	 * @return the long
+	 */
+	private static long mask(long bits, int width, int prefix) {
+		if (prefix <= 0) {
+			return 0;
+		}
+		if (prefix >= width) {
+			return bits;
+		}
+		return bits & ~((1l << (width - prefix)) - 1);
+	}
+
+	/**
+	 * Slot in the per thread table.
+	 *
+	 * @param hi the hi
+	 * @param lo the lo
+	 * @return the int
+	 */
+	private static int slot(long hi, long lo) {
+		long hash = (hi ^ (lo * 31)) * 0x9E3779B97F4A7C15l;
+		return (int) (hash >>> 56) & (LOCAL_SLOTS - 1);
+	}
+
+	/**
+	 * Direct mapped per thread table.
+	 */
+	private static class Local {
+
+		/** The his. */
+		private final long[] his = new long[LOCAL_SLOTS];
+
+		/** The los. */
+		private final long[] los = new long[LOCAL_SLOTS];
+
+		/** The versions, address length or 0 when empty. */
+		private final int[] versions = new int[LOCAL_SLOTS];
+
+		/** The generations. */
+		private final long[] generations = new long[LOCAL_SLOTS];
+
+		/** The values. */
+		private final GeoLocationResult[] values = new GeoLocationResult[LOCAL_SLOTS];
+
+		/**
+		 * Sets a slot.
+		 *
+		 * @param slot the slot
+		 * @param hi the hi
+		 * @param lo the lo
+		 * @param version the version
+		 * @param generation the generation
+		 * @param value the value
+		 */
+		void set(int slot, long hi, long lo, int version, long generation, GeoLocationResult value) {
+			his[slot] = hi;
+			los[slot] = lo;
+			versions[slot] = version;
+			generations[slot] = generation;
+			values[slot] = value;
+		}
+	}
+
+	/**
+	 * Value of the shared cache, entries of older generations are ignored.
+	 */
+	private static final class Entry {
+
+		/** The generation. */
+		private final long generation;
+
+		/** The value. */
+		private final GeoLocationResult value;
+
+		/**
+		 * Instantiates a new entry.
+		 *
+		 * @param generation the generation
+		 * @param value the value
+		 */
+		Entry(long generation, GeoLocationResult value) {
+			this.generation = generation;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Key of the shared cache.
+	 */
+	private static final class Network {
+
+		/** The hi. */
+		private final long hi;
+
+		/** The lo. */
+		private final long lo;
+
+		/** The version. */
+		private final int version;
+
+		/**
+		 * Instantiates a new network.
+		 *
+		 * @param hi the hi
+		 * @param lo the lo
+		 * @param version the version
+		 */
+		Network(long hi, long lo, int version) {
+			this.hi = hi;
+			this.lo = lo;
+			this.version = version;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return (int) (hi ^ (hi >>> 32) ^ (lo * 31) ^ ((lo * 31) >>> 32)) + version;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Network)) {
+				return false;
+			}
+			Network other = (Network) obj;
+			return hi == other.hi && lo == other.lo && version == other.version;
+		}
+	}
+
+}
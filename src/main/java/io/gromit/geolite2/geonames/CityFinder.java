@@ -15,13 +15,12 @@
  */
 package io.gromit.geolite2.geonames;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -29,23 +28,35 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.github.davidmoten.rtree.Entry;
-import com.github.davidmoten.rtree.RTree;
-import com.github.davidmoten.rtree.geometry.Geometries;
-import com.github.davidmoten.rtree.geometry.Geometry;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
 import com.univocity.parsers.csv.CsvFormat;
 import com.univocity.parsers.csv.CsvParser;
 import com.univocity.parsers.csv.CsvParserSettings;
 
 import io.gromit.geolite2.LoaderListener;
+import io.gromit.geolite2.ReloadEvent;
 import io.gromit.geolite2.model.City;
-import rx.Observable;
+import io.gromit.geolite2.utils.ConditionalGet;
+import io.gromit.geolite2.utils.SnapshotStore;
 
 /**
  * The Class CityFinder.
  */
 public class CityFinder {
 
+	/**
+	 * The spatial index used to find the nearest city.
+	 */
+	public enum SpatialIndex {
+		
+		/** An R-tree packed with Sort-Tile-Recursive, nearest by planar distance in degrees. */
+		RTREE,
+		
+		/** A static kd-tree in flat arrays, nearest by great circle distance and without allocations. */
+		KD_TREE
+	}
+
 	/** The logger. */
 	private static Logger logger = LoggerFactory.getLogger(CityFinder.class);
 	
@@ -55,18 +66,31 @@ public class CityFinder {
 	/** The cities url. */
 	private String citiesUrl = "https://raw.githubusercontent.com/mmarmol/geonames/master/export/cities.zip";
 	
-	/** The crc. */
-	private Long crc = -2l;
+	/** The crc of the last cities read, -2 until then. */
+	private volatile Long crc = -2l;
 	
-	/** The rtree. */
-	private RTree<City,Geometry> rtree = RTree.create();
+	/** The md5 of the last cities read, decompressed. */
+	private volatile String digest;
 	
-	/** The geoname map. */
-	private Map<Integer, City> geonameMap = new HashMap<>();
+	/** The cities, replaced as a whole on every load. */
+	private volatile Cities cities = new Cities(new CityStore.Builder(false).build(),
+			new PackedRTree(new double[0], new double[0]), null);
+	
+	/** The spatial index. */
+	private SpatialIndex spatialIndex = SpatialIndex.RTREE;
+	
+	/** The names are kept as utf-8 bytes. */
+	private boolean packNames = false;
 	
 	/** The loader listener. */
 	private LoaderListener loaderListener = LoaderListener.DEFAULT;
 	
+	/** The snapshot store, null when downloads are not kept locally. */
+	private SnapshotStore snapshotStore;
+	
+	/** The conditional get of the urls read. */
+	private final ConditionalGet conditionalGet = new ConditionalGet();
+	
 	/**
 	 * Loader listener.
 	 *
@@ -78,6 +102,43 @@ public class CityFinder {
 		return this;
 	}
 	
+	/**
+	 * Snapshot store, every download is kept there and read from the local copy.
+	 *
+	 * @param snapshotStore the snapshot store
+	 * @return the city finder
+	 */
+	public CityFinder snapshotStore(SnapshotStore snapshotStore){
+		this.snapshotStore = snapshotStore;
+		return this;
+	}
+	
+	/**
+	 * Spatial index used by {@link #find(Double, Double)}, the kd-tree is
+	 * always built for the great circle queries, the RTree only when selected
+	 * so it must be set before reading the cities.
+	 *
+	 * @param spatialIndex the spatial index
+	 * @return the city finder
+	 */
+	public CityFinder spatialIndex(SpatialIndex spatialIndex){
+		this.spatialIndex = spatialIndex;
+		return this;
+	}
+	
+	/**
+	 * Pack names, keeps the city names as utf-8 bytes decoded every time a
+	 * city is returned, trading some cpu for about half of their memory. It
+	 * must be set before reading the cities.
+	 *
+	 * @param packNames the pack names
+	 * @return the city finder
+	 */
+	public CityFinder packNames(boolean packNames){
+		this.packNames = packNames;
+		return this;
+	}
+	
 	/**
 	 * Cities url.
 	 *
@@ -96,10 +157,7 @@ public class CityFinder {
 	 * @return the city
 	 */
 	public City find(Integer geonameId){
-		if(geonameId==null){
-			return null;
-		}
-		return geonameMap.get(geonameId);
+		return cities.find(geonameId);
 	}
 	
 	/**
@@ -110,18 +168,52 @@ public class CityFinder {
 	 * @return the city
 	 */
 	public City find(Double longitude, Double latitude){
-		if(longitude == null || latitude == null){
-			return null;
-		}
-		Observable<Entry<City, Geometry>> result =  this.rtree.nearest(Geometries.pointGeographic(longitude, latitude), 10000, 1);
-		if(result==null){
-			return null;
-		}
-		try{
-			return result.toBlocking().single().value();
-		}catch(NoSuchElementException e){
-			return null;
-		}
+		return cities.find(longitude, latitude);
+	}
+	
+	/**
+	 * Finds the nearest cities by great circle distance, closest first.
+	 *
+	 * @param latitude the latitude
+	 * @param longitude the longitude
+	 * @param k the maximum number of cities
+	 * @param maxKm the maximum distance in km
+	 * @return the cities
+	 */
+	public List<City> findNearest(double latitude, double longitude, int k, double maxKm){
+		return cities.findNearest(latitude, longitude, k, maxKm);
+	}
+	
+	/**
+	 * Finds the cities within a great circle distance, closest first.
+	 *
+	 * @param latitude the latitude
+	 * @param longitude the longitude
+	 * @param radiusKm the radius in km
+	 * @return the cities
+	 */
+	public List<City> findWithin(double latitude, double longitude, double radiusKm){
+		return cities.findWithin(latitude, longitude, radiusKm);
+	}
+	
+	/**
+	 * Current cities.
+	 *
+	 * @return the cities
+	 */
+	public Cities cities(){
+		return cities;
+	}
+	
+	/**
+	 * Publishes loaded cities.
+	 *
+	 * @param cities the cities
+	 * @return the city finder
+	 */
+	public CityFinder publish(Cities cities){
+		this.cities = cities;
+		return this;
 	}
 	
 	/**
@@ -130,26 +222,36 @@ public class CityFinder {
 	 * @return the city finder
 	 */
 	public CityFinder readCities(){
+		return publish(loadCities());
+	}
+	
+	/**
+	 * Loads the cities without publishing them.
+	 *
+	 * @return the new cities, or the current ones when they could not be read
+	 */
+	public Cities loadCities(){
 		try{
-			readCities(citiesUrl);
+			Cities loaded = loadCities(citiesUrl);
 			loaderListener.success(citiesUrl);
+			return loaded;
 		}catch(Exception e){
 			loaderListener.failure(citiesUrl, e);
 			logger.error("error loading from remote",e);
 			if(StringUtils.isNotBlank(System.getProperty(CITY_FAIL_SAFE_URL))){
-				readCities(System.getProperty(CITY_FAIL_SAFE_URL));
+				return loadCities(System.getProperty(CITY_FAIL_SAFE_URL));
 			}
 		}
-		return this;
+		return cities;
 	}
 	
 	/**
-	 * Read cities.
+	 * Load cities.
 	 *
 	 * @param citiesLocationUrl the cities location url
-	 * @return the city finder
+	 * @return the cities
 	 */
-	private CityFinder readCities(String citiesLocationUrl){
+	private Cities loadCities(String citiesLocationUrl){
 		logger.info("READING cities database at url {}", citiesLocationUrl);
 		ZipInputStream zipis = null;
 		CsvParserSettings settings = new CsvParserSettings();
@@ -163,41 +265,279 @@ public class CityFinder {
 		format.setQuote('\0');
 		settings.setFormat(format);
 		CsvParser parser = new CsvParser(settings);
+		ReloadEvent.Recorder event = ReloadEvent.record(ReloadEvent.Dataset.CITIES, citiesLocationUrl);
 		try {
-			zipis = new ZipInputStream(new URL(citiesLocationUrl).openStream(), Charset.forName("UTF-8"));
+			ConditionalGet.Response response = open(citiesLocationUrl);
+			if(response==null){
+				logger.info("skipp, not modified");
+				event.skipped();
+				return cities;
+			}
+			zipis = new ZipInputStream(event.download(response.getInputStream()), Charset.forName("UTF-8"));
 			ZipEntry zipEntry = zipis.getNextEntry();
 			logger.info("reading "+zipEntry.getName());
-			if(crc==zipEntry.getCrc()){
+			if(zipEntry.getCrc()!=-1 && crc==zipEntry.getCrc()){
 				logger.info("skipp, same CRC");
-				return this;
+				event.skipped();
+				response.commit();
+				return cities;
 			}
-			RTree<City,Geometry> rtreeRead = RTree.create();
-			List<String[]> lines = parser.parseAll(new InputStreamReader(zipis, "UTF-8"));
-			for(String[] entry : lines){
-				City city = new City();
-				city.setGeonameId(Integer.decode(entry[0]));
-				city.setName(entry[1]);
+			CityStore.Builder builder = new CityStore.Builder(packNames);
+			HashingInputStream hashing = new HashingInputStream(Hashing.md5(), zipis);
+			parser.beginParsing(new InputStreamReader(hashing, "UTF-8"));
+			String[] entry;
+			int count = 0;
+			while((entry=parser.parseNext())!=null){
+				count++;
+				int geonameId = Integer.decode(entry[0]);
+				String name = entry[1];
+				Double latitude = null;
+				Double longitude = null;
+				String countryIsoCode = null;
+				String subdivisionOne = null;
+				String subdivisionTwo = null;
+				String timeZone = null;
 				try{
 					try{
-						city.setLatitude(Double.valueOf(entry[2]));
-						city.setLongitude(Double.valueOf(entry[3]));
-						rtreeRead = rtreeRead.add(city, Geometries.pointGeographic(city.getLongitude(), city.getLatitude()));
+						latitude = Double.valueOf(entry[2]);
+						longitude = Double.valueOf(entry[3]);
 					}catch(NumberFormatException | NullPointerException e){}
-					city.setCountryIsoCode(entry[4]);
-					city.setSubdivisionOne(entry[5]);
-					city.setSubdivisionTwo(entry[6]);
-					city.setTimeZone(entry[7]);
+					countryIsoCode = entry[4];
+					subdivisionOne = entry[5];
+					subdivisionTwo = entry[6];
+					timeZone = entry[7];
 				}catch(ArrayIndexOutOfBoundsException e){}
-				geonameMap.put(city.getGeonameId(), city);	
+				builder.add(geonameId, name, latitude, longitude, countryIsoCode, subdivisionOne, subdivisionTwo, timeZone);
 			}
-			this.rtree = rtreeRead;
-			logger.info("loaded "+geonameMap.size()+" cities");
+			event.parsed(count);
+			String read = hashing.hash().toString();
+			crc = zipEntry.getCrc();
+			if(read.equals(digest)){
+				logger.info("skipp, same digest");
+				event.skipped();
+				response.commit();
+				return cities;
+			}
+			CityStore store = builder.build();
+			logger.info("loaded "+store.distinct()+" cities");
+			double[] latitudes = store.locatedLatitudes();
+			double[] longitudes = store.locatedLongitudes();
+			Cities loaded = spatialIndex==SpatialIndex.RTREE ? new Cities(store, new PackedRTree(latitudes, longitudes), null)
+					: new Cities(store, null, new KdTree(latitudes, longitudes));
+			event.indexed();
+			digest = read;
+			response.commit();
+			return loaded;
 		} catch (Exception e) {
+			event.failed(e);
 			logger.error(e.getMessage(),e);
 		}finally {
 			try{zipis.close();}catch(Exception e){};
+			loaderListener.reload(event.finish());
+		}
+		return cities;
+	}
+	
+	/**
+	 * Reads the latest local snapshot of the cities, without any remote call.
+	 *
+	 * @return true, if there was a snapshot to read
+	 */
+	public boolean readSnapshot(){
+		File snapshot = snapshotStore==null ? null : snapshotStore.latest(citiesUrl);
+		if(snapshot==null){
+			return false;
+		}
+		publish(loadCities(snapshot.toURI().toString()));
+		return true;
+	}
+	
+	/**
+	 * Opens the url, through the snapshot store when there is one, and
+	 * conditional on the last response read from it.
+	 *
+	 * @param url the url
+	 * @return the response or null when it was not modified
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private ConditionalGet.Response open(String url) throws IOException{
+		return conditionalGet.open(url, snapshotStore);
+	}
+	
+	/**
+	 * Loaded cities with their indexes, never modified once built. Cities are
+	 * kept in columns and every lookup returns a new copy of its row. Only the
+	 * selected index is built up front, with the rtree the kd-tree is built on
+	 * the first k nearest or radius query.
+	 */
+	public static final class Cities {
+		
+		/** The store. */
+		private final CityStore store;
+		
+		/** The rtree, null when the kd-tree finds the nearest city. */
+		private final PackedRTree rtree;
+		
+		/** The kd tree, null until it is needed when there is an rtree. */
+		private volatile KdTree kdTree;
+		
+		/**
+		 * Instantiates new cities.
+		 *
+		 * @param store the store
+		 * @param rtree the rtree, null to find the nearest city with the kd tree
+		 * @param kdTree the kd tree, may be null when there is an rtree
+		 */
+		Cities(CityStore store, PackedRTree rtree, KdTree kdTree){
+			this.store = store;
+			this.rtree = rtree;
+			this.kdTree = kdTree;
+		}
+		
+		/**
+		 * Size.
+		 *
+		 * @return the number of cities
+		 */
+		public int size(){
+			return store.distinct();
+		}
+		
+		/**
+		 * Rows.
+		 *
+		 * @return the number of rows, every city of the file has one
+		 */
+		public int rows(){
+			return store.size();
+		}
+		
+		/**
+		 * City of a row.
+		 *
+		 * @param row the row
+		 * @return a new copy of the city, null when the row is -1
+		 */
+		public City city(int row){
+			return row<0 ? null : store.city(row);
+		}
+		
+		/**
+		 * Groups the rows sharing the same country, subdivisions and time
+		 * zone, so what they refer to is resolved once per group.
+		 *
+		 * @param groups receives the group of every row, rows() long
+		 * @return the first row of every group
+		 */
+		public int[] group(int[] groups){
+			return store.group(groups);
+		}
+		
+		/**
+		 * Row of a city.
+		 *
+		 * @param geonameId the geoname id
+		 * @return the row or -1 when there is none
+		 */
+		public int row(Integer geonameId){
+			return geonameId==null ? -1 : store.row(geonameId);
+		}
+		
+		/**
+		 * Row of the nearest city.
+		 *
+		 * @param longitude the longitude
+		 * @param latitude the latitude
+		 * @return the row or -1 when there is none
+		 */
+		public int nearestRow(Double longitude, Double latitude){
+			if(longitude == null || latitude == null){
+				return -1;
+			}
+			if(rtree==null){
+				return kdTree.nearest(latitude, longitude);
+			}
+			return rtree.nearest(latitude, longitude);
+		}
+		
+		/**
+		 * Find.
+		 *
+		 * @param geonameId the geoname id
+		 * @return the city
+		 */
+		public City find(Integer geonameId){
+			return city(row(geonameId));
+		}
+		
+		/**
+		 * Find the nearest city.
+		 *
+		 * @param longitude the longitude
+		 * @param latitude the latitude
+		 * @return the city
+		 */
+		public City find(Double longitude, Double latitude){
+			return city(nearestRow(longitude, latitude));
+		}
+		
+		/**
+		 * Finds the nearest cities by great circle distance, closest first.
+		 *
+		 * @param latitude the latitude
+		 * @param longitude the longitude
+		 * @param k the maximum number of cities
+		 * @param maxKm the maximum distance in km
+		 * @return the cities
+		 */
+		public List<City> findNearest(double latitude, double longitude, int k, double maxKm){
+			return cities(kdTree().nearest(latitude, longitude, k, maxKm));
+		}
+		
+		/**
+		 * Finds the cities within a great circle distance, closest first.
+		 *
+		 * @param latitude the latitude
+		 * @param longitude the longitude
+		 * @param radiusKm the radius in km
+		 * @return the cities
+		 */
+		public List<City> findWithin(double latitude, double longitude, double radiusKm){
+			return cities(kdTree().within(latitude, longitude, radiusKm));
+		}
+		
+		/**
+		 * Kd tree, built on first use.
+		 *
+		 * @return the kd tree
+		 */
+		private KdTree kdTree(){
+			KdTree tree = kdTree;
+			if(tree==null){
+				synchronized(this){
+					tree = kdTree;
+					if(tree==null){
+						tree = new KdTree(store.locatedLatitudes(), store.locatedLongitudes());
+						kdTree = tree;
+					}
+				}
+			}
+			return tree;
+		}
+		
+		/**
+		 * Cities of some rows.
+		 *
+		 * @param rows the rows
+		 * @return the cities
+		 */
+		private List<City> cities(int[] rows){
+			List<City> cities = new ArrayList<>(rows.length);
+			for(int row : rows){
+				cities.add(store.city(row));
+			}
+			return cities;
 		}
-		return this;
 	}
 	
 }
@@ -0,0 +1,548 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2.geonames;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.gromit.geolite2.model.City;
+import io.gromit.geolite2.utils.StringPool;
+
+/**
+ * The Class CityStore.
+ *
+ * The cities kept in columns instead of objects: ids, coordinates in fixed
+ * point and indexes into a table of the codes they share, with the names as
+ * strings or as packed utf-8 bytes. The rows with coordinates go first,
+ * ordered along a Hilbert curve so cities close on the map are close in
+ * memory, then the others in file order. A {@link City} is only built as a
+ * copy of a row when it is asked for.
+ */
+final class CityStore {
+
+	/** The Constant SCALE, fixed point units per degree. */
+	static final double SCALE = 1e7;
+
+	/** The Constant MISSING, fixed point of a missing coordinate. */
+	static final int MISSING = Integer.MIN_VALUE;
+
+	/** The Constant HILBERT_ORDER, bits per axis of the curve. */
+	private static final int HILBERT_ORDER = 16;
+
+	/** The ids. */
+	private final int[] ids;
+
+	/** The latitudes, in fixed point. */
+	private final int[] latitudes;
+
+	/** The longitudes, in fixed point. */
+	private final int[] longitudes;
+
+	/** The number of rows with coordinates, they are the first ones. */
+	private final int located;
+
+	/** The names, null when they are packed. */
+	private final String[] names;
+
+	/** The packed names, utf-8 bytes one after the other, null when they are not packed. */
+	private final byte[] nameBytes;
+
+	/** The start of every packed name, its complement when the name is null, and the end of the last one. */
+	private final int[] nameOffsets;
+
+	/** The codes, the first one is null. */
+	private final String[] codes;
+
+	/** The country iso codes, indexes of the codes. */
+	private final int[] countries;
+
+	/** The subdivision one codes, indexes of the codes. */
+	private final int[] subdivisionOnes;
+
+	/** The subdivision two codes, indexes of the codes. */
+	private final int[] subdivisionTwos;
+
+	/** The time zones, indexes of the codes. */
+	private final int[] timeZones;
+
+	/** The open addressing index by id, every slot holds its row plus one, 0 when empty. */
+	private final int[] slots;
+
+	/** The number of distinct ids. */
+	private final int distinct;
+
+	/**
+	 * Instantiates a new city store from the rows of a builder.
+	 *
+	 * @param builder the builder
+	 * @param order the row of the builder at every position
+	 * @param located the number of rows with coordinates
+	 */
+	private CityStore(Builder builder, int[] order, int located) {
+		int size = order.length;
+		this.located = located;
+		this.ids = new int[size];
+		this.latitudes = new int[size];
+		this.longitudes = new int[size];
+		this.countries = new int[size];
+		this.subdivisionOnes = new int[size];
+		this.subdivisionTwos = new int[size];
+		this.timeZones = new int[size];
+		String[] names = new String[size];
+		int[] positions = new int[size];
+		for (int row = 0; row < size; row++) {
+			int from = order[row];
+			positions[from] = row;
+			ids[row] = builder.ids[from];
+			latitudes[row] = builder.latitudes[from];
+			longitudes[row] = builder.longitudes[from];
+			countries[row] = builder.countries[from];
+			subdivisionOnes[row] = builder.subdivisionOnes[from];
+			subdivisionTwos[row] = builder.subdivisionTwos[from];
+			timeZones[row] = builder.timeZones[from];
+			names[row] = builder.names[from];
+		}
+		if (builder.packNames) {
+			byte[][] bytes = new byte[size][];
+			int length = 0;
+			for (int row = 0; row < size; row++) {
+				if (names[row] != null) {
+					bytes[row] = names[row].getBytes(StandardCharsets.UTF_8);
+					length += bytes[row].length;
+				}
+			}
+			this.names = null;
+			this.nameBytes = new byte[length];
+			this.nameOffsets = new int[size + 1];
+			int offset = 0;
+			for (int row = 0; row < size; row++) {
+				if (bytes[row] == null) {
+					nameOffsets[row] = ~offset;
+				} else {
+					nameOffsets[row] = offset;
+					System.arraycopy(bytes[row], 0, nameBytes, offset, bytes[row].length);
+					offset += bytes[row].length;
+				}
+			}
+			nameOffsets[size] = offset;
+		} else {
+			this.names = names;
+			this.nameBytes = null;
+			this.nameOffsets = null;
+		}
+		this.codes = builder.codes.toArray(new String[builder.codes.size()]);
+		int capacity = 2;
+		while (capacity < size * 2) {
+			capacity <<= 1;
+		}
+		this.slots = new int[capacity];
+		int distinct = 0;
+		for (int from = 0; from < size; from++) {
+			int row = positions[from];
+			int slot = slot(ids[row]);
+			if (slots[slot] == 0) {
+				distinct++;
+			}
+			slots[slot] = row + 1;
+		}
+		this.distinct = distinct;
+	}
+
+	/**
+	 * Size.
+	 *
+	 * @return the number of rows
+	 */
+	int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Distinct.
+	 *
+	 * @return the number of distinct ids
+	 */
+	int distinct() {
+		return distinct;
+	}
+
+	/**
+	 * Located.
+	 *
+	 * @return the number of rows with coordinates, they are the first ones
+	 */
+	int located() {
+		return located;
+	}
+
+	/**
+	 * Row of an id, the last one of the file when it is repeated.
+	 *
+	 * @param id the id
+	 * @return the row or -1 when there is none
+	 */
+	int row(int id) {
+		return slots[slot(id)] - 1;
+	}
+
+	/**
+	 * Slot of an id, the one holding it or the empty one where it goes.
+	 *
+	 * @param id the id
+	 * @return the slot
+	 */
+	private int slot(int id) {
+		int mask = slots.length - 1;
+		int hash = id * 0x9E3779B9;
+		int slot = (hash ^ hash >>> 16) & mask;
+		while (slots[slot] != 0 && ids[slots[slot] - 1] != id) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Latitudes of the rows with coordinates.
+	 *
+	 * @return the latitudes in degrees
+	 */
+	double[] locatedLatitudes() {
+		return degrees(latitudes);
+	}
+
+	/**
+	 * Longitudes of the rows with coordinates.
+	 *
+	 * @return the longitudes in degrees
+	 */
+	double[] locatedLongitudes() {
+		return degrees(longitudes);
+	}
+
+	/**
+	 * Degrees of the first fixed point values.
+	 *
+	 * @param values the values
+	 * @return the degrees of the rows with coordinates
+	 */
+	private double[] degrees(int[] values) {
+		double[] degrees = new double[located];
+		for (int row = 0; row < located; row++) {
+			degrees[row] = values[row] / SCALE;
+		}
+		return degrees;
+	}
+
+	/**
+	 * City of a row, a new copy on every call.
+	 *
+	 * @param row the row
+	 * @return the city
+	 */
+	City city(int row) {
+		City city = new City();
+		city.setGeonameId(ids[row]);
+		city.setName(name(row));
+		if (latitudes[row] != MISSING) {
+			city.setLatitude(latitudes[row] / SCALE);
+		}
+		if (longitudes[row] != MISSING) {
+			city.setLongitude(longitudes[row] / SCALE);
+		}
+		city.setCountryIsoCode(codes[countries[row]]);
+		city.setSubdivisionOne(codes[subdivisionOnes[row]]);
+		city.setSubdivisionTwo(codes[subdivisionTwos[row]]);
+		city.setTimeZone(codes[timeZones[row]]);
+		return city;
+	}
+
+	/**
+	 * Groups the rows sharing the same country, subdivision and time zone
+	 * codes, without building any city.
+	 *
+	 * @param groups receives the group of every row
+	 * @return the first row of every group
+	 */
+	int[] group(int[] groups) {
+		int size = ids.length;
+		int capacity = 2;
+		while (capacity < size * 2) {
+			capacity <<= 1;
+		}
+		int mask = capacity - 1;
+		int[] slots = new int[capacity];
+		int[] firsts = new int[16];
+		int count = 0;
+		for (int row = 0; row < size; row++) {
+			int hash = ((countries[row] * 31 + subdivisionOnes[row]) * 31 + subdivisionTwos[row]) * 31 + timeZones[row];
+			hash *= 0x9E3779B9;
+			int slot = (hash ^ hash >>> 16) & mask;
+			int group;
+			while ((group = slots[slot] - 1) >= 0 && !sameCodes(firsts[group], row)) {
+				slot = (slot + 1) & mask;
+			}
+			if (group < 0) {
+				if (count == firsts.length) {
+					firsts = Arrays.copyOf(firsts, count * 2);
+				}
+				firsts[count] = row;
+				group = count++;
+				slots[slot] = group + 1;
+			}
+			groups[row] = group;
+		}
+		return Arrays.copyOf(firsts, count);
+	}
+
+	/**
+	 * Checks if two rows have the same country, subdivision and time zone
+	 * codes.
+	 *
+	 * @param one a row
+	 * @param other another row
+	 * @return true, if they are the same
+	 */
+	private boolean sameCodes(int one, int other) {
+		return countries[one] == countries[other] && subdivisionOnes[one] == subdivisionOnes[other]
+				&& subdivisionTwos[one] == subdivisionTwos[other] && timeZones[one] == timeZones[other];
+	}
+
+	/**
+	 * Name of a row.
+	 *
+	 * @param row the row
+	 * @return the name
+	 */
+	private String name(int row) {
+		if (names != null) {
+			return names[row];
+		}
+		int start = nameOffsets[row];
+		if (start < 0) {
+			return null;
+		}
+		int end = nameOffsets[row + 1];
+		if (end < 0) {
+			end = ~end;
+		}
+		return new String(nameBytes, start, end - start, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Fixed point of a coordinate.
+	 *
+	 * @param degrees the degrees, may be null
+	 * @return the fixed point, {@link #MISSING} when null or out of range
+	 */
+	static int fixed(Double degrees) {
+		if (degrees == null) {
+			return MISSING;
+		}
+		double scaled = degrees * SCALE;
+		if (!(Math.abs(scaled) < Integer.MAX_VALUE)) {
+			return MISSING;
+		}
+		return (int) Math.round(scaled);
+	}
+
+	/**
+	 * Distance along a Hilbert curve covering the whole map.
+	 *
+	 * @param latitude the latitude, in fixed point
+	 * @param longitude the longitude, in fixed point
+	 * @return the distance
+	 */
+	static long hilbert(int latitude, int longitude) {
+		int side = 1 << HILBERT_ORDER;
+		int x = cell(longitude / SCALE + 180, 360, side);
+		int y = cell(latitude / SCALE + 90, 180, side);
+		long distance = 0;
+		for (int s = side >>> 1; s > 0; s >>>= 1) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			distance += (long) s * s * ((3 * rx) ^ ry);
+			if (ry == 0) {
+				if (rx == 1) {
+					x = side - 1 - x;
+					y = side - 1 - y;
+				}
+				int swap = x;
+				x = y;
+				y = swap;
+			}
+		}
+		return distance;
+	}
+
+	/**
+	 * Cell of a value on a grid axis.
+	 *
+	 * @param value the value
+	 * @param range the range of the axis
+	 * @param side the cells of the axis
+	 * @return the cell
+	 */
+	private static int cell(double value, double range, int side) {
+		int cell = (int) (value / range * side);
+		return cell < 0 ? 0 : cell >= side ? side - 1 : cell;
+	}
+
+	/**
+	 * Collects the rows of the cities in file order.
+	 */
+	static final class Builder {
+
+		/** The names are packed. */
+		private final boolean packNames;
+
+		/** The pool of the names. */
+		private final StringPool pool = new StringPool();
+
+		/** The codes, the first one is null. */
+		private final List<String> codes = new ArrayList<>();
+
+		/** The indexes of the codes. */
+		private final Map<String, Integer> codeIndexes = new HashMap<>();
+
+		/** The number of rows. */
+		private int size;
+
+		/** The ids. */
+		private int[] ids = new int[1024];
+
+		/** The latitudes. */
+		private int[] latitudes = new int[1024];
+
+		/** The longitudes. */
+		private int[] longitudes = new int[1024];
+
+		/** The names. */
+		private String[] names = new String[1024];
+
+		/** The countries. */
+		private int[] countries = new int[1024];
+
+		/** The subdivision ones. */
+		private int[] subdivisionOnes = new int[1024];
+
+		/** The subdivision twos. */
+		private int[] subdivisionTwos = new int[1024];
+
+		/** The time zones. */
+		private int[] timeZones = new int[1024];
+
+		/**
+		 * Instantiates a new builder.
+		 *
+		 * @param packNames the names are packed
+		 */
+		Builder(boolean packNames) {
+			this.packNames = packNames;
+			codes.add(null);
+		}
+
+		/**
+		 * Adds a city.
+		 *
+		 * @param id the id
+		 * @param name the name
+		 * @param latitude the latitude, may be null
+		 * @param longitude the longitude, may be null
+		 * @param countryIsoCode the country iso code
+		 * @param subdivisionOne the subdivision one
+		 * @param subdivisionTwo the subdivision two
+		 * @param timeZone the time zone
+		 * @return the builder
+		 */
+		Builder add(int id, String name, Double latitude, Double longitude, String countryIsoCode,
+				String subdivisionOne, String subdivisionTwo, String timeZone) {
+			if (size == ids.length) {
+				int capacity = size * 2;
+				ids = Arrays.copyOf(ids, capacity);
+				latitudes = Arrays.copyOf(latitudes, capacity);
+				longitudes = Arrays.copyOf(longitudes, capacity);
+				names = Arrays.copyOf(names, capacity);
+				countries = Arrays.copyOf(countries, capacity);
+				subdivisionOnes = Arrays.copyOf(subdivisionOnes, capacity);
+				subdivisionTwos = Arrays.copyOf(subdivisionTwos, capacity);
+				timeZones = Arrays.copyOf(timeZones, capacity);
+			}
+			ids[size] = id;
+			latitudes[size] = fixed(latitude);
+			longitudes[size] = fixed(longitude);
+			names[size] = pool.pool(name);
+			countries[size] = code(countryIsoCode);
+			subdivisionOnes[size] = code(subdivisionOne);
+			subdivisionTwos[size] = code(subdivisionTwo);
+			timeZones[size] = code(timeZone);
+			size++;
+			return this;
+		}
+
+		/**
+		 * Index of a code, added when it is new.
+		 *
+		 * @param code the code
+		 * @return the index
+		 */
+		private int code(String code) {
+			if (code == null) {
+				return 0;
+			}
+			Integer index = codeIndexes.get(code);
+			if (index == null) {
+				index = codes.size();
+				codes.add(code);
+				codeIndexes.put(code, index);
+			}
+			return index;
+		}
+
+		/**
+		 * Builds the store.
+		 *
+		 * @return the city store
+		 */
+		CityStore build() {
+			int located = 0;
+			for (int i = 0; i < size; i++) {
+				if (latitudes[i] != MISSING && longitudes[i] != MISSING) {
+					located++;
+				}
+			}
+			long[] keys = new long[located];
+			int[] order = new int[size];
+			int next = located;
+			for (int i = 0, k = 0; i < size; i++) {
+				if (latitudes[i] != MISSING && longitudes[i] != MISSING) {
+					keys[k++] = hilbert(latitudes[i], longitudes[i]) << 31 | i;
+				} else {
+					order[next++] = i;
+				}
+			}
+			Arrays.sort(keys);
+			for (int i = 0; i < located; i++) {
+				order[i] = (int) (keys[i] & Integer.MAX_VALUE);
+			}
+			return new CityStore(this, order, located);
+		}
+	}
+
+}
@@ -15,6 +15,8 @@
  */
 package io.gromit.geolite2.geonames;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -56,4 +58,13 @@ public class ContinentFinder {
 		return isoMap.get(iso);
 	}
 	
+	/**
+	 * All the continents.
+	 *
+	 * @return the continents
+	 */
+	public Collection<Continent> all(){
+		return Collections.unmodifiableCollection(isoMap.values());
+	}
+	
 }
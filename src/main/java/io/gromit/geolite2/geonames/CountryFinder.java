@@ -15,11 +15,13 @@
  */
 package io.gromit.geolite2.geonames;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -29,12 +31,18 @@ import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
 import com.univocity.parsers.csv.CsvFormat;
 import com.univocity.parsers.csv.CsvParser;
 import com.univocity.parsers.csv.CsvParserSettings;
 
 import io.gromit.geolite2.LoaderListener;
+import io.gromit.geolite2.ReloadEvent;
 import io.gromit.geolite2.model.Country;
+import io.gromit.geolite2.utils.ConditionalGet;
+import io.gromit.geolite2.utils.SnapshotStore;
+import io.gromit.geolite2.utils.StringPool;
 
 /**
  * The Class CountryFinder.
@@ -50,18 +58,24 @@ public class CountryFinder {
 	/** The countries url. */
 	private String countriesUrl = "https://raw.githubusercontent.com/mmarmol/geonames/master/export/countries.zip";
 
-	/** The crc. */
-	private Long crc = -2l;
+	/** The crc of the last countries read, -2 until then. */
+	private volatile Long crc = -2l;
 	
-	/** The geoname map. */
-	private Map<Integer, Country> geonameMap = new HashMap<>();
+	/** The md5 of the last countries read, decompressed. */
+	private volatile String digest;
 	
-	/** The iso map. */
-	private Map<String, Country> isoMap = new HashMap<>();
+	/** The countries, replaced as a whole on every load. */
+	private volatile Countries countries = new Countries(new HashMap<Integer, Country>(), new HashMap<String, Country>());
 	
 	/** The loader listener. */
 	private LoaderListener loaderListener = LoaderListener.DEFAULT;
 	
+	/** The snapshot store, null when downloads are not kept locally. */
+	private SnapshotStore snapshotStore;
+	
+	/** The conditional get of the urls read. */
+	private final ConditionalGet conditionalGet = new ConditionalGet();
+	
 	/**
 	 * Loader listener.
 	 *
@@ -73,6 +87,17 @@ public class CountryFinder {
 		return this;
 	}
 	
+	/**
+	 * Snapshot store, every download is kept there and read from the local copy.
+	 *
+	 * @param snapshotStore the snapshot store
+	 * @return the country finder
+	 */
+	public CountryFinder snapshotStore(SnapshotStore snapshotStore){
+		this.snapshotStore = snapshotStore;
+		return this;
+	}
+	
 	/**
 	 * Countries url.
 	 *
@@ -91,10 +116,7 @@ public class CountryFinder {
 	 * @return the country
 	 */
 	public Country find(Integer geonameId){
-		if(geonameId==null){
-			return null;
-		}
-		return geonameMap.get(geonameId);
+		return countries.find(geonameId);
 	}
 	
 	/**
@@ -104,10 +126,27 @@ public class CountryFinder {
 	 * @return the country
 	 */
 	public Country find(String iso){
-		if(StringUtils.isBlank(iso)){
-			return null;
-		}
-		return isoMap.get(iso.trim().toUpperCase());
+		return countries.find(iso);
+	}
+	
+	/**
+	 * Current countries.
+	 *
+	 * @return the countries
+	 */
+	public Countries countries(){
+		return countries;
+	}
+	
+	/**
+	 * Publishes loaded countries.
+	 *
+	 * @param countries the countries
+	 * @return the country finder
+	 */
+	public CountryFinder publish(Countries countries){
+		this.countries = countries;
+		return this;
 	}
 	
 	/**
@@ -116,35 +155,54 @@ public class CountryFinder {
 	 * @return the country finder
 	 */
 	public CountryFinder readCountries(){
+		return publish(loadCountries());
+	}
+	
+	/**
+	 * Loads the countries without publishing them.
+	 *
+	 * @return the new countries, or the current ones when they could not be read
+	 */
+	public Countries loadCountries(){
 		try{
-			readCountries(countriesUrl);
+			Countries loaded = loadCountries(countriesUrl);
 			loaderListener.success(countriesUrl);
+			return loaded;
 		}catch(Exception e){
 			loaderListener.failure(countriesUrl, e);
 			logger.error("error loading from remote",e);
 			if(StringUtils.isNotBlank(System.getProperty(COUNTRY_FAIL_SAFE_URL))){
-				readCountries(System.getProperty(COUNTRY_FAIL_SAFE_URL));
+				return loadCountries(System.getProperty(COUNTRY_FAIL_SAFE_URL));
 			}
 		}
-		return this;
+		return countries;
 	}
 	
 	/**
-	 * Read countries.
+	 * Load countries.
 	 *
 	 * @param countriesLocationUrl the countries location url
-	 * @return the country finder
+	 * @return the countries
 	 */
-	private CountryFinder readCountries(String countriesLocationUrl){
+	private Countries loadCountries(String countriesLocationUrl){
 		ZipInputStream zipis = null;
+		ReloadEvent.Recorder event = ReloadEvent.record(ReloadEvent.Dataset.COUNTRIES, countriesLocationUrl);
 		try {
 			logger.info("READING countries database at url {}", countriesLocationUrl);
-			zipis = new ZipInputStream(new URL(countriesLocationUrl).openStream(), Charset.forName("UTF-8"));
+			ConditionalGet.Response response = open(countriesLocationUrl);
+			if(response==null){
+				logger.info("skipp, not modified");
+				event.skipped();
+				return countries;
+			}
+			zipis = new ZipInputStream(event.download(response.getInputStream()), Charset.forName("UTF-8"));
 			ZipEntry zipEntry = zipis.getNextEntry();
 			logger.info("reading "+zipEntry.getName());
-			if(crc==zipEntry.getCrc()){
+			if(zipEntry.getCrc()!=-1 && crc==zipEntry.getCrc()){
 				logger.info("skipp, same CRC");
-				return this;
+				event.skipped();
+				response.commit();
+				return countries;
 			}
 		
 			CsvParserSettings settings = new CsvParserSettings();
@@ -158,30 +216,131 @@ public class CountryFinder {
 			settings.setFormat(format);
 			CsvParser parser = new CsvParser(settings);
 			
-			List<String[]> lines = parser.parseAll(new InputStreamReader(zipis, "UTF-8"));
+			Map<Integer, Country> geonameMap = new HashMap<>();
+			Map<String, Country> isoMap = new HashMap<>();
+			HashingInputStream hashing = new HashingInputStream(Hashing.md5(), zipis);
+			parser.beginParsing(new InputStreamReader(hashing, "UTF-8"));
 			
-			for(String[] entry : lines){
+			String[] entry;
+			StringPool pool = new StringPool();
+			while((entry=parser.parseNext())!=null){
 				Country country = new Country();
 				country.setIso(entry[0]);
 				country.setIso3(entry[1]);
 				country.setName(entry[2]);
 				country.setCapital(entry[3]);
-				country.setContinent(entry[4]);
-				country.setCurrencyCode(entry[5]);
-				country.setCurrencyName(entry[6]);
-				country.setPhone(entry[7]);
-				country.setLanguage(StringUtils.substringBefore(entry[8], ","));
+				country.setContinent(pool.pool(entry[4]));
+				country.setCurrencyCode(pool.pool(entry[5]));
+				country.setCurrencyName(pool.pool(entry[6]));
+				country.setPhone(pool.pool(entry[7]));
+				country.setLanguage(pool.pool(StringUtils.substringBefore(entry[8], ",")));
 				country.setGeonameId(NumberUtils.toInt(entry[9]));
 				geonameMap.put(country.getGeonameId(), country);
 				isoMap.put(country.getIso(), country);
 			}
+			event.parsed(geonameMap.size());
+			logger.info("loaded "+geonameMap.size()+" countries");
+			String read = hashing.hash().toString();
+			crc = zipEntry.getCrc();
+			response.commit();
+			if(read.equals(digest)){
+				logger.info("skipp, same digest");
+				event.skipped();
+				return countries;
+			}
+			digest = read;
+			return new Countries(geonameMap, isoMap);
 		} catch (Exception e) {
+			event.failed(e);
 			throw new RuntimeException(e);
 		} finally {
 			try{zipis.close();}catch(Exception e){};
+			loaderListener.reload(event.finish());
+		}
+	}
+	
+	/**
+	 * Reads the latest local snapshot of the countries, without any remote call.
+	 *
+	 * @return true, if there was a snapshot to read
+	 */
+	public boolean readSnapshot(){
+		File snapshot = snapshotStore==null ? null : snapshotStore.latest(countriesUrl);
+		if(snapshot==null){
+			return false;
+		}
+		publish(loadCountries(snapshot.toURI().toString()));
+		return true;
+	}
+	
+	/**
+	 * Opens the url, through the snapshot store when there is one, and
+	 * conditional on the last response read from it.
+	 *
+	 * @param url the url
+	 * @return the response or null when it was not modified
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private ConditionalGet.Response open(String url) throws IOException{
+		return conditionalGet.open(url, snapshotStore);
+	}
+	
+	/**
+	 * Loaded countries, never modified once built.
+	 */
+	public static final class Countries {
+		
+		/** The geoname map. */
+		private final Map<Integer, Country> geonameMap;
+		
+		/** The iso map. */
+		private final Map<String, Country> isoMap;
+		
+		/**
+		 * Instantiates new countries.
+		 *
+		 * @param geonameMap the geoname map
+		 * @param isoMap the iso map
+		 */
+		Countries(Map<Integer, Country> geonameMap, Map<String, Country> isoMap){
+			this.geonameMap = geonameMap;
+			this.isoMap = isoMap;
+		}
+		
+		/**
+		 * All the countries.
+		 *
+		 * @return the countries
+		 */
+		public Collection<Country> all(){
+			return Collections.unmodifiableCollection(geonameMap.values());
+		}
+		
+		/**
+		 * Find.
+		 *
+		 * @param geonameId the geoname id
+		 * @return the country
+		 */
+		public Country find(Integer geonameId){
+			if(geonameId==null){
+				return null;
+			}
+			return geonameMap.get(geonameId);
+		}
+		
+		/**
+		 * Find.
+		 *
+		 * @param iso the iso
+		 * @return the country
+		 */
+		public Country find(String iso){
+			if(StringUtils.isBlank(iso)){
+				return null;
+			}
+			return isoMap.get(iso.trim().toUpperCase());
 		}
-		logger.info("loaded "+geonameMap.size()+" countries");
-		return this;
 	}
 	
 }
@@ -0,0 +1,521 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2.geonames;
+
+import java.util.Arrays;
+
+/**
+ * The Class KdTree.
+ *
+ * Static, balanced kd-tree over the cities, kept in flat arrays. Every city
+ * is identified by its position in the arrays it was built from and stored
+ * as a point of the unit sphere, so the euclidean (chord) distance
+ * orders the cities exactly as the great circle distance does, with no
+ * special case at the poles or at the antimeridian. The node of the range
+ * [lo, hi) is its middle element, its left subtree is [lo, mid) and its
+ * right subtree is [mid + 1, hi). The nearest city search allocates
+ * nothing.
+ */
+final class KdTree {
+
+	/** The Constant EARTH_RADIUS_KM, mean radius. */
+	static final double EARTH_RADIUS_KM = 6371.0088;
+
+	/** The x coordinates. */
+	private final double[] xs;
+
+	/** The y coordinates. */
+	private final double[] ys;
+
+	/** The z coordinates. */
+	private final double[] zs;
+
+	/** The split axis of every node, 0 for x, 1 for y and 2 for z. */
+	private final byte[] axes;
+
+	/** The cities, their positions in the arrays the tree was built from. */
+	private final int[] cities;
+
+	/**
+	 * Builds the tree.
+	 *
+	 * @param latitudes the latitudes of the cities
+	 * @param longitudes the longitudes of the cities
+	 */
+	KdTree(double[] latitudes, double[] longitudes) {
+		int size = latitudes.length;
+		this.xs = new double[size];
+		this.ys = new double[size];
+		this.zs = new double[size];
+		this.axes = new byte[size];
+		this.cities = new int[size];
+		for (int i = 0; i < size; i++) {
+			double latitude = Math.toRadians(latitudes[i]);
+			double longitude = Math.toRadians(longitudes[i]);
+			xs[i] = Math.cos(latitude) * Math.cos(longitude);
+			ys[i] = Math.cos(latitude) * Math.sin(longitude);
+			zs[i] = Math.sin(latitude);
+			this.cities[i] = i;
+		}
+		build(0, size);
+	}
+
+	/**
+	 * Size.
+	 *
+	 * @return the number of cities
+	 */
+	int size() {
+		return cities.length;
+	}
+
+	/**
+	 * Nearest city by great circle distance.
+	 *
+	 * @param latitude the latitude
+	 * @param longitude the longitude
+	 * @return the city or -1 when the tree is empty
+	 */
+	int nearest(double latitude, double longitude) {
+		if (cities.length == 0) {
+			return -1;
+		}
+		double lat = Math.toRadians(latitude);
+		double lon = Math.toRadians(longitude);
+		double x = Math.cos(lat) * Math.cos(lon);
+		double y = Math.cos(lat) * Math.sin(lon);
+		double z = Math.sin(lat);
+		return cities[nearest(0, cities.length, x, y, z, -1)];
+	}
+
+	/**
+	 * Nearest cities by great circle distance, closest first.
+	 *
+	 * @param latitude the latitude
+	 * @param longitude the longitude
+	 * @param k the maximum number of cities
+	 * @param maxKm the maximum distance in km
+	 * @return the cities
+	 */
+	int[] nearest(double latitude, double longitude, int k, double maxKm) {
+		return search(latitude, longitude, new Candidates(k, chord(maxKm)));
+	}
+
+	/**
+	 * Cities within a great circle distance, closest first.
+	 *
+	 * @param latitude the latitude
+	 * @param longitude the longitude
+	 * @param radiusKm the radius in km
+	 * @return the cities
+	 */
+	int[] within(double latitude, double longitude, double radiusKm) {
+		return search(latitude, longitude, new Candidates(Integer.MAX_VALUE, chord(radiusKm)));
+	}
+
+	/**
+	 * Squared chord of the unit sphere for a great circle distance.
+	 *
+	 * @param km the km
+	 * @return the double
+	 */
+	static double chord(double km) {
+		if (!(km >= 0)) {
+			return -1;
+		}
+		double angle = km / EARTH_RADIUS_KM;
+		if (angle >= Math.PI) {
+			return 4;
+		}
+		double chord = 2 * Math.sin(angle / 2);
+		return chord * chord;
+	}
+
+	/**
+	 * Collects and sorts the candidates.
+	 *
+	 * @param latitude the latitude
+	 * @param longitude the longitude
+	 * @param candidates the candidates
+	 * @return the cities
+	 */
+	private int[] search(double latitude, double longitude, Candidates candidates) {
+		if (candidates.limit <= 0 || candidates.radius < 0 || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+			return new int[0];
+		}
+		double lat = Math.toRadians(latitude);
+		double lon = Math.toRadians(longitude);
+		search(0, cities.length, Math.cos(lat) * Math.cos(lon), Math.cos(lat) * Math.sin(lon), Math.sin(lat),
+				candidates);
+		candidates.sort(0, candidates.size - 1);
+		int[] result = new int[candidates.size];
+		for (int i = 0; i < candidates.size; i++) {
+			result[i] = cities[candidates.indexes[i]];
+		}
+		return result;
+	}
+
+	/**
+	 * Offers every point of a range that can beat the current bound.
+	 *
+	 * @param lo the lo
+	 * @param hi the hi
+	 * @param x the x
+	 * @param y the y
+	 * @param z the z
+	 * @param candidates the candidates
+	 */
+	private void search(int lo, int hi, double x, double y, double z, Candidates candidates) {
+		if (lo >= hi) {
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		candidates.offer(mid, distance(mid, x, y, z));
+		double diff = delta(mid, x, y, z);
+		if (diff > 0) {
+			search(lo, mid, x, y, z, candidates);
+			if (diff * diff <= candidates.bound()) {
+				search(mid + 1, hi, x, y, z, candidates);
+			}
+		} else {
+			search(mid + 1, hi, x, y, z, candidates);
+			if (diff * diff <= candidates.bound()) {
+				search(lo, mid, x, y, z, candidates);
+			}
+		}
+	}
+
+	/**
+	 * Nearest point of a range.
+	 *
+	 * @param lo the lo
+	 * @param hi the hi
+	 * @param x the x
+	 * @param y the y
+	 * @param z the z
+	 * @param best the best index so far, -1 for none
+	 * @return the best index
+	 */
+	private int nearest(int lo, int hi, double x, double y, double z, int best) {
+		if (lo >= hi) {
+			return best;
+		}
+		int mid = (lo + hi) >>> 1;
+		if (best < 0 || distance(mid, x, y, z) < distance(best, x, y, z)) {
+			best = mid;
+		}
+		double diff = delta(mid, x, y, z);
+		if (diff > 0) {
+			best = nearest(lo, mid, x, y, z, best);
+			if (diff * diff < distance(best, x, y, z)) {
+				best = nearest(mid + 1, hi, x, y, z, best);
+			}
+		} else {
+			best = nearest(mid + 1, hi, x, y, z, best);
+			if (diff * diff < distance(best, x, y, z)) {
+				best = nearest(lo, mid, x, y, z, best);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Squared chord distance of a point.
+	 *
+	 * @param i the index
+	 * @param x the x
+	 * @param y the y
+	 * @param z the z
+	 * @return the double
+	 */
+	private double distance(int i, double x, double y, double z) {
+		double dx = xs[i] - x;
+		double dy = ys[i] - y;
+		double dz = zs[i] - z;
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/**
+	 * Signed distance from the query to the split plane of a node, positive
+	 * when the query is on the left side.
+	 *
+	 * @param i the index
+	 * @param x the x
+	 * @param y the y
+	 * @param z the z
+	 * @return the double
+	 */
+	private double delta(int i, double x, double y, double z) {
+		switch (axes[i]) {
+		case 0:
+			return xs[i] - x;
+		case 1:
+			return ys[i] - y;
+		default:
+			return zs[i] - z;
+		}
+	}
+
+	/**
+	 * Builds a range, splitting on the axis with the largest spread.
+	 *
+	 * @param lo the lo
+	 * @param hi the hi
+	 */
+	private void build(int lo, int hi) {
+		while (hi - lo > 1) {
+			int axis = widestAxis(lo, hi);
+			int mid = (lo + hi) >>> 1;
+			select(lo, hi - 1, mid, coordinates(axis));
+			axes[mid] = (byte) axis;
+			build(lo, mid);
+			lo = mid + 1;
+		}
+	}
+
+	/**
+	 * Axis with the largest spread in a range.
+	 *
+	 * @param lo the lo
+	 * @param hi the hi
+	 * @return the int
+	 */
+	private int widestAxis(int lo, int hi) {
+		int axis = 0;
+		double widest = -1;
+		for (int a = 0; a < 3; a++) {
+			double[] values = coordinates(a);
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for (int i = lo; i < hi; i++) {
+				min = Math.min(min, values[i]);
+				max = Math.max(max, values[i]);
+			}
+			if (max - min > widest) {
+				widest = max - min;
+				axis = a;
+			}
+		}
+		return axis;
+	}
+
+	/**
+	 * Coordinates of an axis.
+	 *
+	 * @param axis the axis
+	 * @return the double[]
+	 */
+	private double[] coordinates(int axis) {
+		return axis == 0 ? xs : axis == 1 ? ys : zs;
+	}
+
+	/**
+	 * Quickselect, leaves the k-th smallest value at k with smaller or equal
+	 * values before it and greater or equal values after it.
+	 *
+	 * @param left the left, inclusive
+	 * @param right the right, inclusive
+	 * @param k the k
+	 * @param values the values
+	 */
+	private void select(int left, int right, int k, double[] values) {
+		while (right > left) {
+			int middle = (left + right) >>> 1;
+			double pivot = values[middle];
+			swap(middle, right);
+			int store = left;
+			for (int i = left; i < right; i++) {
+				if (values[i] < pivot) {
+					swap(i, store++);
+				}
+			}
+			swap(store, right);
+			if (store == k) {
+				return;
+			} else if (store < k) {
+				left = store + 1;
+			} else {
+				right = store - 1;
+			}
+		}
+	}
+
+	/**
+	 * Swaps two points.
+	 *
+	 * @param i the i
+	 * @param j the j
+	 */
+	private void swap(int i, int j) {
+		double x = xs[i];
+		xs[i] = xs[j];
+		xs[j] = x;
+		double y = ys[i];
+		ys[i] = ys[j];
+		ys[j] = y;
+		double z = zs[i];
+		zs[i] = zs[j];
+		zs[j] = z;
+		int city = cities[i];
+		cities[i] = cities[j];
+		cities[j] = city;
+	}
+
+	/**
+	 * Points found by a search, a max heap on the distance while a limit is
+	 * set, a plain list otherwise.
+	 */
+	private static final class Candidates {
+
+		/** The limit. */
+		private final int limit;
+
+		/** The squared chord radius. */
+		private final double radius;
+
+		/** The indexes. */
+		private int[] indexes = new int[16];
+
+		/** The distances. */
+		private double[] distances = new double[16];
+
+		/** The size. */
+		private int size;
+
+		/**
+		 * Instantiates new candidates.
+		 *
+		 * @param limit the limit
+		 * @param radius the radius
+		 */
+		Candidates(int limit, double radius) {
+			this.limit = limit;
+			this.radius = radius;
+		}
+
+		/**
+		 * Largest squared distance a new point may have.
+		 *
+		 * @return the double
+		 */
+		double bound() {
+			return size < limit ? radius : distances[0];
+		}
+
+		/**
+		 * Offers a point.
+		 *
+		 * @param index the index
+		 * @param distance the distance
+		 */
+		void offer(int index, double distance) {
+			if (distance > radius) {
+				return;
+			}
+			if (limit == Integer.MAX_VALUE) {
+				add(index, distance);
+			} else if (size < limit) {
+				add(index, distance);
+				for (int i = size - 1; i > 0 && distances[(i - 1) / 2] < distances[i];) {
+					int parent = (i - 1) / 2;
+					swap(i, parent);
+					i = parent;
+				}
+			} else if (distance < distances[0]) {
+				indexes[0] = index;
+				distances[0] = distance;
+				for (int i = 0;;) {
+					int largest = i;
+					int left = 2 * i + 1;
+					if (left < size && distances[left] > distances[largest]) {
+						largest = left;
+					}
+					if (left + 1 < size && distances[left + 1] > distances[largest]) {
+						largest = left + 1;
+					}
+					if (largest == i) {
+						break;
+					}
+					swap(i, largest);
+					i = largest;
+				}
+			}
+		}
+
+		/**
+		 * Appends a point.
+		 *
+		 * @param index the index
+		 * @param distance the distance
+		 */
+		private void add(int index, double distance) {
+			if (size == indexes.length) {
+				indexes = Arrays.copyOf(indexes, size * 2);
+				distances = Arrays.copyOf(distances, size * 2);
+			}
+			indexes[size] = index;
+			distances[size++] = distance;
+		}
+
+		/**
+		 * Sorts by distance.
+		 *
+		 * @param left the left, inclusive
+		 * @param right the right, inclusive
+		 */
+		void sort(int left, int right) {
+			while (left < right) {
+				double pivot = distances[(left + right) >>> 1];
+				int i = left;
+				int j = right;
+				while (i <= j) {
+					while (distances[i] < pivot) {
+						i++;
+					}
+					while (distances[j] > pivot) {
+						j--;
+					}
+					if (i <= j) {
+						swap(i++, j--);
+					}
+				}
+				if (j - left < right - i) {
+					sort(left, j);
+					left = i;
+				} else {
+					sort(i, right);
+					right = j;
+				}
+			}
+		}
+
+		/**
+		 * Swaps two candidates.
+		 *
+		 * @param i the i
+		 * @param j the j
+		 */
+		private void swap(int i, int j) {
+			int index = indexes[i];
+			indexes[i] = indexes[j];
+			indexes[j] = index;
+			double distance = distances[i];
+			distances[i] = distances[j];
+			distances[j] = distance;
+		}
+	}
+
+}
@@ -0,0 +1,380 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2.geonames;
+
+/**
+ * The Class PackedRTree.
+ *
+ * Static R-tree over the cities, bulk loaded with Sort-Tile-Recursive from
+ * the whole point set and kept in flat arrays. Every city is identified by
+ * its position in the arrays it was built from. Points are longitude and
+ * latitude in float precision and distances are euclidean in degrees, the
+ * same geometry the nearest city lookup always used. Every level is packed
+ * with STR, so nodes are full and barely overlap. Nodes below
+ * {@link #leaves} hold a range of points, the others a range of nodes, and
+ * the root is the last node. The nearest city search allocates nothing.
+ */
+final class PackedRTree {
+
+	/** The Constant NODE_SIZE, children of a node. */
+	static final int NODE_SIZE = 16;
+
+	/** The x coordinates, normalized longitudes. */
+	private final float[] xs;
+
+	/** The y coordinates, latitudes. */
+	private final float[] ys;
+
+	/** The cities, their positions in the arrays the tree was built from, in the same order as the points. */
+	private final int[] cities;
+
+	/** The min x of every node. */
+	private final float[] minXs;
+
+	/** The min y of every node. */
+	private final float[] minYs;
+
+	/** The max x of every node. */
+	private final float[] maxXs;
+
+	/** The max y of every node. */
+	private final float[] maxYs;
+
+	/** The first child of every node. */
+	private final int[] starts;
+
+	/** The end of the children of every node, exclusive. */
+	private final int[] ends;
+
+	/** The number of leaf nodes. */
+	private final int leaves;
+
+	/** The root, -1 when there are no cities. */
+	private final int root;
+
+	/**
+	 * Builds the tree.
+	 *
+	 * @param latitudes the latitudes of the cities
+	 * @param longitudes the longitudes of the cities
+	 */
+	PackedRTree(double[] latitudes, double[] longitudes) {
+		int size = latitudes.length;
+		float[] x = new float[size];
+		float[] y = new float[size];
+		for (int i = 0; i < size; i++) {
+			x[i] = (float) normalizeLongitude(longitudes[i]);
+			y[i] = (float) latitudes[i];
+		}
+		int[] order = tile(x, y);
+		this.xs = new float[size];
+		this.ys = new float[size];
+		this.cities = order;
+		for (int i = 0; i < size; i++) {
+			xs[i] = x[order[i]];
+			ys[i] = y[order[i]];
+		}
+		int nodes = 0;
+		for (int count = size; count > 0;) {
+			count = pages(count);
+			nodes += count;
+			if (count == 1) {
+				break;
+			}
+		}
+		this.minXs = new float[nodes];
+		this.minYs = new float[nodes];
+		this.maxXs = new float[nodes];
+		this.maxYs = new float[nodes];
+		this.starts = new int[nodes];
+		this.ends = new int[nodes];
+		this.leaves = pages(size);
+		for (int node = 0; node < leaves; node++) {
+			int start = node * NODE_SIZE;
+			int end = Math.min(start + NODE_SIZE, size);
+			starts[node] = start;
+			ends[node] = end;
+			minXs[node] = Float.POSITIVE_INFINITY;
+			minYs[node] = Float.POSITIVE_INFINITY;
+			maxXs[node] = Float.NEGATIVE_INFINITY;
+			maxYs[node] = Float.NEGATIVE_INFINITY;
+			for (int i = start; i < end; i++) {
+				minXs[node] = Math.min(minXs[node], xs[i]);
+				minYs[node] = Math.min(minYs[node], ys[i]);
+				maxXs[node] = Math.max(maxXs[node], xs[i]);
+				maxYs[node] = Math.max(maxYs[node], ys[i]);
+			}
+		}
+		int levelStart = 0;
+		int levelEnd = leaves;
+		while (levelEnd - levelStart > 1) {
+			int parentEnd = pack(levelStart, levelEnd);
+			levelStart = levelEnd;
+			levelEnd = parentEnd;
+		}
+		this.root = nodes - 1;
+	}
+
+	/**
+	 * Size.
+	 *
+	 * @return the number of cities
+	 */
+	int size() {
+		return cities.length;
+	}
+
+	/**
+	 * Nearest city by euclidean distance in degrees.
+	 *
+	 * @param latitude the latitude
+	 * @param longitude the longitude
+	 * @return the city or -1 when the tree is empty
+	 */
+	int nearest(double latitude, double longitude) {
+		if (root < 0) {
+			return -1;
+		}
+		float x = (float) normalizeLongitude(longitude);
+		float y = (float) latitude;
+		return cities[nearest(root, x, y, -1)];
+	}
+
+	/**
+	 * Nearest point below a node, the closest child is searched first and
+	 * the others only when their box can beat the best point so far.
+	 *
+	 * @param node the node
+	 * @param x the x
+	 * @param y the y
+	 * @param best the best index so far, -1 for none
+	 * @return the best index
+	 */
+	private int nearest(int node, float x, float y, int best) {
+		if (node < leaves) {
+			double bound = best < 0 ? Double.POSITIVE_INFINITY : distance(best, x, y);
+			for (int i = starts[node]; i < ends[node]; i++) {
+				double distance = distance(i, x, y);
+				if (distance < bound) {
+					bound = distance;
+					best = i;
+				}
+			}
+			return best;
+		}
+		int first = starts[node];
+		double firstDistance = Double.POSITIVE_INFINITY;
+		for (int child = starts[node]; child < ends[node]; child++) {
+			double distance = boxDistance(child, x, y);
+			if (distance < firstDistance) {
+				firstDistance = distance;
+				first = child;
+			}
+		}
+		best = nearest(first, x, y, best);
+		for (int child = starts[node]; child < ends[node]; child++) {
+			if (child != first && boxDistance(child, x, y) < distance(best, x, y)) {
+				best = nearest(child, x, y, best);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Squared distance to a point.
+	 *
+	 * @param i the index
+	 * @param x the x
+	 * @param y the y
+	 * @return the double
+	 */
+	private double distance(int i, float x, float y) {
+		double dx = Math.abs(xs[i] - x);
+		double dy = Math.abs(ys[i] - y);
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * Squared distance to the box of a node, 0 when inside.
+	 *
+	 * @param node the node
+	 * @param x the x
+	 * @param y the y
+	 * @return the double
+	 */
+	private double boxDistance(int node, float x, float y) {
+		double dx = Math.max(0, Math.max(minXs[node] - x, x - maxXs[node]));
+		double dy = Math.max(0, Math.max(minYs[node] - y, y - maxYs[node]));
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * Packs a level of nodes with STR and appends their parents.
+	 *
+	 * @param from the first node of the level
+	 * @param to the end of the level, exclusive
+	 * @return the end of the parent level, exclusive
+	 */
+	private int pack(int from, int to) {
+		int count = to - from;
+		float[] x = new float[count];
+		float[] y = new float[count];
+		for (int i = 0; i < count; i++) {
+			x[i] = (minXs[from + i] + maxXs[from + i]) / 2;
+			y[i] = (minYs[from + i] + maxYs[from + i]) / 2;
+		}
+		int[] order = tile(x, y);
+		float[] minX = new float[count];
+		float[] minY = new float[count];
+		float[] maxX = new float[count];
+		float[] maxY = new float[count];
+		int[] start = new int[count];
+		int[] end = new int[count];
+		for (int i = 0; i < count; i++) {
+			int node = from + order[i];
+			minX[i] = minXs[node];
+			minY[i] = minYs[node];
+			maxX[i] = maxXs[node];
+			maxY[i] = maxYs[node];
+			start[i] = starts[node];
+			end[i] = ends[node];
+		}
+		System.arraycopy(minX, 0, minXs, from, count);
+		System.arraycopy(minY, 0, minYs, from, count);
+		System.arraycopy(maxX, 0, maxXs, from, count);
+		System.arraycopy(maxY, 0, maxYs, from, count);
+		System.arraycopy(start, 0, starts, from, count);
+		System.arraycopy(end, 0, ends, from, count);
+		int parent = to;
+		for (int first = from; first < to; first += NODE_SIZE, parent++) {
+			int last = Math.min(first + NODE_SIZE, to);
+			starts[parent] = first;
+			ends[parent] = last;
+			minXs[parent] = Float.POSITIVE_INFINITY;
+			minYs[parent] = Float.POSITIVE_INFINITY;
+			maxXs[parent] = Float.NEGATIVE_INFINITY;
+			maxYs[parent] = Float.NEGATIVE_INFINITY;
+			for (int child = first; child < last; child++) {
+				minXs[parent] = Math.min(minXs[parent], minXs[child]);
+				minYs[parent] = Math.min(minYs[parent], minYs[child]);
+				maxXs[parent] = Math.max(maxXs[parent], maxXs[child]);
+				maxYs[parent] = Math.max(maxYs[parent], maxYs[child]);
+			}
+		}
+		return parent;
+	}
+
+	/**
+	 * Sort-Tile-Recursive order of a set of points, sorted by x, cut in
+	 * vertical slices of whole nodes and every slice sorted by y.
+	 *
+	 * @param x the x
+	 * @param y the y
+	 * @return the order, the index of the point at every position
+	 */
+	private static int[] tile(float[] x, float[] y) {
+		int count = x.length;
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		int slices = (int) Math.ceil(Math.sqrt(pages(count)));
+		int sliceSize = slices * NODE_SIZE;
+		sort(order, x, 0, count - 1);
+		for (int start = 0; start < count; start += sliceSize) {
+			sort(order, y, start, Math.min(start + sliceSize, count) - 1);
+		}
+		return order;
+	}
+
+	/**
+	 * Nodes needed for a number of children.
+	 *
+	 * @param count the count
+	 * @return the int
+	 */
+	private static int pages(int count) {
+		return (count + NODE_SIZE - 1) / NODE_SIZE;
+	}
+
+	/**
+	 * Quicksort of indexes by their value, equal values by index.
+	 *
+	 * @param order the order
+	 * @param values the values
+	 * @param left the left, inclusive
+	 * @param right the right, inclusive
+	 */
+	private static void sort(int[] order, float[] values, int left, int right) {
+		while (right > left) {
+			int pivot = order[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (less(order[i], pivot, values)) {
+					i++;
+				}
+				while (less(pivot, order[j], values)) {
+					j--;
+				}
+				if (i <= j) {
+					int swap = order[i];
+					order[i++] = order[j];
+					order[j--] = swap;
+				}
+			}
+			if (j - left < right - i) {
+				sort(order, values, left, j);
+				left = i;
+			} else {
+				sort(order, values, i, right);
+				right = j;
+			}
+		}
+	}
+
+	/**
+	 * Compares two indexes by their value, then by index.
+	 *
+	 * @param a the a
+	 * @param b the b
+	 * @param values the values
+	 * @return true, if a goes first
+	 */
+	private static boolean less(int a, int b, float[] values) {
+		return values[a] < values[b] || values[a] == values[b] && a < b;
+	}
+
+	/**
+	 * Normalizes a longitude to [-180, 180).
+	 *
+	 * @param longitude the longitude
+	 * @return the double
+	 */
+	static double normalizeLongitude(double longitude) {
+		if (longitude == -180.0) {
+			return -180.0;
+		}
+		double sign = Math.signum(longitude);
+		double fraction = Math.abs(longitude) / 360.0;
+		double normalized = (fraction - Math.floor(fraction)) * 360.0;
+		if (normalized >= 180.0) {
+			normalized -= 360.0;
+		}
+		return normalized * sign;
+	}
+
+}
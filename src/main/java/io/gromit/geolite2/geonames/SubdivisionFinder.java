@@ -15,11 +15,11 @@
  */
 package io.gromit.geolite2.geonames;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -29,12 +29,18 @@ import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
 import com.univocity.parsers.csv.CsvFormat;
 import com.univocity.parsers.csv.CsvParser;
 import com.univocity.parsers.csv.CsvParserSettings;
 
 import io.gromit.geolite2.LoaderListener;
+import io.gromit.geolite2.ReloadEvent;
 import io.gromit.geolite2.model.Subdivision;
+import io.gromit.geolite2.utils.ConditionalGet;
+import io.gromit.geolite2.utils.SnapshotStore;
+import io.gromit.geolite2.utils.StringPool;
 
 /**
  * The Class SubdivisionFinder.
@@ -53,27 +59,33 @@ public class SubdivisionFinder {
 	/** The subdivision one url. */
 	private String subdivisionOneUrl = "https://raw.githubusercontent.com/mmarmol/geonames/master/export/subdivisions1.zip";
 
-	/** The subdivision one m d5. */
-	private Long crc1 = -2l;
+	/** The crc of the last level one read, -2 until then. */
+	private volatile Long crc1 = -2l;
+
+	/** The md5 of the last level one read, decompressed. */
+	private volatile String digest1;
 
 	/** The subdivision two url. */
 	private String subdivisionTwoUrl = "https://raw.githubusercontent.com/mmarmol/geonames/master/export/subdivisions2.zip";
 
-	/** The subdivision two m d5. */
-	private Long crc2 = -2l;
+	/** The crc of the last level two read, -2 until then. */
+	private volatile Long crc2 = -2l;
 
-	/** The id one map. */
-	private Map<String, Subdivision> idOneMap = new HashMap<>();
+	/** The md5 of the last level two read, decompressed. */
+	private volatile String digest2;
 
-	/** The id tow map. */
-	private Map<String, Subdivision> idTowMap = new HashMap<>();
-	
-	/** The geoname id map. */
-	private Map<Integer, Subdivision> geonameIdMap = new HashMap<>();
+	/** The subdivisions, replaced as a whole on every load. */
+	private volatile Subdivisions subdivisions = new Subdivisions(new HashMap<String, Subdivision>(), new HashMap<String, Subdivision>());
 	
 	/** The loader listener. */
 	private LoaderListener loaderListener = LoaderListener.DEFAULT;
 	
+	/** The snapshot store, null when downloads are not kept locally. */
+	private SnapshotStore snapshotStore;
+	
+	/** The conditional get of the urls read. */
+	private final ConditionalGet conditionalGet = new ConditionalGet();
+	
 	/**
 	 * Loader listener.
 	 *
@@ -85,6 +97,17 @@ public class SubdivisionFinder {
 		return this;
 	}
 	
+	/**
+	 * Snapshot store, every download is kept there and read from the local copy.
+	 *
+	 * @param snapshotStore the snapshot store
+	 * @return the subdivision finder
+	 */
+	public SubdivisionFinder snapshotStore(SnapshotStore snapshotStore){
+		this.snapshotStore = snapshotStore;
+		return this;
+	}
+	
 	/**
 	 * Subdivision one url.
 	 *
@@ -115,10 +138,7 @@ public class SubdivisionFinder {
 	 * @return the subdivision
 	 */
 	public Subdivision find(String country, String one) {
-		if (StringUtils.isBlank(country) || StringUtils.isBlank(one)) {
-			return null;
-		}
-		return idOneMap.get(country.trim().toUpperCase() + "." + one.trim());
+		return subdivisions.find(country, one);
 	}
 
 	/**
@@ -130,10 +150,7 @@ public class SubdivisionFinder {
 	 * @return the subdivision
 	 */
 	public Subdivision find(String country, String one, String two) {
-		if (StringUtils.isBlank(country) || StringUtils.isBlank(one) || StringUtils.isBlank(two)) {
-			return null;
-		}
-		return idTowMap.get(country.trim().toUpperCase() + "." + one.trim() + "." + two.trim());
+		return subdivisions.find(country, one, two);
 	}
 
 	/**
@@ -143,10 +160,51 @@ public class SubdivisionFinder {
 	 * @return the subdivision
 	 */
 	public Subdivision find(Integer geonameId){
-		if(geonameId==null){
-			return null;
+		return subdivisions.find(geonameId);
+	}
+	
+	/**
+	 * Current subdivisions.
+	 *
+	 * @return the subdivisions
+	 */
+	public Subdivisions subdivisions(){
+		return subdivisions;
+	}
+	
+	/**
+	 * Publishes loaded subdivisions.
+	 *
+	 * @param subdivisions the subdivisions
+	 * @return the subdivision finder
+	 */
+	public SubdivisionFinder publish(Subdivisions subdivisions){
+		this.subdivisions = subdivisions;
+		return this;
+	}
+	
+	/**
+	 * Loads both levels without publishing them.
+	 *
+	 * @return the new subdivisions, keeping the current level when one could not be read
+	 */
+	public Subdivisions loadSubdivisions(){
+		return subdivisions(loadLevelOne(), loadLevelTwo());
+	}
+	
+	/**
+	 * Subdivisions of the given levels, the current level is kept for a missing one.
+	 *
+	 * @param one the level one, may be null
+	 * @param two the level two, may be null
+	 * @return the subdivisions
+	 */
+	public Subdivisions subdivisions(Map<String, Subdivision> one, Map<String, Subdivision> two){
+		Subdivisions current = subdivisions;
+		if(one==null && two==null){
+			return current;
 		}
-		return geonameIdMap.get(geonameId);
+		return new Subdivisions(one!=null ? one : current.idOneMap, two!=null ? two : current.idTowMap);
 	}
 	
 	/**
@@ -155,35 +213,77 @@ public class SubdivisionFinder {
 	 * @return the subdivision finder
 	 */
 	public SubdivisionFinder readLevelOne() {
+		return publishLevelOne(loadLevelOne());
+	}
+	
+	/**
+	 * Read countries.
+	 *
+	 * @param subdivisionOneLocationUrl the subdivision one location url
+	 * @return the time zone finder
+	 */
+	public SubdivisionFinder readLevelOne(String subdivisionOneLocationUrl) {
+		return publishLevelOne(loadLevelOne(subdivisionOneLocationUrl));
+	}
+	
+	/**
+	 * Publishes a new level one next to the current level two.
+	 *
+	 * @param one the level one, ignored when null
+	 * @return the subdivision finder
+	 */
+	private SubdivisionFinder publishLevelOne(Map<String, Subdivision> one) {
+		if(one!=null){
+			publish(new Subdivisions(one, subdivisions.idTowMap));
+		}
+		return this;
+	}
+	
+	/**
+	 * Loads the level one without publishing it.
+	 *
+	 * @return the level one or null when it could not be read
+	 */
+	public Map<String, Subdivision> loadLevelOne() {
 		try{
-			readLevelOne(subdivisionOneUrl);
+			Map<String, Subdivision> one = loadLevelOne(subdivisionOneUrl);
 			loaderListener.success(subdivisionOneUrl);
+			return one;
 		}catch(Exception e){
 			loaderListener.failure(subdivisionOneUrl, e);
 			logger.error("error loading from remote",e);
 			if(StringUtils.isNotBlank(System.getProperty(ADMIN1_FAIL_SAFE_URL))){
-				readLevelOne(System.getProperty(ADMIN1_FAIL_SAFE_URL));
+				return loadLevelOne(System.getProperty(ADMIN1_FAIL_SAFE_URL));
 			}
 		}
-		return this;
+		return null;
 	}
 	
 	/**
-	 * Read countries.
+	 * Load level one.
 	 *
 	 * @param subdivisionOneLocationUrl the subdivision one location url
-	 * @return the time zone finder
+	 * @return the level one or null when it could not be read
 	 */
-	public SubdivisionFinder readLevelOne(String subdivisionOneLocationUrl) {
+	private Map<String, Subdivision> loadLevelOne(String subdivisionOneLocationUrl) {
 		ZipInputStream zipis = null;
+		ReloadEvent.Recorder event = ReloadEvent.record(ReloadEvent.Dataset.SUBDIVISIONS_LEVEL_ONE, subdivisionOneLocationUrl);
 		try {
 			logger.info("READING subdivisions database at url {}", subdivisionOneLocationUrl);
-			zipis = new ZipInputStream(new URL(subdivisionOneLocationUrl).openStream(), Charset.forName("UTF-8"));
+			ConditionalGet.Response response = open(subdivisionOneLocationUrl);
+			if(response==null){
+				logger.info("skipp, not modified");
+				event.skipped();
+				return null;
+			}
+			zipis = new ZipInputStream(event.download(response.getInputStream()), Charset.forName("UTF-8"));
 			ZipEntry zipEntry = zipis.getNextEntry();
 			logger.info("reading "+zipEntry.getName());
-			if(crc1==zipEntry.getCrc()){
+			if(zipEntry.getCrc()!=-1 && crc1==zipEntry.getCrc()){
 				logger.info("skipp, same CRC");
-				return this;
+				event.skipped();
+				response.commit();
+				return null;
 			}
 			CsvParserSettings settings = new CsvParserSettings();
 			settings.setSkipEmptyLines(true);
@@ -196,23 +296,41 @@ public class SubdivisionFinder {
 			settings.setFormat(format);
 			CsvParser parser = new CsvParser(settings);
 	
-			List<String[]> lines = parser.parseAll(new InputStreamReader(zipis, "UTF-8"));
+			Map<String, Subdivision> idOneMap = new HashMap<>();
+			HashingInputStream hashing = new HashingInputStream(Hashing.md5(), zipis);
+			parser.beginParsing(new InputStreamReader(hashing, "UTF-8"));
 	
-			for (String[] entry : lines) {
+			String[] entry;
+			int count = 0;
+			StringPool pool = new StringPool();
+			while((entry=parser.parseNext())!=null){
+				count++;
 				Subdivision subdivision = new Subdivision();
 				subdivision.setId(entry[0]);
-				subdivision.setName(entry[1]);
+				subdivision.setName(pool.pool(entry[1]));
 				subdivision.setGeonameId(NumberUtils.toInt(entry[2]));
 				idOneMap.put(subdivision.getId(), subdivision);
-				geonameIdMap.put(subdivision.getGeonameId(), subdivision);
 			}
-			logger.info("loaded " + lines.size() + " subdivisions level 1");
+			event.parsed(count);
+			logger.info("loaded " + count + " subdivisions level 1");
+			String read = hashing.hash().toString();
+			crc1 = zipEntry.getCrc();
+			response.commit();
+			if(read.equals(digest1)){
+				logger.info("skipp, same digest");
+				event.skipped();
+				return null;
+			}
+			digest1 = read;
+			return idOneMap;
 		} catch (Exception e) {
+			event.failed(e);
 			logger.error(e.getMessage(),e);
 		}finally {
 			try{zipis.close();}catch(Exception e){};
+			loaderListener.reload(event.finish());
 		}
-		return this;
+		return null;
 	}
 	
 	/**
@@ -221,34 +339,76 @@ public class SubdivisionFinder {
 	 * @return the subdivision finder
 	 */
 	public SubdivisionFinder readLevelTwo() {
+		return publishLevelTwo(loadLevelTwo());
+	}
+	
+	/**
+	 * Read level two.
+	 *
+	 * @param subdivisionTwoLocationUrl the subdivision two location url
+	 * @return the subdivision finder
+	 */
+	public SubdivisionFinder readLevelTwo(String subdivisionTwoLocationUrl) {
+		return publishLevelTwo(loadLevelTwo(subdivisionTwoLocationUrl));
+	}
+	
+	/**
+	 * Publishes a new level two next to the current level one.
+	 *
+	 * @param two the level two, ignored when null
+	 * @return the subdivision finder
+	 */
+	private SubdivisionFinder publishLevelTwo(Map<String, Subdivision> two) {
+		if(two!=null){
+			publish(new Subdivisions(subdivisions.idOneMap, two));
+		}
+		return this;
+	}
+	
+	/**
+	 * Loads the level two without publishing it.
+	 *
+	 * @return the level two or null when it could not be read
+	 */
+	public Map<String, Subdivision> loadLevelTwo() {
 		try{
-			readLevelTwo(subdivisionTwoUrl);
+			Map<String, Subdivision> two = loadLevelTwo(subdivisionTwoUrl);
 			loaderListener.success(subdivisionTwoUrl);
+			return two;
 		}catch(Exception e){
 			loaderListener.failure(subdivisionTwoUrl, e);
 			logger.error("error loading from remote",e);
 			if(StringUtils.isNotBlank(System.getProperty(ADMIN2_FAIL_SAFE_URL))){
-				readLevelTwo(System.getProperty(ADMIN2_FAIL_SAFE_URL));
+				return loadLevelTwo(System.getProperty(ADMIN2_FAIL_SAFE_URL));
 			}
 		}
-		return this;
+		return null;
 	}
 	
 	/**
-	 * Read level two.
+	 * Load level two.
 	 *
 	 * @param subdivisionTwoLocationUrl the subdivision two location url
-	 * @return the subdivision finder
+	 * @return the level two or null when it could not be read
 	 */
-	public SubdivisionFinder readLevelTwo(String subdivisionTwoLocationUrl) {
+	private Map<String, Subdivision> loadLevelTwo(String subdivisionTwoLocationUrl) {
 		ZipInputStream zipis = null;
+		ReloadEvent.Recorder event = ReloadEvent.record(ReloadEvent.Dataset.SUBDIVISIONS_LEVEL_TWO, subdivisionTwoLocationUrl);
 		try {
-			zipis = new ZipInputStream(new URL(subdivisionTwoLocationUrl).openStream(), Charset.forName("UTF-8"));
+			ConditionalGet.Response response = open(subdivisionTwoLocationUrl);
+			if(response==null){
+				logger.info("skipp, not modified");
+				event.skipped();
+				return null;
+			}
+			zipis = new ZipInputStream(event.download(response.getInputStream()), Charset.forName("UTF-8"));
 			ZipEntry zipEntry = zipis.getNextEntry();
 			logger.info("reading "+zipEntry.getName());
-			if(crc2==zipEntry.getCrc()){
+			if(zipEntry.getCrc()!=-1 && crc2==zipEntry.getCrc()){
 				logger.info("skipp, same CRC");
-				return this;
+				event.skipped();
+				response.commit();
+				return null;
 			}
 			CsvParserSettings settings = new CsvParserSettings();
 			settings.setSkipEmptyLines(true);
@@ -261,22 +421,144 @@ public class SubdivisionFinder {
 			settings.setFormat(format);
 			CsvParser parser = new CsvParser(settings);
 	
-			List<String[]> lines = parser.parseAll(new InputStreamReader(zipis, "UTF-8"));
+			Map<String, Subdivision> idTowMap = new HashMap<>();
+			HashingInputStream hashing = new HashingInputStream(Hashing.md5(), zipis);
+			parser.beginParsing(new InputStreamReader(hashing, "UTF-8"));
 			
-			for (String[] entry : lines) {
+			String[] entry;
+			int count = 0;
+			StringPool pool = new StringPool();
+			while((entry=parser.parseNext())!=null){
+				count++;
 				Subdivision subdivision = new Subdivision();
 				subdivision.setId(entry[0]);
-				subdivision.setName(entry[1]);
+				subdivision.setName(pool.pool(entry[1]));
 				subdivision.setGeonameId(NumberUtils.toInt(entry[2]));
 				idTowMap.put(subdivision.getId(), subdivision);
-				geonameIdMap.put(subdivision.getGeonameId(), subdivision);
 			}
-			logger.info("loaded " + lines.size() + " subdivisions level 2");
+			event.parsed(count);
+			logger.info("loaded " + count + " subdivisions level 2");
+			String read = hashing.hash().toString();
+			crc2 = zipEntry.getCrc();
+			response.commit();
+			if(read.equals(digest2)){
+				logger.info("skipp, same digest");
+				event.skipped();
+				return null;
+			}
+			digest2 = read;
+			return idTowMap;
 		} catch (Exception e) {
+			event.failed(e);
 			logger.error(e.getMessage(),e);
 		}finally {
 			try{zipis.close();}catch(Exception e){};
+			loaderListener.reload(event.finish());
+		}
+		return null;
+	}
+	
+	/**
+	 * Reads the latest local snapshot of the subdivisions, without any remote call.
+	 *
+	 * @return true, if there was a snapshot to read
+	 */
+	public boolean readSnapshot(){
+		File one = snapshotStore==null ? null : snapshotStore.latest(subdivisionOneUrl);
+		File two = snapshotStore==null ? null : snapshotStore.latest(subdivisionTwoUrl);
+		if(one==null || two==null){
+			return false;
+		}
+		Map<String, Subdivision> levelOne = loadLevelOne(one.toURI().toString());
+		Map<String, Subdivision> levelTwo = loadLevelTwo(two.toURI().toString());
+		publish(subdivisions(levelOne, levelTwo));
+		return true;
+	}
+	
+	/**
+	 * Opens the url, through the snapshot store when there is one, and
+	 * conditional on the last response read from it.
+	 *
+	 * @param url the url
+	 * @return the response or null when it was not modified
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private ConditionalGet.Response open(String url) throws IOException{
+		return conditionalGet.open(url, snapshotStore);
+	}
+	
+	/**
+	 * Loaded subdivisions of both levels, never modified once built.
+	 */
+	public static final class Subdivisions {
+		
+		/** The id one map. */
+		private final Map<String, Subdivision> idOneMap;
+		
+		/** The id tow map. */
+		private final Map<String, Subdivision> idTowMap;
+		
+		/** The geoname id map, both levels. */
+		private final Map<Integer, Subdivision> geonameIdMap = new HashMap<>();
+		
+		/**
+		 * Instantiates new subdivisions.
+		 *
+		 * @param idOneMap the id one map
+		 * @param idTowMap the id tow map
+		 */
+		Subdivisions(Map<String, Subdivision> idOneMap, Map<String, Subdivision> idTowMap){
+			this.idOneMap = idOneMap;
+			this.idTowMap = idTowMap;
+			for(Subdivision subdivision : idOneMap.values()){
+				geonameIdMap.put(subdivision.getGeonameId(), subdivision);
+			}
+			for(Subdivision subdivision : idTowMap.values()){
+				geonameIdMap.put(subdivision.getGeonameId(), subdivision);
+			}
+		}
+		
+		/**
+		 * Find.
+		 *
+		 * @param country the country
+		 * @param one the one
+		 * @return the subdivision
+		 */
+		public Subdivision find(String country, String one) {
+			if (StringUtils.isBlank(country) || StringUtils.isBlank(one)) {
+				return null;
+			}
+			return idOneMap.get(country.trim().toUpperCase() + "." + one.trim());
+		}
+		
+		/**
+		 * Find.
+		 *
+		 * @param country the country
+		 * @param one the one
+		 * @param two the two
+		 * @return the subdivision
+		 */
+		public Subdivision find(String country, String one, String two) {
+			if (StringUtils.isBlank(country) || StringUtils.isBlank(one) || StringUtils.isBlank(two)) {
+				return null;
+			}
+			return idTowMap.get(country.trim().toUpperCase() + "." + one.trim() + "." + two.trim());
+		}
+		
+		/**
+		 * Find.
+		 *
+		 * @param geonameId the geoname id
+		 * @return the subdivision
+		 */
+		public Subdivision find(Integer geonameId){
+			if(geonameId==null){
+				return null;
+			}
+			return geonameIdMap.get(geonameId);
 		}
-		return this;
 	}
+	
 }
@@ -15,30 +15,35 @@
  */
 package io.gromit.geolite2.geonames;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
-import java.net.URL;
 import java.nio.charset.Charset;
+import java.time.Clock;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
-import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
 import com.univocity.parsers.csv.CsvFormat;
 import com.univocity.parsers.csv.CsvParser;
 import com.univocity.parsers.csv.CsvParserSettings;
 
 import io.gromit.geolite2.LoaderListener;
+import io.gromit.geolite2.ReloadEvent;
 import io.gromit.geolite2.model.TimeZone;
 import io.gromit.geolite2.utils.ClosableZipInputStream;
-import io.gromit.geolite2.model.Offset;
+import io.gromit.geolite2.utils.ConditionalGet;
+import io.gromit.geolite2.utils.SnapshotStore;
+import io.gromit.geolite2.utils.StringPool;
 
 /**
  * The Class TimeZoneFinder.
@@ -60,19 +65,33 @@ public class TimeZoneFinder {
 	/** The countries url. */
 	private String timeZonesUrl = "https://timezonedb.com/files/timezonedb.csv.zip";
 
-	/** The time zones m d5. */
-	private Long crcZone = -2l;
+	/** The crc of the last zones read, -2 until then. */
+	private volatile Long crcZone = -2l;
 	
-	private Long crcTimezones = -2l;
+	/** The crc of the last offsets read, -2 until then. */
+	private volatile Long crcTimezones = -2l;
 	
-	/** The id map. */
-	private Map<String, TimeZone> idMap = new HashMap<>();
+	/** The md5 of the last zones read, decompressed. */
+	private volatile String digestZone;
 	
-	private Map<Integer, TreeSet<Offset>> offsetMap = new HashMap<>();
+	/** The md5 of the last offsets read, decompressed. */
+	private volatile String digestTimezones;
+	
+	/** The clock of the current time lookups. */
+	private Clock clock = Clock.systemUTC();
+	
+	/** The time zones, replaced as a whole on every load. */
+	private volatile TimeZones timeZones = new TimeZones(new HashMap<String, TimeZone>(), new HashMap<Integer, Transitions>(), clock);
 	
 	/** The loader listener. */
 	private LoaderListener loaderListener = LoaderListener.DEFAULT;
 	
+	/** The snapshot store, null when downloads are not kept locally. */
+	private SnapshotStore snapshotStore;
+	
+	/** The conditional get of the urls read. */
+	private final ConditionalGet conditionalGet = new ConditionalGet();
+	
 	/**
 	 * Loader listener.
 	 *
@@ -84,6 +103,30 @@ public class TimeZoneFinder {
 		return this;
 	}
 	
+	/**
+	 * Snapshot store, every download is kept there and read from the local copy.
+	 *
+	 * @param snapshotStore the snapshot store
+	 * @return the time zone finder
+	 */
+	public TimeZoneFinder snapshotStore(SnapshotStore snapshotStore){
+		this.snapshotStore = snapshotStore;
+		return this;
+	}
+	
+	/**
+	 * Clock of the lookups at the current time, the time zones already read
+	 * use it straight away.
+	 *
+	 * @param clock the clock
+	 * @return the time zone finder
+	 */
+	public TimeZoneFinder clock(Clock clock){
+		this.clock = clock;
+		this.timeZones = timeZones.withClock(clock);
+		return this;
+	}
+	
 	/**
 	 * Time zones url.
 	 *
@@ -102,30 +145,49 @@ public class TimeZoneFinder {
 	 * @return the time zone
 	 */
 	public TimeZone find(String id){
-		if(StringUtils.isBlank(id)){
-			return null;
-		}
-		TimeZone timeZone = idMap.get(id.trim().toUpperCase());
-		Long currentTimeInSeconds = System.currentTimeMillis()/1000;
-		Offset ceiling = offsetMap.get(timeZone.getId()).floor(new Offset(currentTimeInSeconds));
-		Offset other = offsetMap.get(timeZone.getId()).higher(new Offset(currentTimeInSeconds));
-		if(other==null){
-			other = offsetMap.get(timeZone.getId()).lower(new Offset(ceiling.getTimeStart()));
-		}
-		timeZone.setCurrentOffset(ceiling.getGmtOffset()/OFFSET_UNIT);
-		timeZone.setChangedAt(ceiling.getTimeStart());
-		if(ceiling.getDst()){
-			timeZone.setDtsOffset(ceiling.getGmtOffset()/OFFSET_UNIT);
-			if(other!=null){
-				timeZone.setUtcOffset(other.getGmtOffset()/OFFSET_UNIT);
-			}
-		}else{
-			timeZone.setDtsOffset(other.getGmtOffset()/OFFSET_UNIT);
-			if(other!=null){
-				timeZone.setUtcOffset(ceiling.getGmtOffset()/OFFSET_UNIT);
-			}
-		}
-		return timeZone;
+		return timeZones.find(id);
+	}
+	
+	/**
+	 * Find at an instant.
+	 *
+	 * @param id the id
+	 * @param epochSecond the epoch second
+	 * @return the time zone with the offsets at that instant
+	 */
+	public TimeZone find(String id, long epochSecond){
+		return timeZones.find(id, epochSecond);
+	}
+	
+	/**
+	 * Find at many instants of the same zone.
+	 *
+	 * @param id the id
+	 * @param epochSeconds the epoch seconds, in any order
+	 * @return the time zones, in the order of the epoch seconds
+	 */
+	public TimeZone[] find(String id, long[] epochSeconds){
+		return timeZones.find(id, epochSeconds);
+	}
+	
+	/**
+	 * Current time zones.
+	 *
+	 * @return the time zones
+	 */
+	public TimeZones timeZones(){
+		return timeZones;
+	}
+	
+	/**
+	 * Publishes loaded time zones.
+	 *
+	 * @param timeZones the time zones
+	 * @return the time zone finder
+	 */
+	public TimeZoneFinder publish(TimeZones timeZones){
+		this.timeZones = timeZones;
+		return this;
 	}
 	
 	/**
@@ -134,63 +196,112 @@ public class TimeZoneFinder {
 	 * @return the time zone finder
 	 */
 	public TimeZoneFinder readTimeZones(){
+		return publish(loadTimeZones());
+	}
+	
+	/**
+	 * Loads the time zones without publishing them.
+	 *
+	 * @return the new time zones, or the current ones when they could not be read
+	 */
+	public TimeZones loadTimeZones(){
 		try{
-			readTimeZones(timeZonesUrl);
+			TimeZones loaded = loadTimeZones(timeZonesUrl);
 			loaderListener.success(timeZonesUrl);
+			return loaded;
 		}catch(Exception e){
 			loaderListener.failure(timeZonesUrl, e);
 			logger.error("error loading from remote",e);
 			if(StringUtils.isNotBlank(System.getProperty(TIMEZONES_FAIL_SAFE_URL))){
-				readTimeZones(System.getProperty(TIMEZONES_FAIL_SAFE_URL));
+				return loadTimeZones(System.getProperty(TIMEZONES_FAIL_SAFE_URL));
 			}
 		}
-		return this;
+		return timeZones;
 	}
 	
 	/**
-	 * Read time zones.
+	 * Load time zones.
 	 *
 	 * @param timeZonesLocationUrl the time zones location url
-	 * @return the time zone finder
+	 * @return the time zones, keeping the current offsets or zones when one of them could not be read
 	 */
-	private TimeZoneFinder readTimeZones(String timeZonesLocationUrl){
+	private TimeZones loadTimeZones(String timeZonesLocationUrl){
 		ClosableZipInputStream zipis = null;
+		TimeZones current = timeZones;
+		Map<Integer, Transitions> offsetMap = null;
+		Map<String, TimeZone> idMap = null;
+		ReloadEvent.Recorder event = ReloadEvent.record(ReloadEvent.Dataset.TIME_ZONES, timeZonesLocationUrl);
+		int skipped = 0;
 		try {
 			logger.info("READING timezones database at url {}", timeZonesLocationUrl);
-			zipis = new ClosableZipInputStream(new URL(timeZonesLocationUrl).openStream(), Charset.forName("UTF-8"));
+			ConditionalGet.Response response = open(timeZonesLocationUrl);
+			if(response==null){
+				logger.info("skipp, not modified");
+				event.skipped();
+				return current;
+			}
+			zipis = new ClosableZipInputStream(event.download(response.getInputStream()), Charset.forName("UTF-8"));
 			ZipEntry zipEntry = null;
 			while((zipEntry=zipis.getNextEntry())!=null){
 				logger.info("reading "+zipEntry.getName());
 				if(zipEntry.getName().equalsIgnoreCase(TIMEZONE_FILE_NAME)){
-					if(crcTimezones==zipEntry.getCrc()){
+					if(zipEntry.getCrc()!=-1 && crcTimezones==zipEntry.getCrc()){
 						logger.info("skipp, same CRC");
-						return this;
+						skipped++;
 					}else{
-						loadOffsets(zipis);
+						HashingInputStream hashing = new HashingInputStream(Hashing.md5(), zipis);
+						offsetMap = loadOffsets(hashing);
+						event.parsed(offsetMap.size());
 						zipis.closeEntry();
+						String read = hashing.hash().toString();
+						crcTimezones = zipEntry.getCrc();
+						if(read.equals(digestTimezones)){
+							logger.info("skipp, same digest");
+							offsetMap = null;
+							skipped++;
+						}
+						digestTimezones = read;
 					}
 				}else if(zipEntry.getName().equalsIgnoreCase(ZONE_FILE_NAME)){
-					if(crcZone==zipEntry.getCrc()){
+					if(zipEntry.getCrc()!=-1 && crcZone==zipEntry.getCrc()){
 						logger.info("skipp, same CRC");
-						return this;
+						skipped++;
 					}else{
-						loadZones(zipis);
+						HashingInputStream hashing = new HashingInputStream(Hashing.md5(), zipis);
+						idMap = loadZones(hashing);
+						event.parsed(idMap.size());
 						zipis.closeEntry();
+						String read = hashing.hash().toString();
+						crcZone = zipEntry.getCrc();
+						if(read.equals(digestZone)){
+							logger.info("skipp, same digest");
+							idMap = null;
+							skipped++;
+						}
+						digestZone = read;
 					}
 				}else{
 					logger.info("skip entry: "+zipEntry.getName());
 				}
 			}
-			
+			if(skipped==2){
+				event.skipped();
+			}
+			response.commit();
 		} catch (Exception e) {
+			event.failed(e);
 			logger.error(e.getMessage(),e);
 		}finally {
 			try{zipis.manualClose();}catch(Exception e){};
+			loaderListener.reload(event.finish());
 		}
-		return this;
+		if(offsetMap==null && idMap==null){
+			return current;
+		}
+		return new TimeZones(idMap!=null ? idMap : current.idMap, offsetMap!=null ? offsetMap : current.offsetMap, clock);
 	}
 	
-	private void loadOffsets(ZipInputStream zipis) throws UnsupportedEncodingException{
+	private Map<Integer, Transitions> loadOffsets(InputStream inputStream) throws UnsupportedEncodingException{
 		CsvParserSettings settings = new CsvParserSettings();
 		settings.setSkipEmptyLines(true);
 		settings.setNumberOfRowsToSkip(1);
@@ -203,24 +314,28 @@ public class TimeZoneFinder {
 		settings.setFormat(format);
 		CsvParser parser = new CsvParser(settings);
 		
-		Map<Integer, TreeSet<Offset>> offsetMapRead = new HashMap<>();
-		List<String[]> lines = parser.parseAll(new InputStreamReader(zipis, "UTF-8"));
+		Map<Integer, TransitionsBuilder> builders = new HashMap<>();
+		parser.beginParsing(new InputStreamReader(inputStream, "UTF-8"));
 		
-		for(String[] entry : lines){
-			Offset offset = new Offset(Long.parseLong(entry[2]));
-			offset.setTimezoneId(Integer.parseInt(entry[0]));
-			offset.setGmtOffset(Integer.parseInt(entry[3]));
-			offset.setDst(BooleanUtils.toBooleanObject(Integer.parseInt(entry[4])));
-			if(!offsetMapRead.containsKey(offset.getTimezoneId())){
-				offsetMapRead.put(offset.getTimezoneId(), new TreeSet<>());
+		String[] entry;
+		while((entry=parser.parseNext())!=null){
+			Integer timezoneId = Integer.valueOf(entry[0]);
+			TransitionsBuilder builder = builders.get(timezoneId);
+			if(builder==null){
+				builder = new TransitionsBuilder();
+				builders.put(timezoneId, builder);
 			}
-			offsetMapRead.get(offset.getTimezoneId()).add(offset);
+			builder.add(Long.parseLong(entry[2]), Integer.parseInt(entry[3]), Integer.parseInt(entry[4])!=0);
+		}
+		Map<Integer, Transitions> offsetMapRead = new HashMap<>();
+		for(Map.Entry<Integer, TransitionsBuilder> builder : builders.entrySet()){
+			offsetMapRead.put(builder.getKey(), builder.getValue().build());
 		}
-		this.offsetMap = offsetMapRead;
 		logger.info("loaded "+offsetMapRead.size()+" time zones offsets");
+		return offsetMapRead;
 	}
 	
-	private void loadZones(ZipInputStream zipis) throws UnsupportedEncodingException{
+	private Map<String, TimeZone> loadZones(InputStream inputStream) throws UnsupportedEncodingException{
 		CsvParserSettings settings = new CsvParserSettings();
 		settings.setSkipEmptyLines(true);
 		settings.setNumberOfRowsToSkip(1);
@@ -234,17 +349,479 @@ public class TimeZoneFinder {
 		CsvParser parser = new CsvParser(settings);
 		
 		Map<String, TimeZone> idMapRead = new HashMap<>();
-		List<String[]> lines = parser.parseAll(new InputStreamReader(zipis, "UTF-8"));
+		parser.beginParsing(new InputStreamReader(inputStream, "UTF-8"));
 		
-		for(String[] entry : lines){
-			TimeZone timeZone = new TimeZone();
-			timeZone.setId(Integer.parseInt(entry[0]));
-			timeZone.setCountryIso(entry[1]);
-			timeZone.setName(entry[2]);
+		String[] entry;
+		StringPool pool = new StringPool();
+		while((entry=parser.parseNext())!=null){
+			TimeZone timeZone = new TimeZone(Integer.parseInt(entry[0]), pool.pool(entry[1]), entry[2]);
 			idMapRead.put(timeZone.getName().trim().toUpperCase(), timeZone);
 		}
-		this.idMap = idMapRead;
 		logger.info("loaded "+idMapRead.size()+" time zones");
+		return idMapRead;
+	}
+	
+	/**
+	 * Reads the latest local snapshot of the time zones, without any remote call.
+	 *
+	 * @return true, if there was a snapshot to read
+	 */
+	public boolean readSnapshot(){
+		File snapshot = snapshotStore==null ? null : snapshotStore.latest(timeZonesUrl);
+		if(snapshot==null){
+			return false;
+		}
+		publish(loadTimeZones(snapshot.toURI().toString()));
+		return true;
+	}
+	
+	/**
+	 * Opens the url, through the snapshot store when there is one, and
+	 * conditional on the last response read from it.
+	 *
+	 * @param url the url
+	 * @return the response or null when it was not modified
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private ConditionalGet.Response open(String url) throws IOException{
+		return conditionalGet.open(url, snapshotStore);
+	}
+	
+	/**
+	 * Loaded time zones with their transitions, the maps are never modified
+	 * once built.
+	 */
+	public static final class TimeZones {
+		
+		/** The id map. */
+		private final Map<String, TimeZone> idMap;
+		
+		/** The offset map. */
+		private final Map<Integer, Transitions> offsetMap;
+		
+		/** The zones by their name as loaded. */
+		private final Map<String, Zone> names = new HashMap<>();
+		
+		/** The zones by their upper cased name. */
+		private final Map<String, Zone> zones;
+		
+		/** The clock. */
+		private final Clock clock;
+		
+		/**
+		 * Instantiates new time zones.
+		 *
+		 * @param idMap the id map
+		 * @param offsetMap the offset map
+		 * @param clock the clock
+		 */
+		TimeZones(Map<String, TimeZone> idMap, Map<Integer, Transitions> offsetMap, Clock clock){
+			this.idMap = idMap;
+			this.offsetMap = offsetMap;
+			this.zones = new HashMap<>();
+			this.clock = clock;
+			for(Map.Entry<String, TimeZone> entry : idMap.entrySet()){
+				Transitions transitions = offsetMap.get(entry.getValue().getId());
+				Zone zone = new Zone(entry.getValue(), transitions==null ? Transitions.EMPTY : transitions);
+				zones.put(entry.getKey(), zone);
+				names.put(entry.getValue().getName(), zone);
+			}
+		}
+		
+		/**
+		 * Same time zones with another clock.
+		 *
+		 * @param clock the clock
+		 * @return the time zones
+		 */
+		TimeZones withClock(Clock clock){
+			return new TimeZones(this, clock);
+		}
+		
+		/**
+		 * Instantiates new time zones sharing the zones of others.
+		 *
+		 * @param timeZones the time zones
+		 * @param clock the clock
+		 */
+		private TimeZones(TimeZones timeZones, Clock clock){
+			this.idMap = timeZones.idMap;
+			this.offsetMap = timeZones.offsetMap;
+			this.names.putAll(timeZones.names);
+			this.zones = timeZones.zones;
+			this.clock = clock;
+		}
+		
+		/**
+		 * Find.
+		 *
+		 * @param id the id
+		 * @return the time zone with the offsets of the current period
+		 */
+		public TimeZone find(String id){
+			Zone zone = zone(id);
+			return zone==null ? null : zone.at(clock.millis()/1000);
+		}
+		
+		/**
+		 * Find at an instant.
+		 *
+		 * @param id the id
+		 * @param epochSecond the epoch second
+		 * @return the time zone with the offsets at that instant
+		 */
+		public TimeZone find(String id, long epochSecond){
+			Zone zone = zone(id);
+			return zone==null ? null : zone.find(epochSecond);
+		}
+		
+		/**
+		 * Find at many instants of the same zone, the instants are visited in
+		 * order so the transitions are walked only once.
+		 *
+		 * @param id the id
+		 * @param epochSeconds the epoch seconds, in any order
+		 * @return the time zones, in the order of the epoch seconds, all null when the zone is unknown
+		 */
+		public TimeZone[] find(String id, long[] epochSeconds){
+			TimeZone[] result = new TimeZone[epochSeconds.length];
+			Zone zone = zone(id);
+			if(zone==null || epochSeconds.length==0){
+				return result;
+			}
+			int[] order = order(epochSeconds);
+			int index = zone.index(epochSeconds[order[0]]);
+			Period period = zone.period(index);
+			for(int i : order){
+				long epochSecond = epochSeconds[i];
+				if(epochSecond>=period.until){
+					index = zone.next(index, epochSecond);
+					period = zone.period(index);
+				}
+				result[i] = period.timeZone;
+			}
+			return result;
+		}
+		
+		/**
+		 * Time zone of a zone at the current instant.
+		 *
+		 * @param zone the zone, may be null
+		 * @return the time zone with the offsets of the current period
+		 */
+		public TimeZone find(Zone zone){
+			return zone==null ? null : zone.at(clock.millis()/1000);
+		}
+		
+		/**
+		 * Zone of an id, as loaded or ignoring case and surrounding spaces.
+		 *
+		 * @param id the id
+		 * @return the zone
+		 */
+		public Zone zone(String id){
+			if(StringUtils.isBlank(id)){
+				return null;
+			}
+			Zone zone = names.get(id);
+			if(zone==null){
+				zone = zones.get(id.trim().toUpperCase());
+			}
+			return zone;
+		}
+	}
+	
+	/**
+	 * Positions of the values in ascending order, the identity when they are
+	 * already sorted.
+	 *
+	 * @param values the values
+	 * @return the order
+	 */
+	static int[] order(long[] values){
+		int[] order = new int[values.length];
+		boolean sorted = true;
+		for(int i=0;i<values.length;i++){
+			order[i] = i;
+			sorted &= i==0 || values[i-1]<=values[i];
+		}
+		if(!sorted){
+			sort(order, values, 0, values.length-1);
+		}
+		return order;
+	}
+	
+	/**
+	 * Quicksort of positions by their value.
+	 *
+	 * @param order the order
+	 * @param values the values
+	 * @param left the left, inclusive
+	 * @param right the right, inclusive
+	 */
+	private static void sort(int[] order, long[] values, int left, int right){
+		while(right>left){
+			long pivot = values[order[(left+right)>>>1]];
+			int i = left;
+			int j = right;
+			while(i<=j){
+				while(values[order[i]]<pivot){
+					i++;
+				}
+				while(values[order[j]]>pivot){
+					j--;
+				}
+				if(i<=j){
+					int swap = order[i];
+					order[i++] = order[j];
+					order[j--] = swap;
+				}
+			}
+			if(j-left<right-i){
+				sort(order, values, left, j);
+				left = i;
+			}else{
+				sort(order, values, i, right);
+				right = j;
+			}
+		}
+	}
+	
+	/**
+	 * A time zone and its transitions, with the period of the last lookup
+	 * cached until its next transition.
+	 */
+	public static final class Zone {
+		
+		/** The time zone, without offsets. */
+		private final TimeZone timeZone;
+		
+		/** The transitions. */
+		private final Transitions transitions;
+		
+		/** The period of the last lookup. */
+		private volatile Period period;
+		
+		/**
+		 * Instantiates a new zone.
+		 *
+		 * @param timeZone the time zone
+		 * @param transitions the transitions
+		 */
+		Zone(TimeZone timeZone, Transitions transitions){
+			this.timeZone = timeZone;
+			this.transitions = transitions;
+		}
+		
+		/**
+		 * Time zone at the current instant, its period is kept for the next
+		 * lookups.
+		 *
+		 * @param epochSecond the epoch second
+		 * @return the time zone
+		 */
+		TimeZone at(long epochSecond){
+			Period period = this.period;
+			if(period==null || epochSecond<period.from || epochSecond>=period.until){
+				period = period(index(epochSecond));
+				this.period = period;
+			}
+			return period.timeZone;
+		}
+		
+		/**
+		 * Time zone at any instant, the kept period is used but not replaced.
+		 *
+		 * @param epochSecond the epoch second
+		 * @return the time zone
+		 */
+		TimeZone find(long epochSecond){
+			Period period = this.period;
+			if(period==null || epochSecond<period.from || epochSecond>=period.until){
+				period = period(index(epochSecond));
+			}
+			return period.timeZone;
+		}
+		
+		/**
+		 * Index of the last transition at or before an instant.
+		 *
+		 * @param epochSecond the epoch second
+		 * @return the index, -1 when it is before the first transition
+		 */
+		int index(long epochSecond){
+			int index = Arrays.binarySearch(transitions.starts, epochSecond);
+			return index<0 ? -index-2 : index;
+		}
+		
+		/**
+		 * Walks forward from a transition to the last one at or before a later
+		 * instant.
+		 *
+		 * @param index the index
+		 * @param epochSecond the epoch second
+		 * @return the index
+		 */
+		int next(int index, long epochSecond){
+			long[] starts = transitions.starts;
+			while(index+1<starts.length && starts[index+1]<=epochSecond){
+				index++;
+			}
+			return index;
+		}
+		
+		/**
+		 * Period starting at a transition. The current offset is the one of
+		 * the transition, the other offset the one of the next transition or
+		 * of the previous one when there is no next.
+		 *
+		 * @param index the index of the transition, -1 before the first one
+		 * @return the period
+		 */
+		Period period(int index){
+			long[] starts = transitions.starts;
+			if(index<0){
+				return new Period(Long.MIN_VALUE, starts.length==0 ? Long.MAX_VALUE : starts[0], timeZone);
+			}
+			int other = index+1<starts.length ? index+1 : index-1;
+			Double currentOffset = transitions.offsets[index]/OFFSET_UNIT;
+			Double otherOffset = other<0 ? null : transitions.offsets[other]/OFFSET_UNIT;
+			Double dtsOffset = transitions.dsts[index] ? currentOffset : otherOffset;
+			Double utcOffset = transitions.dsts[index] ? otherOffset : currentOffset;
+			return new Period(starts[index], index+1<starts.length ? starts[index+1] : Long.MAX_VALUE,
+					new TimeZone(timeZone.getId(), timeZone.getCountryIso(), timeZone.getName(), dtsOffset, utcOffset,
+							currentOffset, starts[index]));
+		}
+	}
+	
+	/**
+	 * The time zone between two transitions.
+	 */
+	private static final class Period {
+		
+		/** The first second of the period. */
+		private final long from;
+		
+		/** The first second after the period. */
+		private final long until;
+		
+		/** The time zone. */
+		private final TimeZone timeZone;
+		
+		/**
+		 * Instantiates a new period.
+		 *
+		 * @param from the from
+		 * @param until the until
+		 * @param timeZone the time zone
+		 */
+		Period(long from, long until, TimeZone timeZone){
+			this.from = from;
+			this.until = until;
+			this.timeZone = timeZone;
+		}
+	}
+	
+	/**
+	 * Transitions of a time zone in parallel arrays sorted by start.
+	 */
+	static final class Transitions {
+		
+		/** The Constant EMPTY. */
+		static final Transitions EMPTY = new Transitions(new long[0], new int[0], new boolean[0]);
+		
+		/** The starts, epoch seconds. */
+		private final long[] starts;
+		
+		/** The gmt offsets, seconds. */
+		private final int[] offsets;
+		
+		/** The daylight saving flags. */
+		private final boolean[] dsts;
+		
+		/**
+		 * Instantiates new transitions.
+		 *
+		 * @param starts the starts
+		 * @param offsets the offsets
+		 * @param dsts the dsts
+		 */
+		Transitions(long[] starts, int[] offsets, boolean[] dsts){
+			this.starts = starts;
+			this.offsets = offsets;
+			this.dsts = dsts;
+		}
+	}
+	
+	/**
+	 * Collects the transitions of a time zone in file order.
+	 */
+	private static final class TransitionsBuilder {
+		
+		/** The Constant ROW_BITS, bits of the row number in a sort key. */
+		private static final int ROW_BITS = 20;
+		
+		/** The starts. */
+		private long[] starts = new long[64];
+		
+		/** The offsets. */
+		private int[] offsets = new int[64];
+		
+		/** The dsts. */
+		private boolean[] dsts = new boolean[64];
+		
+		/** The size. */
+		private int size;
+		
+		/**
+		 * Adds a transition.
+		 *
+		 * @param start the start
+		 * @param offset the offset
+		 * @param dst the dst
+		 */
+		void add(long start, int offset, boolean dst){
+			if(size==1<<ROW_BITS){
+				throw new IllegalArgumentException("too many transitions for a time zone");
+			}
+			if(size==starts.length){
+				starts = Arrays.copyOf(starts, size*2);
+				offsets = Arrays.copyOf(offsets, size*2);
+				dsts = Arrays.copyOf(dsts, size*2);
+			}
+			starts[size] = start;
+			offsets[size] = offset;
+			dsts[size++] = dst;
+		}
+		
+		/**
+		 * Sorts the transitions by start, the first one in file order wins
+		 * when two start at the same second.
+		 *
+		 * @return the transitions
+		 */
+		Transitions build(){
+			long[] keys = new long[size];
+			for(int i=0;i<size;i++){
+				keys[i] = (starts[i]<<ROW_BITS) | i;
+			}
+			Arrays.sort(keys);
+			long[] sortedStarts = new long[size];
+			int[] sortedOffsets = new int[size];
+			boolean[] sortedDsts = new boolean[size];
+			int count = 0;
+			for(long key : keys){
+				int row = (int) (key & ((1<<ROW_BITS)-1));
+				if(count>0 && sortedStarts[count-1]==starts[row]){
+					continue;
+				}
+				sortedStarts[count] = starts[row];
+				sortedOffsets[count] = offsets[row];
+				sortedDsts[count++] = dsts[row];
+			}
+			return new Transitions(Arrays.copyOf(sortedStarts, count), Arrays.copyOf(sortedOffsets, count),
+					Arrays.copyOf(sortedDsts, count));
+		}
 	}
 	
 }
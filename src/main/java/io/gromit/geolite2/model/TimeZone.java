@@ -20,64 +20,82 @@ import org.apache.commons.lang3.builder.ToStringStyle;
 
 /**
  * The Class TimeZone.
+ *
+ * Immutable, the offsets are the ones of the period the time zone was found
+ * for.
  */
-public class TimeZone {
+public final class TimeZone {
 
 	/** The country iso. */
-	private String countryIso;
+	private final String countryIso;
 	
 	/** The id. */
-	private Integer id;
+	private final Integer id;
 	
 	/** The name. */
-	private String name;
+	private final String name;
 	
 	/** The dtsoffset. */
-	private Double dtsOffset;
+	private final Double dtsOffset;
 	
 	/** The utc offset. */
-	private Double utcOffset;
+	private final Double utcOffset;
 	
 	/** The current offset. */
-	private Double currentOffset;
+	private final Double currentOffset;
 	
 	/** The changed at. */
-	private Long changedAt;
+	private final Long changedAt;
 	
 	/**
-	 * Gets the country iso.
+	 * Instantiates a new time zone without offsets.
 	 *
-	 * @return the country iso
+	 * @param id the id
+	 * @param countryIso the country iso
+	 * @param name the name
 	 */
-	public String getCountryIso() {
-		return countryIso;
+	public TimeZone(Integer id, String countryIso, String name) {
+		this(id, countryIso, name, null, null, null, null);
 	}
-
+	
 	/**
-	 * Sets the country iso.
+	 * Instantiates a new time zone.
 	 *
-	 * @param countryIso the new country iso
+	 * @param id the id
+	 * @param countryIso the country iso
+	 * @param name the name
+	 * @param dtsOffset the dts offset
+	 * @param utcOffset the utc offset
+	 * @param currentOffset the current offset
+	 * @param changedAt the changed at
 	 */
-	public void setCountryIso(String countryIso) {
+	public TimeZone(Integer id, String countryIso, String name, Double dtsOffset, Double utcOffset,
+			Double currentOffset, Long changedAt) {
+		this.id = id;
 		this.countryIso = countryIso;
+		this.name = name;
+		this.dtsOffset = dtsOffset;
+		this.utcOffset = utcOffset;
+		this.currentOffset = currentOffset;
+		this.changedAt = changedAt;
 	}
-
+	
 	/**
-	 * Gets the id.
+	 * Gets the country iso.
 	 *
-	 * @return the id
+	 * @return the country iso
 	 */
-	public Integer getId() {
-		return id;
+	public String getCountryIso() {
+		return countryIso;
 	}
 
 	/**
-	 * Sets the id.
+	 * Gets the id.
 	 *
-	 * @param id the new id
+	 * @return the id
 	 */
-	public void setId(Integer id) {
-		this.id = id;
+	public Integer getId() {
+		return id;
 	}
 
 	/**
@@ -89,15 +107,6 @@ public class TimeZone {
 		return dtsOffset;
 	}
 
-	/**
-	 * Sets the dts offset.
-	 *
-	 * @param dtsOffset the new dts offset
-	 */
-	public void setDtsOffset(Double dtsOffset) {
-		this.dtsOffset = dtsOffset;
-	}
-
 	/**
 	 * Gets the utc offset.
 	 *
@@ -107,15 +116,6 @@ public class TimeZone {
 		return utcOffset;
 	}
 
-	/**
-	 * Sets the utc offset.
-	 *
-	 * @param utcOffset the new utc offset
-	 */
-	public void setUtcOffset(Double utcOffset) {
-		this.utcOffset = utcOffset;
-	}
-
 	/**
 	 * Gets the current offset.
 	 *
@@ -125,15 +125,6 @@ public class TimeZone {
 		return currentOffset;
 	}
 
-	/**
-	 * Sets the current offset.
-	 *
-	 * @param currentOffset the new current offset
-	 */
-	public void setCurrentOffset(Double currentOffset) {
-		this.currentOffset = currentOffset;
-	}
-
 	/**
 	 * Gets the changed at.
 	 *
@@ -143,15 +134,6 @@ public class TimeZone {
 		return changedAt;
 	}
 
-	/**
-	 * Sets the changed at.
-	 *
-	 * @param nextOffset the new changed at
-	 */
-	public void setChangedAt(Long nextOffset) {
-		this.changedAt = nextOffset;
-	}
-
 	/**
 	 * Gets the name.
 	 *
@@ -161,15 +143,6 @@ public class TimeZone {
 		return name;
 	}
 
-	/**
-	 * Sets the name.
-	 *
-	 * @param name the new name
-	 */
-	public void setName(String name) {
-		this.name = name;
-	}
-
 	/*
 	 * (non-Javadoc)
 	 * 
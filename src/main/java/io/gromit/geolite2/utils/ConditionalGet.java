@@ -0,0 +1,213 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The Class ConditionalGet.
+ *
+ * Opens urls with the ETag and Last-Modified of the last response committed
+ * for them, so an unchanged http url costs a single not modified response.
+ * A response is only committed once its content was read successfully, a
+ * failed load is fetched whole again next time. Urls other than http are
+ * always opened. With a snapshot store the content is read from a pending
+ * file, which becomes a snapshot when the response is committed and is
+ * deleted otherwise.
+ */
+public class ConditionalGet {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ConditionalGet.class);
+
+	/** The validators of the last committed response of every url. */
+	private final Map<String, Validators> validators = new ConcurrentHashMap<>();
+
+	/**
+	 * Opens the url, remote urls are saved in a pending file of the snapshot
+	 * store when there is one and read from it.
+	 *
+	 * @param url the url
+	 * @param snapshotStore the snapshot store, may be null
+	 * @return the response or null when it was not modified
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public Response open(String url, SnapshotStore snapshotStore) throws IOException {
+		URLConnection connection = new URL(url).openConnection();
+		if (!(connection instanceof HttpURLConnection)) {
+			InputStream inputStream = connection.getInputStream();
+			if (snapshotStore == null || url.startsWith("file:")) {
+				return new Response(url, inputStream, null, null, null);
+			}
+			return new Response(url, null, null, snapshotStore, snapshotStore.pending(url, inputStream));
+		}
+		HttpURLConnection http = (HttpURLConnection) connection;
+		Validators last = validators.get(url);
+		if (last != null) {
+			if (last.etag != null) {
+				http.setRequestProperty("If-None-Match", last.etag);
+			}
+			if (last.lastModified > 0) {
+				http.setIfModifiedSince(last.lastModified);
+			}
+		}
+		if (http.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			http.disconnect();
+			return null;
+		}
+		InputStream inputStream = http.getInputStream();
+		String etag = http.getHeaderField("ETag");
+		long lastModified = http.getLastModified();
+		Validators responseValidators = etag != null || lastModified > 0 ? new Validators(etag, lastModified) : null;
+		if (snapshotStore == null) {
+			return new Response(url, inputStream, responseValidators, null, null);
+		}
+		return new Response(url, null, responseValidators, snapshotStore, snapshotStore.pending(url, inputStream));
+	}
+
+	/**
+	 * Checks if the last committed response of the url had validators, so
+	 * the next one is conditional.
+	 *
+	 * @param url the url
+	 * @return true, if validated
+	 */
+	public boolean isValidated(String url) {
+		return validators.containsKey(url);
+	}
+
+	/**
+	 * A response.
+	 */
+	public final class Response {
+
+		/** The url. */
+		private final String url;
+
+		/** The input stream. */
+		private final InputStream inputStream;
+
+		/** The validators, null when there are none. */
+		private final Validators responseValidators;
+
+		/** The snapshot store, null when there is none. */
+		private final SnapshotStore snapshotStore;
+
+		/** The pending file of the snapshot store, null when there is none. */
+		private final File pending;
+
+		/** Whether it was committed. */
+		private volatile boolean committed;
+
+		/**
+		 * Instantiates a new response, read from the pending file when there
+		 * is one.
+		 *
+		 * @param url the url
+		 * @param inputStream the input stream, null to read the pending file
+		 * @param responseValidators the response validators
+		 * @param snapshotStore the snapshot store
+		 * @param pending the pending file
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 */
+		private Response(String url, InputStream inputStream, Validators responseValidators,
+				SnapshotStore snapshotStore, final File pending) throws IOException {
+			this.url = url;
+			this.responseValidators = responseValidators;
+			this.snapshotStore = snapshotStore;
+			this.pending = pending;
+			this.inputStream = pending == null ? inputStream : new FileInputStream(pending) {
+				@Override
+				public void close() throws IOException {
+					super.close();
+					if (!committed && pending.exists() && !pending.delete()) {
+						logger.warn("could not delete {}", pending);
+					}
+				}
+			};
+		}
+
+		/**
+		 * Gets the input stream.
+		 *
+		 * @return the input stream
+		 */
+		public InputStream getInputStream() {
+			return inputStream;
+		}
+
+		/**
+		 * Commits the response once its content was loaded, the next request
+		 * of the url is conditional on it and the pending file becomes the
+		 * latest snapshot.
+		 */
+		public void commit() {
+			boolean promote = pending != null && !committed;
+			committed = true;
+			if (promote) {
+				IOUtils.closeQuietly(inputStream);
+				try {
+					snapshotStore.promote(url, pending);
+				} catch (IOException e) {
+					logger.warn("could not save the snapshot of " + url, e);
+				}
+			}
+			if (responseValidators == null) {
+				validators.remove(url);
+			} else {
+				validators.put(url, responseValidators);
+			}
+		}
+
+	}
+
+	/**
+	 * The validators of a response.
+	 */
+	private static final class Validators {
+
+		/** The etag, may be null. */
+		private final String etag;
+
+		/** The last modified, 0 when unknown. */
+		private final long lastModified;
+
+		/**
+		 * Instantiates new validators.
+		 *
+		 * @param etag the etag
+		 * @param lastModified the last modified
+		 */
+		private Validators(String etag, long lastModified) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+	}
+
+}
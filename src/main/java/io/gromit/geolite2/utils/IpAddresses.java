@@ -0,0 +1,278 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2.utils;
+
+/**
+ * The Class IpAddresses.
+ *
+ * Strict ipv4 and ipv6 literal parsing into a caller supplied buffer, no
+ * allocation and never a DNS lookup. Only dotted quads and the RFC 4291 text
+ * forms are accepted, hostnames, brackets and zone ids are rejected.
+ */
+public final class IpAddresses {
+
+	/**
+	 * Instantiates a new ip addresses.
+	 */
+	private IpAddresses() {
+	}
+
+	/**
+	 * Parses an ip literal.
+	 *
+	 * @param ip the ip
+	 * @param address the address, at least 16 bytes
+	 * @return 4 or 16 bytes written, -1 when it is not a valid literal
+	 */
+	public static int parse(CharSequence ip, byte[] address) {
+		if (ip == null || ip.length() == 0) {
+			return -1;
+		}
+		for (int i = 0; i < ip.length(); i++) {
+			char c = ip.charAt(i);
+			if (c == ':') {
+				return parseIpv6(ip, address) ? 16 : -1;
+			}
+			if (c == '.') {
+				return parseIpv4(ip, 0, ip.length(), address, 0) ? 4 : -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Parses a dotted quad.
+	 *
+	 * @param ip the ip
+	 * @param start the start
+	 * @param end the end
+	 * @param address the address
+	 * @param offset the offset to write the 4 bytes
+	 * @return true, if valid
+	 */
+	static boolean parseIpv4(CharSequence ip, int start, int end, byte[] address, int offset) {
+		int part = 0;
+		int i = start;
+		while (part < 4) {
+			int value = 0;
+			int digits = 0;
+			while (i < end && digits < 4) {
+				char c = ip.charAt(i);
+				if (c < '0' || c > '9') {
+					break;
+				}
+				value = value * 10 + (c - '0');
+				digits++;
+				i++;
+			}
+			if (digits == 0 || digits > 3 || value > 255) {
+				return false;
+			}
+			address[offset + part++] = (byte) value;
+			if (part < 4) {
+				if (i >= end || ip.charAt(i) != '.') {
+					return false;
+				}
+				i++;
+			}
+		}
+		return i == end;
+	}
+
+	/**
+	 * Value of an ascii hex digit.
+	 *
+	 * @param c the char
+	 * @return the value or -1 when it is not an ascii hex digit
+	 */
+	private static int hex(char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		}
+		if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		}
+		if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+		return -1;
+	}
+
+	/**
+	 * Parses an ipv6 literal, with an optional dotted quad at the end.
+	 *
+	 * @param ip the ip
+	 * @param address the address
+	 * @return true, if valid
+	 */
+	static boolean parseIpv6(CharSequence ip, byte[] address) {
+		int end = ip.length();
+		int groups = 0;
+		int compressed = -1;
+		int i = 0;
+		if (ip.charAt(0) == ':') {
+			if (end < 2 || ip.charAt(1) != ':') {
+				return false;
+			}
+			compressed = 0;
+			i = 2;
+		}
+		while (i < end) {
+			int value = 0;
+			int digits = 0;
+			int j = i;
+			while (j < end) {
+				int hex = hex(ip.charAt(j));
+				if (hex < 0) {
+					break;
+				}
+				value = (value << 4) | hex;
+				digits++;
+				j++;
+			}
+			if (j < end && ip.charAt(j) == '.') {
+				if (groups > 6 || !parseIpv4(ip, i, end, address, groups * 2)) {
+					return false;
+				}
+				groups += 2;
+				i = end;
+				break;
+			}
+			if (digits == 0 || digits > 4 || groups == 8) {
+				return false;
+			}
+			address[groups * 2] = (byte) (value >>> 8);
+			address[groups * 2 + 1] = (byte) value;
+			groups++;
+			if (j == end) {
+				i = end;
+				break;
+			}
+			if (ip.charAt(j) != ':') {
+				return false;
+			}
+			if (j + 1 < end && ip.charAt(j + 1) == ':') {
+				if (compressed >= 0) {
+					return false;
+				}
+				compressed = groups;
+				i = j + 2;
+			} else {
+				i = j + 1;
+				if (i == end) {
+					return false;
+				}
+			}
+		}
+		if (compressed < 0) {
+			return groups == 8;
+		}
+		if (groups > 7) {
+			return false;
+		}
+		int tail = (groups - compressed) * 2;
+		int gap = 16 - groups * 2;
+		System.arraycopy(address, compressed * 2, address, compressed * 2 + gap, tail);
+		for (int k = compressed * 2; k < compressed * 2 + gap; k++) {
+			address[k] = 0;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes an ipv4 address.
+	 *
+	 * @param ipv4 the ipv4
+	 * @param address the address
+	 * @return 4
+	 */
+	public static int write(int ipv4, byte[] address) {
+		address[0] = (byte) (ipv4 >>> 24);
+		address[1] = (byte) (ipv4 >>> 16);
+		address[2] = (byte) (ipv4 >>> 8);
+		address[3] = (byte) ipv4;
+		return 4;
+	}
+
+	/**
+	 * Writes an ipv6 address.
+	 *
+	 * @param hi the high 64 bits
+	 * @param lo the low 64 bits
+	 * @param address the address
+	 * @return 16
+	 */
+	public static int write(long hi, long lo, byte[] address) {
+		for (int i = 0; i < 8; i++) {
+			address[i] = (byte) (hi >>> (56 - i * 8));
+			address[8 + i] = (byte) (lo >>> (56 - i * 8));
+		}
+		return 16;
+	}
+
+	/**
+	 * Formats an address the same way InetAddress.getHostAddress() does,
+	 * ipv4 mapped ipv6 addresses are formatted as ipv4.
+	 *
+	 * @param address the address
+	 * @param offset the offset
+	 * @param length 4 or 16
+	 * @return the string
+	 */
+	public static String format(byte[] address, int offset, int length) {
+		StringBuilder builder = new StringBuilder(39);
+		if (length == 16 && isIpv4Mapped(address, offset)) {
+			offset += 12;
+			length = 4;
+		}
+		if (length == 4) {
+			for (int i = 0; i < 4; i++) {
+				if (i > 0) {
+					builder.append('.');
+				}
+				builder.append(address[offset + i] & 0xFF);
+			}
+		} else if (length == 16) {
+			for (int i = 0; i < 8; i++) {
+				if (i > 0) {
+					builder.append(':');
+				}
+				builder.append(Integer.toHexString(((address[offset + i * 2] & 0xFF) << 8)
+						| (address[offset + i * 2 + 1] & 0xFF)));
+			}
+		} else {
+			throw new IllegalArgumentException("invalid address length " + length);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Checks if is ipv4 mapped, ::ffff:a.b.c.d.
+	 *
+	 * @param address the address
+	 * @param offset the offset
+	 * @return true, if is ipv4 mapped
+	 */
+	public static boolean isIpv4Mapped(byte[] address, int offset) {
+		for (int i = 0; i < 10; i++) {
+			if (address[offset + i] != 0) {
+				return false;
+			}
+		}
+		return address[offset + 10] == (byte) 0xFF && address[offset + 11] == (byte) 0xFF;
+	}
+
+}
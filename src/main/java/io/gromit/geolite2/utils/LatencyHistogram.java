@@ -0,0 +1,163 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Class LatencyHistogram.
+ *
+ * Log linear histogram of non negative values, in the way of HdrHistogram.
+ * Values under 256 have their own bucket, larger ones share a bucket with
+ * the values of the same 8 most significant bits, so every value is kept
+ * with a relative error of at most 1/128, under 1%. Values are recorded
+ * with a single atomic increment and never allocate, values above 2^40
+ * (about 18 minutes in nanos) are recorded as 2^40.
+ */
+public class LatencyHistogram {
+
+	/** The significant bits of a bucket. */
+	private static final int SUB_BUCKET_BITS = 8;
+
+	/** The buckets with a value of their own. */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/** The buckets of every power of two above them. */
+	private static final int HALF_SUB_BUCKETS = SUB_BUCKETS >> 1;
+
+	/** The highest value recorded as it is. */
+	public static final long MAX_VALUE = (1L << 40) - 1;
+
+	/** The counts by bucket. */
+	private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+
+	/** The sum of the values. */
+	private final LongAdder sum = new LongAdder();
+
+	/**
+	 * Records a value, negative values as 0.
+	 *
+	 * @param value the value
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		} else if (value > MAX_VALUE) {
+			value = MAX_VALUE;
+		}
+		counts.incrementAndGet(index(value));
+		sum.add(value);
+	}
+
+	/**
+	 * Count of the recorded values.
+	 *
+	 * @return the count
+	 */
+	public long count() {
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * Mean of the recorded values.
+	 *
+	 * @return the mean or 0 when there is none
+	 */
+	public double mean() {
+		long count = count();
+		return count == 0 ? 0 : sum.sum() / (double) count;
+	}
+
+	/**
+	 * Value at a percentile, the highest value of its bucket.
+	 *
+	 * @param percentile the percentile, from 0 to 100
+	 * @return the value or 0 when there is none
+	 */
+	public long percentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("invalid percentile " + percentile);
+		}
+		long[] snapshot = new long[counts.length()];
+		long count = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		int last = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			if (snapshot[i] == 0) {
+				continue;
+			}
+			seen += snapshot[i];
+			last = i;
+			if (seen >= rank) {
+				break;
+			}
+		}
+		return highest(last);
+	}
+
+	/**
+	 * Resets the counts, values recorded meanwhile may be kept or not.
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		sum.reset();
+	}
+
+	/**
+	 * Bucket of a value.
+	 *
+	 * @param value the value
+	 * @return the index
+	 */
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+		return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+	}
+
+	/**
+	 * Highest value of a bucket.
+	 *
+	 * @param index the index
+	 * @return the value
+	 */
+	static long highest(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+		long mantissa = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+}
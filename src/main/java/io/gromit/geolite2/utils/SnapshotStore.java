@@ -0,0 +1,209 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * The Class SnapshotStore.
+ *
+ * Keeps versioned local copies of the downloaded datasets so a restart can
+ * load them without any remote call. Every download is written to a pending
+ * file and, once it was loaded, promoted by renaming it to
+ * {@code <name>-<url hash>.<millis>}, a download identical to the latest
+ * version is discarded and only the newest versions are kept. Local file urls, snapshots included, are read in place
+ * by {@link ConditionalGet}.
+ */
+public class SnapshotStore {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(SnapshotStore.class);
+
+	/** The directory. */
+	private final File directory;
+
+	/** The versions to keep. */
+	private final int versions;
+
+	/**
+	 * Instantiates a new snapshot store keeping the last two versions.
+	 *
+	 * @param directory the directory
+	 */
+	public SnapshotStore(File directory) {
+		this(directory, 2);
+	}
+
+	/**
+	 * Instantiates a new snapshot store.
+	 *
+	 * @param directory the directory
+	 * @param versions the versions to keep
+	 */
+	public SnapshotStore(File directory, int versions) {
+		if (versions < 1) {
+			throw new IllegalArgumentException("at least one version must be kept");
+		}
+		this.directory = directory;
+		this.versions = versions;
+	}
+
+	/**
+	 * Writes the content of the url to a pending file, it is not a version
+	 * until it is promoted.
+	 *
+	 * @param url the url
+	 * @param content the content, always closed
+	 * @return the pending file
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public File pending(String url, InputStream content) throws IOException {
+		if (!directory.mkdirs() && !directory.isDirectory()) {
+			IOUtils.closeQuietly(content);
+			throw new IOException("could not create " + directory);
+		}
+		File temp = File.createTempFile(key(url), ".tmp", directory);
+		boolean written = false;
+		try {
+			FileOutputStream outputStream = new FileOutputStream(temp);
+			try {
+				IOUtils.copy(content, outputStream);
+				outputStream.getFD().sync();
+			} finally {
+				IOUtils.closeQuietly(outputStream);
+			}
+			written = true;
+			return temp;
+		} finally {
+			IOUtils.closeQuietly(content);
+			if (!written && !temp.delete()) {
+				logger.warn("could not delete {}", temp);
+			}
+		}
+	}
+
+	/**
+	 * Promotes a pending file to the latest version of the url, it is
+	 * discarded when identical to the latest version.
+	 *
+	 * @param url the url
+	 * @param pending the pending file, built by {@link #pending(String, InputStream)}
+	 * @return the snapshot file
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized File promote(String url, File pending) throws IOException {
+		String key = key(url);
+		try {
+			File latest = latest(url);
+			if (latest != null && com.google.common.io.Files.equal(pending, latest)) {
+				logger.info("snapshot of {} unchanged", url);
+				return latest;
+			}
+			long version = System.currentTimeMillis();
+			File file;
+			while ((file = new File(directory, String.format("%s.%019d", key, version))).exists()) {
+				version++;
+			}
+			Files.move(pending.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			logger.info("saved snapshot of {} as {}", url, file);
+			prune(key);
+			return file;
+		} finally {
+			if (pending.exists() && !pending.delete()) {
+				logger.warn("could not delete {}", pending);
+			}
+		}
+	}
+
+	/**
+	 * Latest version of the url.
+	 *
+	 * @param url the url
+	 * @return the file or null when there is none
+	 */
+	public synchronized File latest(String url) {
+		File[] files = versions(key(url));
+		return files.length == 0 ? null : files[files.length - 1];
+	}
+
+	/**
+	 * Deletes all but the newest versions.
+	 *
+	 * @param key the key
+	 */
+	private void prune(String key) {
+		File[] files = versions(key);
+		for (int i = 0; i < files.length - versions; i++) {
+			if (!files[i].delete()) {
+				logger.warn("could not delete {}", files[i]);
+			}
+		}
+	}
+
+	/**
+	 * Versions of a key, oldest first.
+	 *
+	 * @param key the key
+	 * @return the files
+	 */
+	private File[] versions(String key) {
+		final String prefix = key + ".";
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return new File[0];
+		}
+		int count = 0;
+		for (File file : files) {
+			String name = file.getName();
+			if (name.startsWith(prefix) && name.length() == prefix.length() + 19
+					&& name.substring(prefix.length()).matches("[0-9]+")) {
+				files[count++] = file;
+			}
+		}
+		files = Arrays.copyOf(files, count);
+		Arrays.sort(files);
+		return files;
+	}
+
+	/**
+	 * File name prefix of an url, its last path segment and a hash of the
+	 * whole url.
+	 *
+	 * @param url the url
+	 * @return the string
+	 */
+	static String key(String url) {
+		String name = url.substring(url.lastIndexOf('/') + 1).replaceAll("[^0-9A-Za-z_\\-.]", "");
+		if (name.length() > 64) {
+			name = name.substring(0, 64);
+		}
+		return name + "-" + Hashing.md5().hashString(url, StandardCharsets.UTF_8).toString().substring(0, 8);
+	}
+
+}
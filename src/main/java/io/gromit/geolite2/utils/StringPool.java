@@ -0,0 +1,61 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The Class StringPool.
+ *
+ * Deduplicates the strings of a load, every value equal to one already seen
+ * is replaced by the first copy, so codes and names repeated over hundreds of
+ * thousands of rows are kept only once. A pool is meant for a single load
+ * and is not thread safe.
+ */
+public final class StringPool {
+
+	/** The strings. */
+	private final Map<String, String> strings = new HashMap<>();
+
+	/**
+	 * Pooled copy of a value.
+	 *
+	 * @param value the value, may be null
+	 * @return the first value equal to it
+	 */
+	public String pool(String value) {
+		if (value == null) {
+			return null;
+		}
+		String pooled = strings.get(value);
+		if (pooled == null) {
+			strings.put(value, value);
+			pooled = value;
+		}
+		return pooled;
+	}
+
+	/**
+	 * Size.
+	 *
+	 * @return the number of distinct values
+	 */
+	public int size() {
+		return strings.size();
+	}
+
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DatabaseReferenceTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReclaimedAfterLastRelease() throws Exception {
+		File file = folder.newFile("GeoLite2-City.mmdb");
+		DatabaseReference database = new DatabaseReference(null, file);
+		int slot = database.acquire();
+		assertTrue(slot >= 0);
+		assertTrue(database.pin());
+
+		database.retire();
+		assertEquals(-1, database.acquire());
+		assertFalse(database.pin());
+		assertFalse(database.isClosed());
+		database.release(slot);
+		assertFalse(database.isClosed());
+		assertTrue(file.exists());
+		database.unpin();
+		assertTrue(database.isClosed());
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void testNeverClosedWhileInUse() throws Exception {
+		final DatabaseReference database = new DatabaseReference(null, null);
+		final AtomicBoolean closedInUse = new AtomicBoolean();
+		final CountDownLatch started = new CountDownLatch(4);
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					started.countDown();
+					int slot;
+					while ((slot = database.acquire()) >= 0) {
+						if (database.isClosed()) {
+							closedInUse.set(true);
+						}
+						database.release(slot);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		started.await();
+		Thread.sleep(50);
+		database.retire();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertFalse(closedInUse.get());
+		assertTrue(database.isClosed());
+	}
+
+}
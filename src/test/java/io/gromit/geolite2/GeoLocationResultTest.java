@@ -0,0 +1,85 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.gromit.geolite2.model.City;
+import io.gromit.geolite2.model.Continent;
+import io.gromit.geolite2.model.Country;
+import io.gromit.geolite2.model.Subdivision;
+import io.gromit.geolite2.model.TimeZone;
+
+public class GeoLocationResultTest {
+
+	private ObjectMapper mapper = new ObjectMapper();
+
+	@Test
+	public void testWriteToIpResult() throws IOException {
+		Country country = new Country();
+		country.setName("Brazil");
+		country.setIso("BR");
+		GeoLocationResult result = new GeoLocationResult("179.215.124.14", -23.95, -46.3333, "Santos", null, null,
+				subdivision("Sao Paulo"), null, country, false, new Continent(6255150, "SA", "South America"));
+		assertEquals(mapper.writeValueAsString(result.toMap()), write(result));
+	}
+
+	@Test
+	public void testWriteToCoordinatesResult() throws IOException {
+		City city = new City();
+		city.setName("Santos");
+		Country country = new Country();
+		country.setName("Brazil");
+		country.setIso("BR");
+		country.setCapital("Brasilia");
+		country.setPhone("55");
+		TimeZone timeZone = new TimeZone(1, "BR", "America/Sao_Paulo", -2.0, -3.0, -3.0, 1456020000L);
+		GeoLocationResult result = new GeoLocationResult(null, -23.95, -46.3333, "Santos", city, timeZone,
+				subdivision("Sao Paulo"), subdivision("Santos"), country, true,
+				new Continent(6255150, "SA", "South America"));
+		assertEquals(mapper.writeValueAsString(result.toMap()), write(result));
+	}
+
+	@Test
+	public void testWriteToEmptyResult() throws IOException {
+		GeoLocationResult result = new GeoLocationResult(null, Double.NaN, Double.NaN, null, null,
+				new TimeZone(1, "XX", "Etc/Empty"), null, null, null, false, null);
+		assertEquals(mapper.writeValueAsString(result.toMap()), write(result));
+	}
+
+	private Subdivision subdivision(String name) {
+		Subdivision subdivision = new Subdivision();
+		subdivision.setName(name);
+		return subdivision;
+	}
+
+	private String write(GeoLocationResult result) throws IOException {
+		StringWriter writer = new StringWriter();
+		JsonGenerator generator = mapper.getFactory().createGenerator(writer);
+		result.writeTo(generator);
+		generator.close();
+		return writer.toString();
+	}
+
+}
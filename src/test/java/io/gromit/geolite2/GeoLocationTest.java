@@ -17,16 +17,22 @@ package io.gromit.geolite2;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.UnknownHostException;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.maxmind.geoip2.exception.GeoIp2Exception;
 
 public class GeoLocationTest {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	@Test
 	public void testStartStop() throws UnknownHostException, IOException, GeoIp2Exception {
 		GeoLocation reader = new GeoLocation();
@@ -38,6 +44,7 @@ public class GeoLocationTest {
 		}
 		System.out.println(new ObjectMapper().writeValueAsString(reader.location("179.215.124.14")));
 		System.out.println(new ObjectMapper().writeValueAsString(reader.location(-23.95,-46.3333)));
+		assertEquals(reader.location("179.215.124.14"), reader.find("179.215.124.14").toMap());
 		reader.stop();
 	}
 
@@ -50,4 +57,23 @@ public class GeoLocationTest {
 		}
 	}
 
+	@Test
+	public void testStartAfterStop() throws IOException {
+		String missing = new File(folder.getRoot(), "missing").toURI().toString();
+		GeoLocation reader = new GeoLocation().databaseUrl(missing).md5ChecksumUrl(missing).citiesUrl(missing)
+				.countriesUrl(missing).subdivisionOneUrl(missing).subdivisionTwoUrl(missing).timeZonesUrl(missing);
+		reader.start();
+		reader.stop();
+		try{
+			reader.start();
+			fail("started after stop");
+		}catch(IllegalStateException e){
+		}
+		try{
+			reader.find("179.215.124.14");
+			fail("looked up after stop");
+		}catch(IllegalStateException e){
+		}
+	}
+
 }
@@ -22,7 +22,10 @@ import java.io.IOException;
 import org.junit.Test;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.maxmind.db.NodeCache;
 import com.maxmind.db.NodeCache.Loader;
 
 import io.gromit.geolite2.cache.GuavaCache;
@@ -43,6 +46,57 @@ public class GuavaCacheTest {
 	public void testGet() throws IOException {
 		GuavaCache cache = new GuavaCache();
 		assertEquals(1,cache.get(1, loader).get("key").asInt());
+		assertEquals(1,cache.get(1, loader).get("key").asInt());
+		assertEquals(1,cache.stats().hitCount());
+		assertEquals(1,cache.stats().missCount());
+	}
+
+	@Test
+	public void testNextGeneration() throws IOException {
+		GuavaCache cache = new GuavaCache();
+		cache.get(1, loader);
+		NodeCache discarded = cache.nextGeneration();
+		discarded.get(1, loader);
+		assertEquals(1,cache.size());
+		assertEquals(1,cache.stats().missCount());
+
+		NodeCache generation = cache.nextGeneration();
+		generation.get(2, loader);
+		cache.activate(generation);
+		assertEquals(1,cache.size());
+		assertEquals(2,cache.stats().missCount());
+		generation.get(2, loader);
+		assertEquals(1,cache.stats().hitCount());
+		try{
+			cache.activate(new GuavaCache().nextGeneration());
+			fail("activated a generation of another cache");
+		}catch(IllegalArgumentException e){
+		}
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testFirstGeneration() throws IOException {
+		Cache<Integer, JsonNode> first = CacheBuilder.newBuilder().maximumSize(10).build();
+		GuavaCache cache = new GuavaCache(first);
+		cache.get(1, loader);
+		assertEquals(1, first.size());
+		NodeCache generation = cache.nextGeneration();
+		generation.get(2, loader);
+		cache.activate(generation);
+		assertEquals(1, first.size());
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.stats().missCount());
+	}
+
+	@Test
+	public void testWeighted() throws IOException {
+		GuavaCache cache = GuavaCache.weighted(1024);
+		for(int i=0;i<100;i++){
+			cache.get(i, loader);
+		}
+		assertTrue(cache.size()<100);
+		assertTrue(cache.stats().evictionCount()>0);
 	}
 
 }
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+import io.gromit.geolite2.cache.LocationCache;
+
+public class LocationCacheTest {
+
+	private GeoLocationResult value = new GeoLocationResult("179.215.124.14", -23.95, -46.3333, "Santos", null, null,
+			null, null, null, false, null);
+	
+	@Test
+	public void testSameAddress() throws UnknownHostException {
+		LocationCache cache = new LocationCache();
+		cache.put(InetAddress.getByName("179.215.124.14").getAddress(), cache.generation(), value);
+		assertSame(value, cache.get(InetAddress.getByName("179.215.124.14").getAddress()));
+		assertNull(cache.get(InetAddress.getByName("179.215.124.200").getAddress()));
+		cache.put(InetAddress.getByName("2001:db8:1::1").getAddress(), cache.generation(), value);
+		assertSame(value, cache.get(InetAddress.getByName("2001:db8:1::1").getAddress()));
+		assertNull(cache.get(InetAddress.getByName("2001:db8:1::2").getAddress()));
+	}
+
+	@Test
+	public void testSameNetwork() throws UnknownHostException {
+		LocationCache cache = new LocationCache(1024, 24, 48);
+		cache.put(InetAddress.getByName("179.215.124.14").getAddress(), cache.generation(), value);
+		assertSame(value, cache.get(InetAddress.getByName("179.215.124.200").getAddress()));
+		assertNull(cache.get(InetAddress.getByName("179.215.125.14").getAddress()));
+		cache.put(InetAddress.getByName("2001:db8:1::1").getAddress(), cache.generation(), value);
+		assertSame(value, cache.get(InetAddress.getByName("2001:db8:1:ffff::1").getAddress()));
+		assertNull(cache.get(InetAddress.getByName("2001:db8:2::1").getAddress()));
+	}
+
+	@Test
+	public void testInvalidateAll() throws UnknownHostException {
+		LocationCache cache = new LocationCache();
+		long generation = cache.generation();
+		cache.put(InetAddress.getByName("179.215.124.14").getAddress(), generation, value);
+		cache.invalidateAll();
+		assertNull(cache.get(InetAddress.getByName("179.215.124.14").getAddress()));
+		cache.put(InetAddress.getByName("179.215.124.14").getAddress(), generation, value);
+		assertNull(cache.get(InetAddress.getByName("179.215.124.14").getAddress()));
+	}
+
+}
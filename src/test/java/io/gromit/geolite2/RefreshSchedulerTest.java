@@ -0,0 +1,108 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.geolite2;
+
+import static org.junit.Assert.*;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import io.gromit.geolite2.ReloadEvent.Dataset;
+
+public class RefreshSchedulerTest {
+
+	@Test
+	public void testDelays() {
+		RefreshScheduler scheduler = new RefreshScheduler().jitter(0).backoff(1, 10, TimeUnit.MINUTES)
+				.interval(Dataset.CITIES, 1, TimeUnit.HOURS).interval(Dataset.COUNTRIES, 5, TimeUnit.MINUTES);
+		assertEquals(TimeUnit.HOURS.toMillis(1), scheduler.delay(Dataset.CITIES, 0));
+		assertEquals(TimeUnit.MINUTES.toMillis(1), scheduler.delay(Dataset.CITIES, 1));
+		assertEquals(TimeUnit.MINUTES.toMillis(4), scheduler.delay(Dataset.CITIES, 3));
+		assertEquals(TimeUnit.MINUTES.toMillis(10), scheduler.delay(Dataset.CITIES, 5));
+		assertEquals(TimeUnit.MINUTES.toMillis(10), scheduler.delay(Dataset.CITIES, 100));
+		assertEquals(TimeUnit.MINUTES.toMillis(5), scheduler.delay(Dataset.COUNTRIES, 5));
+
+		scheduler.jitter(0.1);
+		for (int i = 0; i < 100; i++) {
+			long delay = scheduler.delay(Dataset.CITIES, 0);
+			assertTrue(delay >= TimeUnit.MINUTES.toMillis(54) && delay <= TimeUnit.MINUTES.toMillis(66));
+		}
+
+		scheduler.interval(Dataset.CITIES, 30, TimeUnit.DAYS);
+		for (int i = 0; i < 100; i++) {
+			long delay = scheduler.startupDelay();
+			assertTrue(delay >= 0 && delay <= TimeUnit.MINUTES.toMillis(1));
+		}
+	}
+
+	@Test
+	public void testTriggersAndBackoff() throws Exception {
+		final Map<Dataset, AtomicInteger> refreshes = new EnumMap<>(Dataset.class);
+		for (Dataset dataset : Dataset.values()) {
+			refreshes.put(dataset, new AtomicInteger());
+		}
+		GeoLocation geoLocation = new GeoLocation() {
+			@Override
+			public boolean refresh(Dataset dataset) {
+				refreshes.get(dataset).incrementAndGet();
+				return dataset != Dataset.CITIES;
+			}
+		};
+		RefreshScheduler scheduler = new RefreshScheduler().jitter(0).backoff(10, 10, TimeUnit.MILLISECONDS);
+		scheduler.start(geoLocation, false);
+		try {
+			scheduler.start(geoLocation, false);
+			fail("started twice");
+		} catch (IllegalStateException e) {
+		}
+		scheduler.trigger(Dataset.COUNTRIES);
+		scheduler.trigger(Dataset.CITIES);
+		long deadline = System.currentTimeMillis() + 5000;
+		while ((refreshes.get(Dataset.COUNTRIES).get() < 1 || refreshes.get(Dataset.CITIES).get() < 3)
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		scheduler.stop();
+		assertFalse(scheduler.isStarted());
+		int cities = refreshes.get(Dataset.CITIES).get();
+		assertEquals(1, refreshes.get(Dataset.COUNTRIES).get());
+		assertTrue(cities >= 3);
+		assertEquals(0, refreshes.get(Dataset.DATABASE).get());
+		try {
+			scheduler.trigger(Dataset.CITIES);
+			fail("triggered once stopped");
+		} catch (IllegalStateException e) {
+		}
+
+		// the retries pending when stopped never run
+		Thread.sleep(100);
+		assertEquals(cities, refreshes.get(Dataset.CITIES).get());
+
+		scheduler.start(geoLocation, false);
+		scheduler.trigger(Dataset.COUNTRIES);
+		deadline = System.currentTimeMillis() + 5000;
+		while (refreshes.get(Dataset.COUNTRIES).get() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		scheduler.stop();
+		assertEquals(2, refreshes.get(Dataset.COUNTRIES).get());
+	}
+
+}
@@ -0,0 +1,131 @@
+package io.gromit.geolite2.geonames;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import io.gromit.geolite2.model.City;
+
+public class KdTreeTest {
+
+	@Test
+	public void testNearest() {
+		Random random = new Random(42);
+		List<City> cities = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			cities.add(city(i, random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180));
+		}
+		KdTree tree = tree(cities);
+		assertEquals(5000, tree.size());
+		for (int i = 0; i < 1000; i++) {
+			double latitude = random.nextDouble() * 180 - 90;
+			double longitude = random.nextDouble() * 360 - 180;
+			City expected = null;
+			for (City city : cities) {
+				if (expected == null || distance(city, latitude, longitude) < distance(expected, latitude, longitude)) {
+					expected = city;
+				}
+			}
+			assertEquals(expected.getGeonameId(), cities.get(tree.nearest(latitude, longitude)).getGeonameId());
+		}
+	}
+
+	@Test
+	public void testNearestAndWithin() {
+		Random random = new Random(7);
+		final List<City> cities = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			cities.add(city(i, random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180));
+		}
+		KdTree tree = tree(cities);
+		for (int i = 0; i < 200; i++) {
+			final double latitude = random.nextDouble() * 180 - 90;
+			final double longitude = random.nextDouble() * 360 - 180;
+			List<City> sorted = new ArrayList<>(cities);
+			Collections.sort(sorted, new Comparator<City>() {
+				@Override
+				public int compare(City a, City b) {
+					return Double.compare(distance(a, latitude, longitude), distance(b, latitude, longitude));
+				}
+			});
+			double maxKm = 1000 + random.nextInt(2000);
+			List<City> expected = new ArrayList<>();
+			for (City city : sorted) {
+				if (distance(city, latitude, longitude) * KdTree.EARTH_RADIUS_KM <= maxKm) {
+					expected.add(city);
+				}
+			}
+			assertEquals(ids(expected), ids(cities, tree.within(latitude, longitude, maxKm)));
+			assertEquals(ids(expected.subList(0, Math.min(5, expected.size()))),
+					ids(cities, tree.nearest(latitude, longitude, 5, maxKm)));
+			assertEquals(ids(sorted.subList(0, 10)), ids(cities, tree.nearest(latitude, longitude, 10, 20038)));
+		}
+		assertEquals(0, tree.nearest(0, 0, 0, 100).length);
+		assertEquals(0, tree.within(0, 0, -1).length);
+	}
+
+	@Test
+	public void testAntimeridianAndPoles() {
+		List<City> cities = new ArrayList<>();
+		cities.add(city(1, 0, 179.9));
+		cities.add(city(2, 0, 178));
+		cities.add(city(3, 89.9, 0));
+		cities.add(city(4, 85, 179));
+		KdTree tree = tree(cities);
+		assertEquals(Integer.valueOf(1), cities.get(tree.nearest(0, -179.9)).getGeonameId());
+		assertEquals(Integer.valueOf(3), cities.get(tree.nearest(89.9, 180)).getGeonameId());
+		assertEquals(-1, new KdTree(new double[0], new double[0]).nearest(0, 0));
+		assertEquals(Arrays.asList(1, 2), ids(cities, tree.within(0, -179.9, 300)));
+		assertEquals(Arrays.asList(3, 4), ids(cities, tree.nearest(90, 0, 2, 1000)));
+	}
+
+	private static City city(int id, double latitude, double longitude) {
+		City city = new City();
+		city.setGeonameId(id);
+		city.setLatitude(latitude);
+		city.setLongitude(longitude);
+		return city;
+	}
+
+	private static KdTree tree(List<City> cities) {
+		double[] latitudes = new double[cities.size()];
+		double[] longitudes = new double[cities.size()];
+		for (int i = 0; i < cities.size(); i++) {
+			latitudes[i] = cities.get(i).getLatitude();
+			longitudes[i] = cities.get(i).getLongitude();
+		}
+		return new KdTree(latitudes, longitudes);
+	}
+
+	private static List<Integer> ids(List<City> cities, int[] rows) {
+		List<Integer> ids = new ArrayList<>();
+		for (int row : rows) {
+			ids.add(cities.get(row).getGeonameId());
+		}
+		return ids;
+	}
+
+	private static List<Integer> ids(List<City> cities) {
+		List<Integer> ids = new ArrayList<>();
+		for (City city : cities) {
+			ids.add(city.getGeonameId());
+		}
+		return ids;
+	}
+
+	private static double distance(City city, double latitude, double longitude) {
+		double dLat = Math.toRadians(city.getLatitude() - latitude);
+		double dLon = Math.toRadians(city.getLongitude() - longitude);
+		double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.cos(Math.toRadians(latitude))
+				* Math.cos(Math.toRadians(city.getLatitude())) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+		return 2 * Math.asin(Math.sqrt(a));
+	}
+
+}
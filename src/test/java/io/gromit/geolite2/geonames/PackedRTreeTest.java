@@ -0,0 +1,98 @@
+package io.gromit.geolite2.geonames;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import io.gromit.geolite2.model.City;
+
+public class PackedRTreeTest {
+
+	@Test
+	public void testNearest() {
+		Random random = new Random(42);
+		for (int size : new int[] { 1, 15, 16, 17, 257, 5000 }) {
+			List<City> cities = new ArrayList<>();
+			for (int i = 0; i < size; i++) {
+				cities.add(city(i, random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180));
+			}
+			PackedRTree tree = tree(cities);
+			assertEquals(size, tree.size());
+			for (int i = 0; i < 500; i++) {
+				double latitude = random.nextDouble() * 180 - 90;
+				double longitude = random.nextDouble() * 360 - 180;
+				assertEquals(nearest(cities, latitude, longitude).getGeonameId(),
+						cities.get(tree.nearest(latitude, longitude)).getGeonameId());
+			}
+		}
+	}
+
+	@Test
+	public void testClusteredAndDuplicated() {
+		Random random = new Random(7);
+		List<City> cities = new ArrayList<>();
+		for (int i = 0; i < 3000; i++) {
+			double latitude = 40 + random.nextInt(20) * 0.01;
+			double longitude = -3 + random.nextInt(20) * 0.01;
+			cities.add(city(i, i % 3 == 0 ? 40.05 : latitude, i % 3 == 0 ? -2.95 : longitude));
+		}
+		PackedRTree tree = tree(cities);
+		for (int i = 0; i < 500; i++) {
+			double latitude = 39.9 + random.nextDouble() * 0.4;
+			double longitude = -3.1 + random.nextDouble() * 0.4;
+			City expected = nearest(cities, latitude, longitude);
+			City found = cities.get(tree.nearest(latitude, longitude));
+			assertEquals(distance(expected, latitude, longitude), distance(found, latitude, longitude), 0);
+		}
+	}
+
+	@Test
+	public void testLongitudeNormalizedAndEmpty() {
+		List<City> cities = new ArrayList<>();
+		cities.add(city(1, 0, 179.5));
+		cities.add(city(2, 0, -170));
+		PackedRTree tree = tree(cities);
+		assertEquals(Integer.valueOf(2), cities.get(tree.nearest(0, 190)).getGeonameId());
+		assertEquals(Integer.valueOf(1), cities.get(tree.nearest(0, -180.5)).getGeonameId());
+		assertEquals(-1, new PackedRTree(new double[0], new double[0]).nearest(0, 0));
+	}
+
+	private static PackedRTree tree(List<City> cities) {
+		double[] latitudes = new double[cities.size()];
+		double[] longitudes = new double[cities.size()];
+		for (int i = 0; i < cities.size(); i++) {
+			latitudes[i] = cities.get(i).getLatitude();
+			longitudes[i] = cities.get(i).getLongitude();
+		}
+		return new PackedRTree(latitudes, longitudes);
+	}
+
+	private static City nearest(List<City> cities, double latitude, double longitude) {
+		City nearest = null;
+		for (City city : cities) {
+			if (nearest == null || distance(city, latitude, longitude) < distance(nearest, latitude, longitude)) {
+				nearest = city;
+			}
+		}
+		return nearest;
+	}
+
+	private static City city(int id, double latitude, double longitude) {
+		City city = new City();
+		city.setGeonameId(id);
+		city.setLatitude(latitude);
+		city.setLongitude(longitude);
+		return city;
+	}
+
+	private static double distance(City city, double latitude, double longitude) {
+		double dx = (float) city.getLongitude().doubleValue() - (float) PackedRTree.normalizeLongitude(longitude);
+		double dy = (float) city.getLatitude().doubleValue() - (float) latitude;
+		return dx * dx + dy * dy;
+	}
+
+}
@@ -17,12 +17,30 @@ package io.gromit.geolite2.geonames;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import io.gromit.geolite2.LoaderListener;
+import io.gromit.geolite2.ReloadEvent;
 import io.gromit.geolite2.model.TimeZone;
 
 public class TimeZoneFinderTest {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	@Test
 	public void testFind() {
 		TimeZone timeZone = new TimeZoneFinder().readTimeZones().find("America/Argentina/Buenos_Aires");
@@ -30,4 +48,156 @@ public class TimeZoneFinderTest {
 		System.out.print(timeZone);
 	}
 
+	@Test
+	public void testCurrentPeriod() throws Exception {
+		long now = System.currentTimeMillis() / 1000;
+		File zip = folder.newFile("timezonedb.csv.zip");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		out.putNextEntry(new ZipEntry("timezone.csv"));
+		out.write(("zone_id,abbreviation,time_start,gmt_offset,dst\n"
+				+ "1,CET,0,3600,0\n"
+				+ "1,CEST," + (now + 100000) + ",7200,1\n"
+				+ "1,CET," + (now - 1000) + ",3600,0\n"
+				+ "2,IST," + (now - 5000) + ",19800,0\n"
+				+ "2,XXX," + (now - 5000) + ",0,0\n").getBytes(StandardCharsets.UTF_8));
+		out.putNextEntry(new ZipEntry("zone.csv"));
+		out.write("zone_id,country_code,zone_name\n1,ES,Europe/Madrid\n2,IN,Asia/Kolkata\n3,XX,Etc/Empty\n"
+				.getBytes(StandardCharsets.UTF_8));
+		out.close();
+		TimeZoneFinder finder = new TimeZoneFinder().timeZonesUrl(zip.toURI().toString()).readTimeZones();
+
+		TimeZone madrid = finder.find("Europe/Madrid");
+		assertEquals(Integer.valueOf(1), madrid.getId());
+		assertEquals("ES", madrid.getCountryIso());
+		assertEquals(Double.valueOf(1.0), madrid.getCurrentOffset());
+		assertEquals(Double.valueOf(1.0), madrid.getUtcOffset());
+		assertEquals(Double.valueOf(2.0), madrid.getDtsOffset());
+		assertEquals(Long.valueOf(now - 1000), madrid.getChangedAt());
+		assertSame(madrid, finder.find(" europe/madrid "));
+
+		TimeZone kolkata = finder.find("Asia/Kolkata");
+		assertEquals(Double.valueOf(5.5), kolkata.getCurrentOffset());
+		assertEquals(Double.valueOf(5.5), kolkata.getUtcOffset());
+		assertNull(kolkata.getDtsOffset());
+
+		TimeZone empty = finder.find("Etc/Empty");
+		assertEquals("Etc/Empty", empty.getName());
+		assertNull(empty.getCurrentOffset());
+		assertNull(finder.find("Mars/Olympus_Mons"));
+		assertNull(finder.find(" "));
+	}
+
+	@Test
+	public void testHistoricalLookups() throws Exception {
+		File zip = folder.newFile("timezonedb.csv.zip");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		out.putNextEntry(new ZipEntry("timezone.csv"));
+		out.write(("zone_id,abbreviation,time_start,gmt_offset,dst\n"
+				+ "1,CET,1000,3600,0\n"
+				+ "1,CEST,2000,7200,1\n"
+				+ "1,CET,3000,3600,0\n").getBytes(StandardCharsets.UTF_8));
+		out.putNextEntry(new ZipEntry("zone.csv"));
+		out.write("zone_id,country_code,zone_name\n1,ES,Europe/Madrid\n".getBytes(StandardCharsets.UTF_8));
+		out.close();
+		TimeZoneFinder finder = new TimeZoneFinder().timeZonesUrl(zip.toURI().toString()).readTimeZones();
+
+		assertEquals(Double.valueOf(2.0), finder.find("Europe/Madrid", 2500).getCurrentOffset());
+		assertEquals(Long.valueOf(2000), finder.find("Europe/Madrid", 2000).getChangedAt());
+		assertEquals(Double.valueOf(1.0), finder.find("Europe/Madrid", 1999).getCurrentOffset());
+		assertNull(finder.find("Europe/Madrid", 500).getChangedAt());
+		assertNull(finder.find("Mars/Olympus_Mons", 2500));
+
+		long[] epochSeconds = { 3500, 1500, 2500, 500, 2999, 1500 };
+		TimeZone[] timeZones = finder.find("europe/madrid", epochSeconds);
+		assertEquals(epochSeconds.length, timeZones.length);
+		for (int i = 0; i < epochSeconds.length; i++) {
+			assertEquals(finder.find("Europe/Madrid", epochSeconds[i]).getChangedAt(), timeZones[i].getChangedAt());
+		}
+		assertSame(timeZones[1], timeZones[5]);
+		assertEquals(Double.valueOf(2.0), timeZones[4].getCurrentOffset());
+		assertEquals(6, finder.find("Mars/Olympus_Mons", epochSeconds).length);
+
+		finder.clock(Clock.fixed(Instant.ofEpochSecond(2500), ZoneOffset.UTC));
+		assertEquals(Double.valueOf(2.0), finder.find("Europe/Madrid").getCurrentOffset());
+		finder.clock(Clock.fixed(Instant.ofEpochSecond(3500), ZoneOffset.UTC));
+		assertEquals(Double.valueOf(1.0), finder.find("Europe/Madrid").getCurrentOffset());
+		assertEquals(Long.valueOf(3000), finder.find("Europe/Madrid").getChangedAt());
+	}
+
+	@Test
+	public void testReloadEvents() throws Exception {
+		File zip = folder.newFile("timezonedb.csv.zip");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		out.putNextEntry(new ZipEntry("timezone.csv"));
+		out.write(("zone_id,abbreviation,time_start,gmt_offset,dst\n"
+				+ "1,CET,1000,3600,0\n"
+				+ "2,IST,1000,19800,0\n").getBytes(StandardCharsets.UTF_8));
+		out.putNextEntry(new ZipEntry("zone.csv"));
+		out.write("zone_id,country_code,zone_name\n1,ES,Europe/Madrid\n2,IN,Asia/Kolkata\n3,XX,Etc/Empty\n"
+				.getBytes(StandardCharsets.UTF_8));
+		out.close();
+		final List<ReloadEvent> events = new ArrayList<>();
+		LoaderListener listener = new LoaderListener() {
+			@Override
+			public void success(String url) {
+			}
+			@Override
+			public void failure(String url, Exception e) {
+			}
+			@Override
+			public void reload(ReloadEvent event) {
+				events.add(event);
+			}
+		};
+		String url = zip.toURI().toString();
+		new TimeZoneFinder().loaderListener(listener).timeZonesUrl(url).readTimeZones();
+		new TimeZoneFinder().loaderListener(listener).timeZonesUrl(url + ".missing").readTimeZones();
+		assertEquals(2, events.size());
+
+		ReloadEvent loaded = events.get(0);
+		assertEquals(ReloadEvent.Dataset.TIME_ZONES, loaded.getDataset());
+		assertEquals(url, loaded.getUrl());
+		assertEquals(zip.length(), loaded.getBytes());
+		assertEquals(5, loaded.getRecords());
+		assertTrue(loaded.getTotalNanos() >= loaded.getDownloadNanos() + loaded.getParseNanos());
+		assertFalse(loaded.isSkipped());
+		assertNull(loaded.getFailure());
+
+		ReloadEvent failed = events.get(1);
+		assertEquals(0, failed.getRecords());
+		assertNotNull(failed.getFailure());
+	}
+
+	@Test
+	public void testUnchangedContent() throws Exception {
+		File zip = folder.newFile("timezonedb.csv.zip");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		out.putNextEntry(new ZipEntry("timezone.csv"));
+		out.write("zone_id,abbreviation,time_start,gmt_offset,dst\n1,CET,1000,3600,0\n".getBytes(StandardCharsets.UTF_8));
+		out.putNextEntry(new ZipEntry("zone.csv"));
+		out.write("zone_id,country_code,zone_name\n1,ES,Europe/Madrid\n".getBytes(StandardCharsets.UTF_8));
+		out.close();
+		final List<ReloadEvent> events = new ArrayList<>();
+		LoaderListener listener = new LoaderListener() {
+			@Override
+			public void success(String url) {
+			}
+			@Override
+			public void failure(String url, Exception e) {
+			}
+			@Override
+			public void reload(ReloadEvent event) {
+				events.add(event);
+			}
+		};
+		TimeZoneFinder finder = new TimeZoneFinder().loaderListener(listener).timeZonesUrl(zip.toURI().toString()).readTimeZones();
+		TimeZoneFinder.TimeZones timeZones = finder.timeZones();
+		
+		// entries streamed with data descriptors, the digest finds them unchanged
+		assertSame(timeZones, finder.loadTimeZones());
+		assertFalse(events.get(0).isSkipped());
+		assertTrue(events.get(1).isSkipped());
+		assertEquals(2, events.get(1).getRecords());
+	}
+
 }
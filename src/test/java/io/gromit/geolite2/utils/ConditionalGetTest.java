@@ -0,0 +1,116 @@
+package io.gromit.geolite2.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ConditionalGetTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private HttpServer server;
+
+	private final List<String> requests = new ArrayList<>();
+
+	private volatile String etag = "\"one\"";
+
+	private String url;
+
+	@Before
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/cities.zip", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+				requests.add(String.valueOf(ifNoneMatch));
+				if (etag.equals(ifNoneMatch)) {
+					exchange.sendResponseHeaders(304, -1);
+				} else {
+					byte[] content = etag.getBytes(StandardCharsets.UTF_8);
+					exchange.getResponseHeaders().add("ETag", etag);
+					exchange.sendResponseHeaders(200, content.length);
+					OutputStream body = exchange.getResponseBody();
+					body.write(content);
+				}
+				exchange.close();
+			}
+		});
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/cities.zip";
+	}
+
+	@After
+	public void stop() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testNotModified() throws IOException {
+		ConditionalGet conditionalGet = new ConditionalGet();
+		assertFalse(conditionalGet.isValidated(url));
+		ConditionalGet.Response response = conditionalGet.open(url, null);
+		assertEquals("\"one\"", IOUtils.toString(response.getInputStream(), StandardCharsets.UTF_8));
+
+		// not committed, the content is fetched again
+		response = conditionalGet.open(url, null);
+		assertNotNull(response);
+		IOUtils.closeQuietly(response.getInputStream());
+		response.commit();
+		assertTrue(conditionalGet.isValidated(url));
+		assertNull(conditionalGet.open(url, null));
+
+		etag = "\"two\"";
+		response = conditionalGet.open(url, null);
+		assertEquals("\"two\"", IOUtils.toString(response.getInputStream(), StandardCharsets.UTF_8));
+		assertEquals("[null, null, \"one\", \"one\"]", requests.toString());
+	}
+
+	@Test
+	public void testSnapshots() throws IOException {
+		ConditionalGet conditionalGet = new ConditionalGet();
+		SnapshotStore store = new SnapshotStore(folder.getRoot());
+		ConditionalGet.Response response = conditionalGet.open(url, store);
+		assertEquals("\"one\"", IOUtils.toString(response.getInputStream(), StandardCharsets.UTF_8));
+		IOUtils.closeQuietly(response.getInputStream());
+
+		// not committed, the pending file is deleted
+		assertNull(store.latest(url));
+		assertEquals(0, folder.getRoot().list().length);
+
+		response = conditionalGet.open(url, store);
+		assertEquals("\"one\"", IOUtils.toString(response.getInputStream(), StandardCharsets.UTF_8));
+		assertNull(store.latest(url));
+		response.commit();
+		File snapshot = store.latest(url);
+		assertEquals("\"one\"", FileUtils.readFileToString(snapshot, StandardCharsets.UTF_8));
+		assertEquals(1, folder.getRoot().list().length);
+
+		// local files are read in place
+		response = conditionalGet.open(snapshot.toURI().toString(), store);
+		assertEquals("\"one\"", IOUtils.toString(response.getInputStream(), StandardCharsets.UTF_8));
+		IOUtils.closeQuietly(response.getInputStream());
+		response.commit();
+		assertEquals(1, folder.getRoot().list().length);
+	}
+
+}
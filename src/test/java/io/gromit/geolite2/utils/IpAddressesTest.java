@@ -0,0 +1,53 @@
+package io.gromit.geolite2.utils;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class IpAddressesTest {
+
+	@Test
+	public void testParse() throws UnknownHostException {
+		String[] ips = { "179.215.124.14", "0.0.0.0", "255.255.255.255", "010.001.0.1", "::", "::1", "1::",
+				"2001:db8::ff00:42:8329", "2001:0db8:0000:0000:0000:ff00:0042:8329", "fe80::1:2:3:4:5:6",
+				"::ffff:179.215.124.14", "64:ff9b::192.0.2.33", "1:2:3:4:5:6:7:8", "1:2:3:4:5:6:1.2.3.4", "A::B" };
+		byte[] address = new byte[16];
+		for (String ip : ips) {
+			int length = IpAddresses.parse(ip, address);
+			byte[] expected = InetAddress.getByName(ip).getAddress();
+			if (length == 16 && expected.length == 4) {
+				assertTrue(ip, IpAddresses.isIpv4Mapped(address, 0));
+				assertArrayEquals(ip, expected, Arrays.copyOfRange(address, 12, 16));
+			} else {
+				assertArrayEquals(ip, expected, Arrays.copyOf(address, length));
+			}
+			assertEquals(ip, InetAddress.getByName(ip).getHostAddress(), IpAddresses.format(address, 0, length));
+		}
+	}
+
+	@Test
+	public void testInvalid() {
+		String[] ips = { null, "", "localhost", "www.google.com", "1.2.3", "1.2.3.4.5", "256.1.1.1", "1.2.3.-4",
+				"1..2.3", "1.2.3.4 ", "1:2:3:4:5:6:7", "1:2:3:4:5:6:7:8:9", "1::2::3", ":1::2", "1::2:", "12345::",
+				"::g", "[::1]", "fe80::1%eth0", "1:2:3:4:5:6:7::8", "::1.2.3", "1:2:3:4:5:6:7:1.2.3.4",
+				"\uFF11::", "::\uFF41" };
+		byte[] address = new byte[16];
+		for (String ip : ips) {
+			assertEquals(String.valueOf(ip), -1, IpAddresses.parse(ip, address));
+		}
+	}
+
+	@Test
+	public void testWrite() {
+		byte[] address = new byte[16];
+		assertEquals(4, IpAddresses.write(0xB3D77C0E, address));
+		assertEquals("179.215.124.14", IpAddresses.format(address, 0, 4));
+		assertEquals(16, IpAddresses.write(0x20010db800000000l, 0x0000ff0000428329l, address));
+		assertEquals("2001:db8:0:0:0:ff00:42:8329", IpAddresses.format(address, 0, 16));
+	}
+
+}
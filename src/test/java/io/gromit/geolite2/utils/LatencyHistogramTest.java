@@ -0,0 +1,39 @@
+package io.gromit.geolite2.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testBuckets() {
+		for (long value : new long[] { 0, 1, 127, 128, 129, 255, 256, 257, 511, 512, 1000, 123456789, LatencyHistogram.MAX_VALUE }) {
+			long highest = LatencyHistogram.highest(LatencyHistogram.index(value));
+			assertTrue(value + " over " + highest, highest >= value);
+			assertTrue(value + " under " + highest, highest - value <= value / 128);
+		}
+		assertEquals(128, LatencyHistogram.highest(LatencyHistogram.index(128)));
+		assertEquals(LatencyHistogram.index(256), LatencyHistogram.index(257));
+		assertEquals(LatencyHistogram.index(511) + 1, LatencyHistogram.index(512));
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.percentile(99));
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+		histogram.record(-5);
+		assertEquals(1001, histogram.count());
+		assertEquals(0, histogram.percentile(0));
+		assertEquals(500000, histogram.percentile(50), 500000 / 128);
+		assertEquals(990000, histogram.percentile(99), 990000 / 128);
+		assertEquals(1000000, histogram.percentile(100), 1000000 / 128);
+		assertEquals(500000, histogram.mean(), 1000);
+		histogram.reset();
+		assertEquals(0, histogram.count());
+	}
+
+}
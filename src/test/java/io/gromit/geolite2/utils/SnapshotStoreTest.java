@@ -0,0 +1,45 @@
+package io.gromit.geolite2.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SnapshotStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testVersions() throws IOException {
+		SnapshotStore store = new SnapshotStore(folder.getRoot(), 2);
+		String url = "http://localhost/export/cities.zip";
+		assertNull(store.latest(url));
+		File pending = store.pending(url, content("one"));
+		assertNull(store.latest(url));
+		File one = store.promote(url, pending);
+		assertFalse(pending.exists());
+		assertEquals(one, store.latest(url));
+		assertEquals(one, store.promote(url, store.pending(url, content("one"))));
+		File two = store.promote(url, store.pending(url, content("two")));
+		File three = store.promote(url, store.pending(url, content("three")));
+		assertEquals(three, store.latest(url));
+		assertEquals("three", FileUtils.readFileToString(three, StandardCharsets.UTF_8));
+		assertTrue(two.exists());
+		assertFalse(one.exists());
+		assertNull(store.latest("http://localhost/export/countries.zip"));
+		assertEquals(2, folder.getRoot().list().length);
+	}
+
+	private static ByteArrayInputStream content(String value) {
+		return new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
@@ -0,0 +1,19 @@
+package io.gromit.geolite2.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class StringPoolTest {
+
+	@Test
+	public void testPool() {
+		StringPool pool = new StringPool();
+		String first = pool.pool(new String("America/Sao_Paulo"));
+		assertSame(first, pool.pool(new String("America/Sao_Paulo")));
+		assertNotSame(first, pool.pool("Europe/Madrid"));
+		assertNull(pool.pool(null));
+		assertEquals(2, pool.size());
+	}
+
+}